@@ -15,8 +15,13 @@
 
 package org.springframework.security.acls.afterinvocation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.security.access.AfterInvocationProvider;
 import org.springframework.security.access.ConfigAttribute;
@@ -90,6 +95,58 @@ public abstract class AbstractAclProvider implements AfterInvocationProvider {
         }
     }
 
+    /**
+     * Determines the object identities on which the principal has been granted the required permissions. Unlike
+     * repeated calls to {@link #hasPermission(Authentication, Object)}, the principal's SIDs are obtained once and all
+     * of the ACLs are read with a single call to {@link AclService#readAclsById(List, List)}.
+     * <p>
+     * If that call fails because some of the ACLs do not exist, the ACLs are read one at a time instead, and the
+     * identities without an ACL are not granted.
+     * <p>
+     * This is the extension point for customising the decisions made for whole collections, and is used instead of
+     * <tt>hasPermission</tt> by providers which filter collections, unless they are configured otherwise.
+     *
+     * @param authentication the principal
+     * @param objectIdentities the distinct object identities to check
+     *
+     * @return the object identities for which the permissions are granted (never <tt>null</tt>)
+     */
+    protected Set<ObjectIdentity> getGrantedObjectIdentities(Authentication authentication,
+            Set<ObjectIdentity> objectIdentities) {
+        Set<ObjectIdentity> granted = new HashSet<ObjectIdentity>();
+
+        if (objectIdentities.isEmpty()) {
+            return granted;
+        }
+
+        List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
+        Map<ObjectIdentity, Acl> acls;
+
+        try {
+            acls = aclService.readAclsById(new ArrayList<ObjectIdentity>(objectIdentities), sids);
+        } catch (NotFoundException someAclsMissing) {
+            acls = new HashMap<ObjectIdentity, Acl>();
+
+            for (ObjectIdentity objectIdentity : objectIdentities) {
+                try {
+                    acls.put(objectIdentity, aclService.readAclById(objectIdentity, sids));
+                } catch (NotFoundException ignore) {
+                }
+            }
+        }
+
+        for (Map.Entry<ObjectIdentity, Acl> entry : acls.entrySet()) {
+            try {
+                if (entry.getValue().isGranted(requirePermission, sids, false)) {
+                    granted.add(entry.getKey());
+                }
+            } catch (NotFoundException ignore) {
+            }
+        }
+
+        return granted;
+    }
+
     public void setObjectIdentityRetrievalStrategy(ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
         Assert.notNull(objectIdentityRetrievalStrategy, "ObjectIdentityRetrievalStrategy required");
         this.objectIdentityRetrievalStrategy = objectIdentityRetrievalStrategy;
@@ -14,8 +14,12 @@
  */
 package org.springframework.security.acls.afterinvocation;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -23,6 +27,7 @@ import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.AuthorizationServiceException;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.core.Authentication;
 
@@ -43,7 +48,11 @@ import org.springframework.security.core.Authentication;
  * when presenting the {@link #requirePermission} array to that method.
  * <p>
  * If the principal does not have permission, that element will not be included in the returned
- * <code>Collection</code>.
+ * <code>Collection</code>. The ACLs of all the elements are read from the <code>AclService</code> with a single
+ * call, and the unauthorised elements are then removed in a single pass. The decisions can be customised by
+ * overriding {@link #getGrantedObjectIdentities(Authentication, Set)}. If <tt>batchAclLookup</tt> is set to
+ * <tt>false</tt>, {@link #hasPermission(Authentication, Object)} is instead called for each element, which should
+ * be done by subclasses that override that method.
  * <p>
  * Often users will setup a <code>BasicAclEntryAfterInvocationProvider</code> with a {@link
  * #processConfigAttribute} of <code>AFTER_ACL_COLLECTION_READ</code> and a {@link #requirePermission} of
@@ -63,6 +72,10 @@ public class AclEntryAfterInvocationCollectionFilteringProvider extends Abstract
 
     protected static final Log logger = LogFactory.getLog(AclEntryAfterInvocationCollectionFilteringProvider.class);
 
+    //~ Instance fields ================================================================================================
+
+    private boolean batchAclLookup = true;
+
     //~ Constructors ===================================================================================================
 
     public AclEntryAfterInvocationCollectionFilteringProvider(AclService aclService, List<Permission> requirePermission) {
@@ -100,15 +113,40 @@ public class AclEntryAfterInvocationCollectionFilteringProvider extends Abstract
                         + "returnedObject, but the returnedObject was: " + returnedObject);
             }
 
-            // Locate unauthorised Collection elements
+            // Find the identities of the elements, so that their ACLs can be read together
+            List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+            Set<ObjectIdentity> distinctIdentities = new LinkedHashSet<ObjectIdentity>();
+
             for (Object domainObject : filterer) {
                 // Ignore nulls or entries which aren't instances of the configured domain object class
                 if (domainObject == null || !getProcessDomainObjectClass().isAssignableFrom(domainObject.getClass())) {
+                    objectIdentities.add(null);
+                    continue;
+                }
+
+                ObjectIdentity objectIdentity = objectIdentityRetrievalStrategy.getObjectIdentity(domainObject);
+                objectIdentities.add(objectIdentity);
+                distinctIdentities.add(objectIdentity);
+            }
+
+            Set<ObjectIdentity> granted = batchAclLookup ?
+                    getGrantedObjectIdentities(authentication, distinctIdentities) : null;
+
+            // Remove unauthorised Collection elements
+            Iterator<?> elements = filterer.iterator();
+
+            for (ObjectIdentity objectIdentity : objectIdentities) {
+                Object domainObject = elements.next();
+
+                if (objectIdentity == null) {
                     continue;
                 }
 
-                if(!hasPermission(authentication, domainObject)) {
-                    filterer.remove(domainObject);
+                boolean permitted = granted == null ? hasPermission(authentication, domainObject) :
+                        granted.contains(objectIdentity);
+
+                if (!permitted) {
+                    elements.remove();
 
                     if (logger.isDebugEnabled()) {
                         logger.debug("Principal is NOT authorised for element: " + domainObject);
@@ -121,4 +159,14 @@ public class AclEntryAfterInvocationCollectionFilteringProvider extends Abstract
 
         return returnedObject;
     }
+
+    /**
+     * If set to <tt>false</tt>, {@link #hasPermission(Authentication, Object)} is called for each element rather than
+     * reading the ACLs of all the elements together. Defaults to <tt>true</tt>.
+     *
+     * @since 3.0.2
+     */
+    public void setBatchAclLookup(boolean batchAclLookup) {
+        this.batchAclLookup = batchAclLookup;
+    }
 }
@@ -16,10 +16,9 @@
 package org.springframework.security.acls.afterinvocation;
 
 import java.lang.reflect.Array;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,18 +37,13 @@ class ArrayFilterer<T> implements Filterer<T> {
 
     //~ Instance fields ================================================================================================
 
-    private final Set<T> removeList;
+    private final BitSet removed = new BitSet();
     private final T[] list;
 
     //~ Constructors ===================================================================================================
 
     ArrayFilterer(T[] list) {
         this.list = list;
-
-        // Collect the removed objects to a HashSet so that
-        // it is fast to lookup them when a filtered array
-        // is constructed.
-        removeList = new HashSet<T>();
     }
 
     //~ Methods ========================================================================================================
@@ -60,16 +54,14 @@ class ArrayFilterer<T> implements Filterer<T> {
      */
     @SuppressWarnings("unchecked")
     public T[] getFilteredObject() {
-        // Recreate an array of same type and filter the removed objects.
+        // Recreate an array of same type, copying the elements which were not removed
         int originalSize = list.length;
-        int sizeOfResultingList = originalSize - removeList.size();
+        int sizeOfResultingList = originalSize - removed.cardinality();
         T[] filtered = (T[]) Array.newInstance(list.getClass().getComponentType(), sizeOfResultingList);
 
         for (int i = 0, j = 0; i < list.length; i++) {
-            T object = list[i];
-
-            if (!removeList.contains(object)) {
-                filtered[j] = object;
+            if (!removed.get(i)) {
+                filtered[j] = list[i];
                 j++;
             }
         }
@@ -102,16 +94,11 @@ class ArrayFilterer<T> implements Filterer<T> {
             }
 
             public void remove() {
-                throw new UnsupportedOperationException();
+                if (index == 0 || removed.get(index - 1)) {
+                    throw new IllegalStateException();
+                }
+                removed.set(index - 1);
             }
         };
     }
-
-    /**
-     *
-     * @see org.springframework.security.acls.afterinvocation.Filterer#remove(java.lang.Object)
-     */
-    public void remove(T object) {
-        removeList.add(object);
-    }
 }
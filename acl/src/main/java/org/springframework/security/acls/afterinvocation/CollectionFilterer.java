@@ -18,10 +18,12 @@ package org.springframework.security.acls.afterinvocation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 
 
 /**
@@ -39,24 +41,24 @@ class CollectionFilterer<T> implements Filterer<T> {
 
     private Collection<T> collection;
 
-    // collectionIter offers significant performance optimisations (as
-    // per security-developer mailing list conversation 19/5/05)
-    private Iterator<T> collectionIter;
-    private Set<T> removeList;
+    // The positions of the elements to be removed from a random access List,
+    // which are removed together once the iteration has ended
+    private BitSet removed;
+    private int removedCount;
 
     //~ Constructors ===================================================================================================
 
     CollectionFilterer(Collection<T> collection) {
         this.collection = collection;
 
-        // We create a Set of objects to be removed from the Collection,
-        // as ConcurrentModificationException prevents removal during
-        // iteration, and making a new Collection to be returned is
-        // problematic as the original Collection implementation passed
-        // to the method may not necessarily be re-constructable (as
-        // the Collection(collection) constructor is not guaranteed and
-        // manually adding may lose sort order or other capabilities)
-        removeList = new HashSet<T>();
+        // Elements are removed from the Collection itself, as making a new
+        // Collection to be returned is problematic as the original Collection
+        // implementation passed to the method may not necessarily be
+        // re-constructable (as the Collection(collection) constructor is not
+        // guaranteed and manually adding may lose sort order or other capabilities)
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            removed = new BitSet();
+        }
     }
 
     //~ Methods ========================================================================================================
@@ -66,15 +68,30 @@ class CollectionFilterer<T> implements Filterer<T> {
      * @see org.springframework.security.acls.afterinvocation.Filterer#getFilteredObject()
      */
     public Object getFilteredObject() {
-        // Now the Iterator has ended, remove Objects from Collection
-        Iterator<T> removeIter = removeList.iterator();
-
-        int originalSize = collection.size();
-
-        while (removeIter.hasNext()) {
-            collection.remove(removeIter.next());
+        int originalSize = collection.size() + (removed == null ? removedCount : 0);
+
+        if (removed != null && removedCount > 0) {
+            // Compact the retained elements towards the start of the List, then
+            // truncate it, rather than shifting the tail for each removal
+            List<T> list = (List<T>) collection;
+            int j = 0;
+
+            for (int i = 0; i < originalSize; i++) {
+                if (!removed.get(i)) {
+                    if (i != j) {
+                        list.set(j, list.get(i));
+                    }
+
+                    j++;
+                }
+            }
+
+            list.subList(j, originalSize).clear();
+            removed.clear();
         }
 
+        removedCount = 0;
+
         if (logger.isDebugEnabled()) {
             logger.debug("Original collection contained " + originalSize + " elements; now contains "
                 + collection.size() + " elements");
@@ -88,16 +105,50 @@ class CollectionFilterer<T> implements Filterer<T> {
      * @see org.springframework.security.acls.afterinvocation.Filterer#iterator()
      */
     public Iterator<T> iterator() {
-        collectionIter = collection.iterator();
+        if (removed != null) {
+            final List<T> list = (List<T>) collection;
+
+            return new Iterator<T>() {
+                private int index = 0;
+
+                public boolean hasNext() {
+                    return index < list.size();
+                }
+
+                public T next() {
+                    if (hasNext() == false) {
+                        throw new NoSuchElementException();
+                    }
+                    return list.get(index++);
+                }
+
+                public void remove() {
+                    if (index == 0 || removed.get(index - 1)) {
+                        throw new IllegalStateException();
+                    }
+                    removed.set(index - 1);
+                    removedCount++;
+                }
+            };
+        }
 
-        return collectionIter;
-    }
+        // Other Collections remove elements through their own Iterator, which
+        // takes constant time for linked and hashed implementations
+        final Iterator<T> collectionIter = collection.iterator();
 
-    /**
-     *
-     * @see org.springframework.security.acls.afterinvocation.Filterer#remove(java.lang.Object)
-     */
-    public void remove(T object) {
-        removeList.add(object);
+        return new Iterator<T>() {
+            public boolean hasNext() {
+                return collectionIter.hasNext();
+            }
+
+            public T next() {
+                return collectionIter.next();
+            }
+
+            public void remove() {
+                collectionIter.remove();
+                removedCount++;
+            }
+        };
     }
 }
@@ -35,16 +35,11 @@ interface Filterer<T> extends Iterable<T> {
     Object getFilteredObject();
 
     /**
-     * Returns an iterator over the filtered collection or array.
+     * Returns an iterator over the filtered collection or array. The iterator's <code>remove</code> method excludes
+     * the element it last returned from the filtered object, so that elements are identified by their position
+     * rather than by equality.
      *
      * @return an Iterator
      */
     Iterator<T> iterator();
-
-    /**
-     * Removes the the given object from the resulting list.
-     *
-     * @param object the object to be removed
-     */
-    void remove(T object);
 }
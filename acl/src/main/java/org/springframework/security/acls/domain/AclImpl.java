@@ -16,7 +16,9 @@ package org.springframework.security.acls.domain;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
@@ -37,6 +39,11 @@ import org.springframework.util.Assert;
  * @author Ben Alex
  */
 public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
+    //~ Static fields/initializers =====================================================================================
+
+    /** ACLs with fewer entries than this are scanned directly, as building an index would cost more than it saves */
+    static final int INDEX_THRESHOLD = 16;
+
     //~ Instance fields ================================================================================================
 
     private Acl parentAcl;
@@ -48,6 +55,8 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
     private Sid owner; // OwnershipAcl
     private List<Sid> loadedSids = null; // includes all SIDs the WHERE clause covered, even if there was no ACE for a SID
     private boolean entriesInheriting = true;
+    /** Maps each SID and permission mask combination to the first ACE which matches it. Rebuilt on demand. */
+    private transient volatile Map<AceKey, AccessControlEntry> aceIndex;
 
     //~ Constructors ===================================================================================================
 
@@ -119,6 +128,7 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
 
         synchronized (aces) {
             this.aces.remove(aceIndex);
+            this.aceIndex = null;
         }
     }
 
@@ -147,9 +157,20 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
 
         synchronized (aces) {
             this.aces.add(atIndexLocation, ace);
+            this.aceIndex = null;
         }
     }
 
+    /**
+     * Installs the parent and entries read by a lookup strategy, bypassing the authorization checks applied to
+     * modifications. Used by {@link AclImplBuilder}.
+     */
+    void setLoadedState(Acl parentAcl, List<AccessControlEntry> entries) {
+        this.parentAcl = parentAcl;
+        this.aces = entries;
+        this.aceIndex = null;
+    }
+
     public List<AccessControlEntry> getEntries() {
         // Can safely return AccessControlEntry directly, as they're immutable outside the ACL package
         return new ArrayList<AccessControlEntry>(aces);
@@ -212,36 +233,27 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
         for (Permission p : permission) {
             for (Sid sid: sids) {
                 // Attempt to find exact match for this permission mask and SID
-                boolean scanNextSid = true;
-
-                for (AccessControlEntry ace : aces ) {
-
-                    if ((ace.getPermission().getMask() == p.getMask()) && ace.getSid().equals(sid)) {
-                        // Found a matching ACE, so its authorization decision will prevail
-                        if (ace.isGranting()) {
-                            // Success
-                            if (!administrativeMode) {
-                                auditLogger.logIfNeeded(true, ace);
-                            }
-
-                            return true;
-                        }
-
-                        // Failure for this permission, so stop search
-                        // We will see if they have a different permission
-                        // (this permission is 100% rejected for this SID)
-                        if (firstRejection == null) {
-                            // Store first rejection for auditing reasons
-                            firstRejection = ace;
+                AccessControlEntry ace = findFirstMatchingAce(p.getMask(), sid);
+
+                if (ace != null) {
+                    // Found a matching ACE, so its authorization decision will prevail
+                    if (ace.isGranting()) {
+                        // Success
+                        if (!administrativeMode) {
+                            auditLogger.logIfNeeded(true, ace);
                         }
 
-                        scanNextSid = false; // helps break the loop
+                        return true;
+                    }
 
-                        break; // exit aces loop
+                    // Failure for this permission, so stop search
+                    // We will see if they have a different permission
+                    // (this permission is 100% rejected for this SID)
+                    if (firstRejection == null) {
+                        // Store first rejection for auditing reasons
+                        firstRejection = ace;
                     }
-                }
 
-                if (!scanNextSid) {
                     break; // exit SID for loop (now try next permission)
                 }
             }
@@ -267,6 +279,48 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
         }
     }
 
+    /**
+     * Returns the first entry in the ACE list which has the given permission mask and SID. Large ACLs are searched
+     * using an index which is built on first use and discarded whenever the entries are modified.
+     */
+    private AccessControlEntry findFirstMatchingAce(int mask, Sid sid) {
+        if (aces.size() < INDEX_THRESHOLD) {
+            for (AccessControlEntry ace : aces) {
+                if ((ace.getPermission().getMask() == mask) && ace.getSid().equals(sid)) {
+                    return ace;
+                }
+            }
+
+            return null;
+        }
+
+        Map<AceKey, AccessControlEntry> index = aceIndex;
+
+        if (index == null) {
+            index = buildAceIndex();
+        }
+
+        return index.get(new AceKey(sid, mask));
+    }
+
+    private Map<AceKey, AccessControlEntry> buildAceIndex() {
+        synchronized (aces) {
+            Map<AceKey, AccessControlEntry> index = new HashMap<AceKey, AccessControlEntry>(aces.size() * 2);
+
+            for (AccessControlEntry ace : aces) {
+                AceKey key = new AceKey(ace.getSid(), ace.getPermission().getMask());
+
+                if (!index.containsKey(key)) {
+                    index.put(key, ace);
+                }
+            }
+
+            aceIndex = index;
+
+            return index;
+        }
+    }
+
     public boolean isSidLoaded(List<Sid> sids) {
         // If loadedSides is null, this indicates all SIDs were loaded
         // Also return true if the caller didn't specify a SID to find
@@ -361,6 +415,7 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
         synchronized (aces) {
             AccessControlEntryImpl ace = (AccessControlEntryImpl) aces.get(aceIndex);
             ace.setPermission(permission);
+            this.aceIndex = null;
         }
     }
 
@@ -405,4 +460,28 @@ public class AclImpl implements Acl, MutableAcl, AuditableAcl, OwnershipAcl {
         return false;
     }
 
+    //~ Inner Classes ==================================================================================================
+
+    private static final class AceKey {
+        private final Sid sid;
+        private final int mask;
+
+        AceKey(Sid sid, int mask) {
+            this.sid = sid;
+            this.mask = mask;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof AceKey)) {
+                return false;
+            }
+
+            AceKey other = (AceKey) obj;
+            return mask == other.mask && other.sid.equals(sid);
+        }
+
+        public int hashCode() {
+            return sid.hashCode() * 31 + mask;
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package org.springframework.security.acls.domain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Assembles an {@link AclImpl} as its state is read from a data store, without the need to create the ACL twice
+ * (once with a placeholder parent) or to populate its entries using reflection.
+ * <p>
+ * The ACL and each of its {@link AccessControlEntryImpl}s are created as the data is supplied, but the ACL is not
+ * complete until {@link #build(Acl)} has been called with its parent, which a lookup strategy will typically do
+ * once all the ACLs in a hierarchy have been read. Entries added through the builder are not subject to the
+ * {@link AclAuthorizationStrategy} checks applied by {@link AclImpl#insertAce(int, Permission, Sid, boolean)},
+ * since they represent state which has already been persisted.
+ *
+ * @since 3.0.2
+ */
+public final class AclImplBuilder {
+    //~ Instance fields ================================================================================================
+
+    private final AclImpl acl;
+    private final Serializable parentId;
+    private final List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>();
+    private boolean built;
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * @param objectIdentity the object identity the ACL relates to (required)
+     * @param id the primary key of the ACL (required)
+     * @param parentId the primary key of the parent ACL, or <tt>null</tt> if there is no parent
+     * @param entriesInheriting if ACEs from the parent should inherit into the ACL
+     * @param owner the owner (required)
+     * @param aclAuthorizationStrategy authorization strategy (required)
+     * @param auditLogger audit logger (required)
+     */
+    public AclImplBuilder(ObjectIdentity objectIdentity, Serializable id, Serializable parentId,
+            boolean entriesInheriting, Sid owner, AclAuthorizationStrategy aclAuthorizationStrategy,
+            AuditLogger auditLogger) {
+        this.acl = new AclImpl(objectIdentity, id, aclAuthorizationStrategy, auditLogger, null, null,
+                entriesInheriting, owner);
+        this.parentId = parentId;
+    }
+
+    //~ Methods ========================================================================================================
+
+    /**
+     * Appends an entry to the ACL. Entries are kept in the order in which they are added.
+     */
+    public void addAce(Serializable aceId, Sid sid, Permission permission, boolean granting, boolean auditSuccess,
+            boolean auditFailure) {
+        Assert.state(!built, "The ACL has already been built");
+        entries.add(new AccessControlEntryImpl(aceId, acl, sid, permission, granting, auditSuccess, auditFailure));
+    }
+
+    /**
+     * Completes the ACL. May only be called once.
+     *
+     * @param parentAcl the ACL identified by <tt>parentId</tt>, or <tt>null</tt> if there is no parent
+     * @return the fully populated ACL
+     */
+    public AclImpl build(Acl parentAcl) {
+        Assert.state(!built, "The ACL has already been built");
+        Assert.isTrue((parentAcl == null) == (parentId == null), "A parent ACL must be supplied if (and only if) " +
+                "the parentId is set");
+        built = true;
+        acl.setLoadedState(parentAcl, entries);
+
+        return acl;
+    }
+
+    public Serializable getId() {
+        return acl.getId();
+    }
+
+    public Serializable getParentId() {
+        return parentId;
+    }
+}
@@ -0,0 +1,271 @@
+package org.springframework.security.acls.domain;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * {@link AclCache} which keeps ACLs in local memory, with no dependency on a caching library.
+ * <p>
+ * Unlike {@link EhCacheBasedAclCache}, ACLs are never serialized, so they are returned exactly as they were cached,
+ * with their {@link AclAuthorizationStrategy}, {@link AuditLogger} and parent ACLs still in place. No reflection or
+ * copying takes place when an ACL is read, and reads do not block. Each ACL is held in a single cache entry which is
+ * indexed both by its {@link ObjectIdentity} and by its primary key, so the two lookups always agree and the ACL
+ * counts once towards the maximum size.
+ * <p>
+ * When the maximum size is exceeded, the entries which were added first are evicted. Entries may also be given a
+ * time to live, after which they are treated as absent. Hit, miss and eviction counts are maintained for monitoring.
+ * <p>
+ * As with any cache which does not copy its contents, the ACLs are shared by all callers, so they should not be
+ * modified other than through a {@link org.springframework.security.acls.model.MutableAclService} which evicts
+ * them when they are updated.
+ *
+ * @since 3.0.2
+ */
+public class ConcurrentMapAclCache implements AclCache {
+    //~ Instance fields ================================================================================================
+
+    private final ConcurrentMap<ObjectIdentity, CacheEntry> entriesByIdentity;
+    private final ConcurrentMap<Serializable, CacheEntry> entriesById;
+    /**
+     * The entries in the order they were added. Entries which are removed are left in the queue, and skipped or
+     * discarded later, as removing them from the middle of the queue would mean searching it.
+     */
+    private final Queue<CacheEntry> insertionOrder = new ConcurrentLinkedQueue<CacheEntry>();
+    /** The approximate length of the queue, which (unlike <tt>ConcurrentLinkedQueue.size()</tt>) is free to read */
+    private final AtomicInteger insertionOrderLength = new AtomicInteger();
+    private final AtomicBoolean purgingInsertionOrder = new AtomicBoolean();
+    private final int maximumSize;
+    private final long timeToLive;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * @param maximumSize the maximum number of ACLs which will be held
+     * @param timeToLiveSeconds the number of seconds for which an ACL remains valid after it is cached, or zero if
+     * ACLs should only be removed when they are evicted
+     */
+    public ConcurrentMapAclCache(int maximumSize, long timeToLiveSeconds) {
+        Assert.isTrue(maximumSize > 0, "maximumSize must be greater than zero");
+        Assert.isTrue(timeToLiveSeconds >= 0, "timeToLiveSeconds cannot be negative");
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLiveSeconds * 1000;
+        int initialCapacity = Math.min(maximumSize, 1024);
+        entriesByIdentity = new ConcurrentHashMap<ObjectIdentity, CacheEntry>(initialCapacity);
+        entriesById = new ConcurrentHashMap<Serializable, CacheEntry>(initialCapacity);
+    }
+
+    //~ Methods ========================================================================================================
+
+    public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+        Assert.notNull(objectIdentity, "ObjectIdentity required");
+
+        return getAcl(entriesByIdentity.get(objectIdentity));
+    }
+
+    public MutableAcl getFromCache(Serializable pk) {
+        Assert.notNull(pk, "Primary key (identifier) required");
+
+        return getAcl(entriesById.get(pk));
+    }
+
+    private MutableAcl getAcl(CacheEntry entry) {
+        if (entry != null) {
+            if (timeToLive == 0 || entry.expires > currentTimeMillis()) {
+                hitCount.incrementAndGet();
+                return entry.acl;
+            }
+
+            remove(entry);
+        }
+
+        missCount.incrementAndGet();
+
+        return null;
+    }
+
+    public void putInCache(MutableAcl acl) {
+        Assert.notNull(acl, "Acl required");
+        Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+        Assert.notNull(acl.getId(), "ID required");
+
+        if ((acl.getParentAcl() != null) && (acl.getParentAcl() instanceof MutableAcl)) {
+            putInCache((MutableAcl) acl.getParentAcl());
+        }
+
+        long expires = timeToLive == 0 ? 0 : currentTimeMillis() + timeToLive;
+        CacheEntry entry = new CacheEntry(acl, expires);
+        CacheEntry existing = entriesByIdentity.get(entry.objectIdentity);
+
+        if (existing != null) {
+            if (existing.id.equals(entry.id)) {
+                // Refresh in place, rather than queueing the identity again
+                existing.acl = acl;
+                existing.expires = expires;
+                return;
+            }
+
+            remove(existing);
+        }
+
+        // An entry is removed from entriesById only once it has been removed from entriesByIdentity, so it must be
+        // added in the opposite order. Otherwise an eviction in between would leave it reachable by id.
+        if (entriesById.putIfAbsent(entry.id, entry) != null) {
+            // Another thread is caching the same ACL
+            return;
+        }
+
+        if (entriesByIdentity.putIfAbsent(entry.objectIdentity, entry) != null) {
+            // Another thread has just cached the identity
+            entriesById.remove(entry.id, entry);
+            return;
+        }
+
+        insertionOrder.add(entry);
+        insertionOrderLength.incrementAndGet();
+
+        while (entriesByIdentity.size() > maximumSize) {
+            CacheEntry eldest = insertionOrder.poll();
+
+            if (eldest == null) {
+                break;
+            }
+
+            insertionOrderLength.decrementAndGet();
+
+            // Entries which have already been removed are simply discarded
+            if (entriesByIdentity.remove(eldest.objectIdentity, eldest)) {
+                entriesById.remove(eldest.id, eldest);
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        if (insertionOrderLength.get() > 2 * maximumSize) {
+            purgeInsertionOrder();
+        }
+    }
+
+    /**
+     * Discards the queued entries which have been removed from the cache, when these have built up because entries
+     * are evicted or replaced faster than the cache fills.
+     */
+    private void purgeInsertionOrder() {
+        if (!purgingInsertionOrder.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            Iterator<CacheEntry> queued = insertionOrder.iterator();
+
+            while (queued.hasNext()) {
+                CacheEntry entry = queued.next();
+
+                if (entriesByIdentity.get(entry.objectIdentity) != entry) {
+                    queued.remove();
+                    insertionOrderLength.decrementAndGet();
+                }
+            }
+        } finally {
+            purgingInsertionOrder.set(false);
+        }
+    }
+
+    public void evictFromCache(Serializable pk) {
+        Assert.notNull(pk, "Primary key (identifier) required");
+
+        CacheEntry entry = entriesById.get(pk);
+
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public void evictFromCache(ObjectIdentity objectIdentity) {
+        Assert.notNull(objectIdentity, "ObjectIdentity required");
+
+        CacheEntry entry = entriesByIdentity.get(objectIdentity);
+
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    public void clearCache() {
+        entriesByIdentity.clear();
+        entriesById.clear();
+        insertionOrder.clear();
+        insertionOrderLength.set(0);
+    }
+
+    private void remove(CacheEntry entry) {
+        if (entriesByIdentity.remove(entry.objectIdentity, entry)) {
+            entriesById.remove(entry.id, entry);
+        }
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    int getInsertionOrderLength() {
+        return insertionOrderLength.get();
+    }
+
+    /**
+     * @return the number of ACLs currently cached, including any which have expired but not yet been removed
+     */
+    public int getSize() {
+        return entriesByIdentity.size();
+    }
+
+    /**
+     * @return the number of lookups which have returned a cached ACL
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups which have not found a valid ACL
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of ACLs which have been removed to keep the cache within its maximum size
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    private static final class CacheEntry {
+        final ObjectIdentity objectIdentity;
+        final Serializable id;
+        volatile MutableAcl acl;
+        volatile long expires;
+
+        CacheEntry(MutableAcl acl, long expires) {
+            this.objectIdentity = acl.getObjectIdentity();
+            this.id = acl.getId();
+            this.acl = acl;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.springframework.security.acls.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Describes an ACL to be created by {@link JdbcMutableAclService#createAcls(java.util.Collection)}: its object
+ * identity, owner, optional parent and entries.
+ * <p>
+ * The parent is identified by its object identity, and may either be an existing ACL or another ACL which is being
+ * created in the same call.
+ *
+ * @since 3.0.2
+ */
+public final class AclDefinition {
+    //~ Instance fields ================================================================================================
+
+    private final ObjectIdentity objectIdentity;
+    private final Sid owner;
+    private final ObjectIdentity parent;
+    private final boolean entriesInheriting;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * Creates a definition of an ACL which inherits entries from its parent.
+     *
+     * @param objectIdentity the object identity the ACL relates to (required)
+     * @param owner the owner of the ACL (required)
+     * @param parent the object identity of the parent ACL, or <tt>null</tt> if there is no parent
+     */
+    public AclDefinition(ObjectIdentity objectIdentity, Sid owner, ObjectIdentity parent) {
+        this(objectIdentity, owner, parent, true);
+    }
+
+    /**
+     * @param objectIdentity the object identity the ACL relates to (required)
+     * @param owner the owner of the ACL (required)
+     * @param parent the object identity of the parent ACL, or <tt>null</tt> if there is no parent
+     * @param entriesInheriting if ACEs from the parent should inherit into the ACL
+     */
+    public AclDefinition(ObjectIdentity objectIdentity, Sid owner, ObjectIdentity parent,
+            boolean entriesInheriting) {
+        Assert.notNull(objectIdentity, "Object Identity required");
+        Assert.notNull(owner, "Owner required");
+        Assert.isTrue(!objectIdentity.equals(parent), "An ACL cannot be its own parent");
+        this.objectIdentity = objectIdentity;
+        this.owner = owner;
+        this.parent = parent;
+        this.entriesInheriting = entriesInheriting;
+    }
+
+    //~ Methods ========================================================================================================
+
+    /**
+     * Appends a non-audited entry to the ACL.
+     *
+     * @return this definition
+     */
+    public AclDefinition addAce(Permission permission, Sid sid, boolean granting) {
+        return addAce(permission, sid, granting, false, false);
+    }
+
+    /**
+     * Appends an entry to the ACL. Entries are stored in the order in which they are added.
+     *
+     * @return this definition
+     */
+    public AclDefinition addAce(Permission permission, Sid sid, boolean granting, boolean auditSuccess,
+            boolean auditFailure) {
+        Assert.notNull(permission, "Permission required");
+        Assert.notNull(sid, "Sid required");
+        entries.add(new Entry(permission, sid, granting, auditSuccess, auditFailure));
+
+        return this;
+    }
+
+    public ObjectIdentity getObjectIdentity() {
+        return objectIdentity;
+    }
+
+    public Sid getOwner() {
+        return owner;
+    }
+
+    public ObjectIdentity getParent() {
+        return parent;
+    }
+
+    public boolean isEntriesInheriting() {
+        return entriesInheriting;
+    }
+
+    List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    static final class Entry {
+        final Permission permission;
+        final Sid sid;
+        final boolean granting;
+        final boolean auditSuccess;
+        final boolean auditFailure;
+
+        Entry(Permission permission, Sid sid, boolean granting, boolean auditSuccess, boolean auditFailure) {
+            this.permission = permission;
+            this.sid = sid;
+            this.granting = granting;
+            this.auditSuccess = auditSuccess;
+            this.auditFailure = auditFailure;
+        }
+    }
+}
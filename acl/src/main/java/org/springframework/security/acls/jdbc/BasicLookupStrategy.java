@@ -15,11 +15,9 @@
 package org.springframework.security.acls.jdbc;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,20 +27,21 @@ import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.ResultSetExtractor;
-import org.springframework.security.acls.domain.AccessControlEntryImpl;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.AclImplBuilder;
 import org.springframework.security.acls.domain.AuditLogger;
 import org.springframework.security.acls.domain.DefaultPermissionFactory;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PermissionFactory;
 import org.springframework.security.acls.domain.PrincipalSid;
-import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.MutableAcl;
@@ -50,8 +49,6 @@ import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.acls.model.Sid;
-import org.springframework.security.acls.model.UnloadedSidException;
-import org.springframework.security.util.FieldUtils;
 import org.springframework.util.Assert;
 
 
@@ -70,6 +67,14 @@ import org.springframework.util.Assert;
  * where clause in each case. In order to use custom schema or column names, each of these SQL clauses can be
  * customized, but they must be consistent with each other and with the expected result set
  * generated by the the default values.
+ * <p>
+ * By default, each level of the ACL hierarchy above the requested identities requires another query. If
+ * <tt>recursiveParentLookup</tt> is enabled, the identities are instead looked up by a single query which uses a
+ * recursive common table expression (<tt>WITH RECURSIVE</tt>) to include all of their ancestors. Ancestors are then
+ * read from the database even if they are present in the cache. If the first such query fails (for example,
+ * because the database does not support recursive queries), a warning is logged and the strategy permanently
+ * reverts to the standard queries. Databases which abort the current transaction when a statement fails should
+ * only enable the option if they are known to support the syntax.
  *
  * @author Ben Alex
  */
@@ -104,6 +109,24 @@ public final class BasicLookupStrategy implements LookupStrategy {
     public final static String DEFAULT_ORDER_BY_CLAUSE = ") order by acl_object_identity.object_id_identity"
         + " asc, acl_entry.ace_order asc";
 
+    /**
+     * Precedes the repeated <tt>lookupObjectIdentitiesWhereClause</tt> when <tt>recursiveParentLookup</tt> is used.
+     */
+    public final static String DEFAULT_ANCESTORS_CLAUSE_START = "with recursive acl_ancestors(id, parent_object) as ("
+        + "select acl_object_identity.id, acl_object_identity.parent_object from acl_object_identity "
+        + "join acl_class on acl_class.id = acl_object_identity.object_id_class where ";
+
+    /**
+     * Follows the repeated <tt>lookupObjectIdentitiesWhereClause</tt> when <tt>recursiveParentLookup</tt> is used.
+     */
+    public final static String DEFAULT_ANCESTORS_CLAUSE_END = " union all select parent.id, parent.parent_object "
+        + "from acl_object_identity parent join acl_ancestors on parent.id = acl_ancestors.parent_object) ";
+
+    private final static String DEFAULT_LOOKUP_ANCESTORS_WHERE_CLAUSE =
+        "acl_object_identity.id in (select id from acl_ancestors)";
+
+    private static final Log log = LogFactory.getLog(BasicLookupStrategy.class);
+
     //~ Instance fields ================================================================================================
 
     private AclAuthorizationStrategy aclAuthorizationStrategy;
@@ -112,15 +135,17 @@ public final class BasicLookupStrategy implements LookupStrategy {
     private AuditLogger auditLogger;
     private JdbcTemplate jdbcTemplate;
     private int batchSize = 50;
-
-    private final Field fieldAces = FieldUtils.getField(AclImpl.class, "aces");
-    private final Field fieldAcl = FieldUtils.getField(AccessControlEntryImpl.class, "acl");
+    private boolean padBatchSizes;
+    private volatile boolean recursiveParentLookup;
+    private volatile boolean recursiveParentLookupVerified;
 
     // SQL Customization fields
     private String selectClause = DEFAULT_SELECT_CLAUSE;
     private String lookupPrimaryKeysWhereClause = DEFAULT_LOOKUP_KEYS_WHERE_CLAUSE;
     private String lookupObjectIdentitiesWhereClause = DEFAULT_LOOKUP_IDENTITIES_WHERE_CLAUSE;
     private String orderByClause = DEFAULT_ORDER_BY_CLAUSE;
+    private String ancestorsClauseStart = DEFAULT_ANCESTORS_CLAUSE_START;
+    private String ancestorsClauseEnd = DEFAULT_ANCESTORS_CLAUSE_END;
 
     //~ Constructors ===================================================================================================
 
@@ -141,8 +166,6 @@ public final class BasicLookupStrategy implements LookupStrategy {
         this.aclCache = aclCache;
         this.aclAuthorizationStrategy = aclAuthorizationStrategy;
         this.auditLogger = auditLogger;
-        fieldAces.setAccessible(true);
-        fieldAcl.setAccessible(true);
     }
 
     //~ Methods ========================================================================================================
@@ -171,60 +194,81 @@ public final class BasicLookupStrategy implements LookupStrategy {
         return sqlStringBldr.toString();
     }
 
-    @SuppressWarnings("unchecked")
-    private List<AccessControlEntryImpl> readAces(AclImpl acl) {
-        try {
-            return (List<AccessControlEntryImpl>) fieldAces.get(acl);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException("Could not obtain AclImpl.aces field", e);
+    /**
+     * Returns the number of times the repeating where clause should appear in a statement which looks up
+     * <tt>size</tt> items: <tt>size</tt> itself, or the next power of four if <tt>padBatchSizes</tt> is set.
+     */
+    int padBatchSize(int size) {
+        if (!padBatchSizes) {
+            return size;
         }
-    }
 
-    private void setAclOnAce(AccessControlEntryImpl ace, AclImpl acl) {
-        try {
-            fieldAcl.set(ace, acl);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException("Could not or set AclImpl on AccessControlEntryImpl fields", e);
+        int padded = 1;
+
+        while (padded < size) {
+            padded <<= 2;
         }
+
+        return padded;
     }
 
-    private void setAces(AclImpl acl, List<AccessControlEntryImpl> aces) {
-        try {
-            fieldAces.set(acl, aces);
-        } catch (IllegalAccessException e) {
-            throw new IllegalStateException("Could not set AclImpl entries", e);
+    private String computeAncestorsSql(int requiredRepetitions) {
+        StringBuilder sqlStringBldr = new StringBuilder(ancestorsClauseStart);
+
+        for (int i = 1; i <= requiredRepetitions; i++) {
+            sqlStringBldr.append(lookupObjectIdentitiesWhereClause);
+
+            if (i != requiredRepetitions) {
+                sqlStringBldr.append(" or ");
+            }
         }
+
+        sqlStringBldr.append(ancestorsClauseEnd);
+        sqlStringBldr.append(selectClause).append(DEFAULT_LOOKUP_ANCESTORS_WHERE_CLAUSE).append(orderByClause);
+
+        return sqlStringBldr.toString();
     }
 
     /**
-     * Locates the primary key IDs specified in "findNow", adding AclImpl instances with StubAclParents to the
-     * "acls" Map.
+     * Locates the primary key IDs specified in "findNow", adding an <tt>AclImplBuilder</tt> for each to the
+     * "builders" Map.
      *
-     * @param acls the AclImpls (with StubAclParents)
+     * @param builders the ACLs which have been read but not yet built
+     * @param acls ACLs which are already complete (those obtained from the cache)
      * @param findNow Long-based primary keys to retrieve
      * @param sids
      */
-    private void lookupPrimaryKeys(final Map<Serializable, Acl> acls, final Set<Long> findNow, final List<Sid> sids) {
+    private void lookupPrimaryKeys(final Map<Serializable, AclImplBuilder> builders, final Map<Serializable, Acl> acls,
+            final Set<Long> findNow, final List<Sid> sids) {
         Assert.notNull(acls, "ACLs are required");
         Assert.notEmpty(findNow, "Items to find now required");
 
-        String sql = computeRepeatingSql(lookupPrimaryKeysWhereClause, findNow.size());
+        final int parameterCount = padBatchSize(findNow.size());
+        String sql = computeRepeatingSql(lookupPrimaryKeysWhereClause, parameterCount);
 
         Set<Long> parentsToLookup = jdbcTemplate.query(sql,
             new PreparedStatementSetter() {
                 public void setValues(PreparedStatement ps) throws SQLException {
                     int i = 0;
+                    Long last = null;
 
                     for (Long toFind : findNow) {
                         i++;
                         ps.setLong(i, toFind);
+                        last = toFind;
+                    }
+
+                    // Repeat the last key to fill any padding
+                    while (i < parameterCount) {
+                        i++;
+                        ps.setLong(i, last);
                     }
                 }
-            }, new ProcessResultSet(acls, sids));
+            }, new ProcessResultSet(builders, acls, sids));
 
         // Lookup the parents, now that our JdbcTemplate has released the database connection (SEC-547)
         if (parentsToLookup.size() > 0) {
-            lookupPrimaryKeys(acls, parentsToLookup, sids);
+            lookupPrimaryKeys(builders, acls, parentsToLookup, sids);
         }
     }
 
@@ -322,100 +366,112 @@ public final class BasicLookupStrategy implements LookupStrategy {
     private Map<ObjectIdentity, Acl> lookupObjectIdentities(final Collection<ObjectIdentity> objectIdentities, List<Sid> sids) {
         Assert.notEmpty(objectIdentities, "Must provide identities to lookup");
 
-        final Map<Serializable, Acl> acls = new HashMap<Serializable, Acl>(); // contains Acls with StubAclParents
-
-        // Make the "acls" map contain all requested objectIdentities
-        // (including markers to each parent in the hierarchy)
-        String sql = computeRepeatingSql(lookupObjectIdentitiesWhereClause, objectIdentities.size());
+        final Map<Serializable, AclImplBuilder> builders = new HashMap<Serializable, AclImplBuilder>();
+        final Map<Serializable, Acl> acls = new HashMap<Serializable, Acl>(); // contains complete Acls
+
+        // Make the "builders" map contain all requested objectIdentities
+        // (and all their ancestors, if they are included in the query)
+        final int parameterCount = padBatchSize(objectIdentities.size());
+        PreparedStatementSetter setter = new PreparedStatementSetter() {
+            public void setValues(PreparedStatement ps) throws SQLException {
+                int i = 0;
+                String type = null;
+                long id = 0;
+
+                for (ObjectIdentity oid : objectIdentities) {
+                    // Determine prepared statement values for this iteration
+                    type = oid.getType();
+
+                    // No need to check for nulls, as guaranteed non-null by ObjectIdentity.getIdentifier() interface contract
+                    String identifier = oid.getIdentifier().toString();
+                    id = (Long.valueOf(identifier)).longValue();
+
+                    // Inject values
+                    ps.setLong((2 * i) + 1, id);
+                    ps.setString((2 * i) + 2, type);
+                    i++;
+                }
 
-        Set<Long> parentsToLookup = jdbcTemplate.query(sql,
-            new PreparedStatementSetter() {
-                public void setValues(PreparedStatement ps) throws SQLException {
-                    int i = 0;
-                    for (ObjectIdentity oid : objectIdentities) {
-                        // Determine prepared statement values for this iteration
-                        String type = oid.getType();
+                // Repeat the last identity to fill any padding
+                for (; i < parameterCount; i++) {
+                    ps.setLong((2 * i) + 1, id);
+                    ps.setString((2 * i) + 2, type);
+                }
+            }
+        };
+
+        Set<Long> parentsToLookup = null;
+
+        if (recursiveParentLookup) {
+            try {
+                parentsToLookup = jdbcTemplate.query(computeAncestorsSql(parameterCount), setter,
+                        new ProcessResultSet(builders, acls, sids));
+                recursiveParentLookupVerified = true;
+            } catch (DataAccessException e) {
+                if (recursiveParentLookupVerified) {
+                    throw e;
+                }
 
-                        // No need to check for nulls, as guaranteed non-null by ObjectIdentity.getIdentifier() interface contract
-                        String identifier = oid.getIdentifier().toString();
-                        long id = (Long.valueOf(identifier)).longValue();
+                log.warn("Recursive ACL lookup query failed. Parent ACLs will be loaded using separate queries", e);
+                recursiveParentLookup = false;
+                builders.clear();
+                acls.clear();
+            }
+        }
 
-                        // Inject values
-                        ps.setLong((2 * i) + 1, id);
-                        ps.setString((2 * i) + 2, type);
-                        i++;
-                    }
-                }
-            }, new ProcessResultSet(acls, sids));
+        if (parentsToLookup == null) {
+            String sql = computeRepeatingSql(lookupObjectIdentitiesWhereClause, parameterCount);
+            parentsToLookup = jdbcTemplate.query(sql, setter, new ProcessResultSet(builders, acls, sids));
+        }
 
         // Lookup the parents, now that our JdbcTemplate has released the database connection (SEC-547)
         if (parentsToLookup.size() > 0) {
-            lookupPrimaryKeys(acls, parentsToLookup, sids);
+            lookupPrimaryKeys(builders, acls, parentsToLookup, sids);
         }
 
-        // Finally, convert our "acls" containing StubAclParents into true Acls
-        Map<ObjectIdentity, Acl> resultMap = new HashMap<ObjectIdentity, Acl>();
+        // Finally, build each Acl once its parent is available
+        for (Serializable id : builders.keySet()) {
+            build(builders, acls, id);
+        }
 
-        for (Acl inputAcl : acls.values()) {
-            Assert.isInstanceOf(AclImpl.class, inputAcl, "Map should have contained an AclImpl");
-            Assert.isInstanceOf(Long.class, ((AclImpl) inputAcl).getId(), "Acl.getId() must be Long");
+        Map<ObjectIdentity, Acl> resultMap = new HashMap<ObjectIdentity, Acl>((int) (acls.size() / 0.75f) + 1);
 
-            Acl result = convert(acls, (Long) ((AclImpl) inputAcl).getId());
-            resultMap.put(result.getObjectIdentity(), result);
+        for (Acl acl : acls.values()) {
+            Assert.isInstanceOf(AclImpl.class, acl, "Map should have contained an AclImpl");
+            resultMap.put(acl.getObjectIdentity(), acl);
         }
 
         return resultMap;
     }
 
     /**
-     * The final phase of converting the <code>Map</code> of <code>AclImpl</code> instances which contain
-     * <code>StubAclParent</code>s into proper, valid <code>AclImpl</code>s with correct ACL parents.
-     *
-     * @param inputMap the unconverted <code>AclImpl</code>s
-     * @param currentIdentity the current<code>Acl</code> that we wish to convert (this may be
+     * Builds the <code>Acl</code> with the given identifier, first building its parent if necessary, and adds it to
+     * the <code>acls</code> map.
      *
+     * @param builders the ACLs which have been read but not yet built
+     * @param acls the complete ACLs
+     * @param id the identifier of the <code>Acl</code> which is required
      */
-    private AclImpl convert(Map<Serializable, Acl> inputMap, Long currentIdentity) {
-        Assert.notEmpty(inputMap, "InputMap required");
-        Assert.notNull(currentIdentity, "CurrentIdentity required");
-
-        // Retrieve this Acl from the InputMap
-        Acl uncastAcl = inputMap.get(currentIdentity);
-        Assert.isInstanceOf(AclImpl.class, uncastAcl, "The inputMap contained a non-AclImpl");
+    private Acl build(Map<Serializable, AclImplBuilder> builders, Map<Serializable, Acl> acls, Serializable id) {
+        Acl acl = acls.get(id);
 
-        AclImpl inputAcl = (AclImpl) uncastAcl;
-
-        Acl parent = inputAcl.getParentAcl();
-
-        if ((parent != null) && parent instanceof StubAclParent) {
-            // Lookup the parent
-            StubAclParent stubAclParent = (StubAclParent) parent;
-            parent = convert(inputMap, stubAclParent.getId());
+        if (acl != null) {
+            return acl;
         }
 
-        // Now we have the parent (if there is one), create the true AclImpl
-        AclImpl result = new AclImpl(inputAcl.getObjectIdentity(), (Long) inputAcl.getId(), aclAuthorizationStrategy,
-                auditLogger, parent, null, inputAcl.isEntriesInheriting(), inputAcl.getOwner());
-
-        // Copy the "aces" from the input to the destination
+        AclImplBuilder builder = builders.get(id);
+        Assert.notNull(builder, "No data was loaded for ACL " + id);
 
-        // Obtain the "aces" from the input ACL
-        List<AccessControlEntryImpl> aces = readAces(inputAcl);
+        Acl parent = null;
 
-        // Create a list in which to store the "aces" for the "result" AclImpl instance
-        List<AccessControlEntryImpl> acesNew = new ArrayList<AccessControlEntryImpl>();
-
-        // Iterate over the "aces" input and replace each nested AccessControlEntryImpl.getAcl() with the new "result" AclImpl instance
-        // This ensures StubAclParent instances are removed, as per SEC-951
-        for (AccessControlEntryImpl ace : aces) {
-            setAclOnAce(ace, result);
-            acesNew.add(ace);
+        if (builder.getParentId() != null) {
+            parent = build(builders, acls, builder.getParentId());
         }
 
-        // Finally, now that the "aces" have been converted to have the "result" AclImpl instance, modify the "result" AclImpl instance
-        setAces(result, acesNew);
+        acl = builder.build(parent);
+        acls.put(id, acl);
 
-        return result;
+        return acl;
     }
 
     /**
@@ -432,6 +488,46 @@ public final class BasicLookupStrategy implements LookupStrategy {
         this.batchSize = batchSize;
     }
 
+    /**
+     * If set to <tt>true</tt>, the number of items looked up by each query is rounded up to the next power of four
+     * (1, 4, 16, 64...), with the remaining parameters repeating the last item. The database then sees only a handful
+     * of distinct statements, rather than one for every batch size, which allows them to be reused from driver and
+     * server statement caches. Defaults to <tt>false</tt>.
+     */
+    public void setPadBatchSizes(boolean padBatchSizes) {
+        this.padBatchSizes = padBatchSizes;
+    }
+
+    /**
+     * If set to <tt>true</tt>, requested ACLs and all their ancestors will be read using a single recursive query,
+     * as described in the class documentation. Defaults to <tt>false</tt>.
+     */
+    public void setRecursiveParentLookup(boolean recursiveParentLookup) {
+        this.recursiveParentLookup = recursiveParentLookup;
+        this.recursiveParentLookupVerified = false;
+    }
+
+    /**
+     * The SQL which starts the recursive common table expression used when <tt>recursiveParentLookup</tt> is
+     * enabled. It is followed by the <tt>lookupObjectIdentitiesWhereClause</tt> for each identity, separated by
+     * "or", and must select the <tt>id</tt> and <tt>parent_object</tt> of each matching ACL.
+     *
+     * @param ancestorsClauseStart defaults to {@link #DEFAULT_ANCESTORS_CLAUSE_START}.
+     */
+    public void setAncestorsClauseStart(String ancestorsClauseStart) {
+        this.ancestorsClauseStart = ancestorsClauseStart;
+    }
+
+    /**
+     * The SQL which completes the recursive common table expression named <tt>acl_ancestors</tt>, adding the
+     * ancestors of the ACLs selected by the start clause.
+     *
+     * @param ancestorsClauseEnd defaults to {@link #DEFAULT_ANCESTORS_CLAUSE_END}.
+     */
+    public void setAncestorsClauseEnd(String ancestorsClauseEnd) {
+        this.ancestorsClauseEnd = ancestorsClauseEnd;
+    }
+
     /**
      * The SQL for the select clause. If customizing in order to modify
      * column names, schema etc, the other SQL customization fields must also be set to match.
@@ -466,19 +562,23 @@ public final class BasicLookupStrategy implements LookupStrategy {
     //~ Inner Classes ==================================================================================================
 
     private class ProcessResultSet implements ResultSetExtractor<Set<Long>> {
+        private Map<Serializable, AclImplBuilder> builders;
         private Map<Serializable, Acl> acls;
         private List<Sid> sids;
 
-        public ProcessResultSet(Map<Serializable, Acl> acls, List<Sid> sids) {
+        public ProcessResultSet(Map<Serializable, AclImplBuilder> builders, Map<Serializable, Acl> acls,
+                List<Sid> sids) {
+            Assert.notNull(builders, "Builders cannot be null");
             Assert.notNull(acls, "ACLs cannot be null");
+            this.builders = builders;
             this.acls = acls;
             this.sids = sids; // can be null
         }
 
         /**
          * Implementation of {@link ResultSetExtractor#extractData(ResultSet)}.
-         * Creates an {@link Acl} for each row in the {@link ResultSet} and
-         * ensures it is in member field <tt>acls</tt>.  Any {@link Acl} with
+         * Creates an {@link AclImplBuilder} for each ACL in the {@link ResultSet} and
+         * ensures it is in member field <tt>builders</tt>.  Any {@link Acl} with
          * a parent will have the parents id returned in a set.  The returned
          * set of ids may requires further processing.
          * @param rs The {@link ResultSet} to be processed
@@ -490,15 +590,15 @@ public final class BasicLookupStrategy implements LookupStrategy {
             Set<Long> parentIdsToLookup = new HashSet<Long>(); // Set of parent_id Longs
 
             while (rs.next()) {
-                // Convert current row into an Acl (albeit with a StubAclParent)
-                convertCurrentResultIntoObject(acls, rs);
+                // Add the current row to the builder for its Acl
+                convertCurrentResultIntoObject(rs);
 
                 // Figure out if this row means we need to lookup another parent
                 long parentId = rs.getLong("parent_object");
 
                 if (parentId != 0) {
-                    // See if it's already in the "acls"
-                    if (acls.containsKey(new Long(parentId))) {
+                    // See if it's already been loaded
+                    if (builders.containsKey(Long.valueOf(parentId)) || acls.containsKey(Long.valueOf(parentId))) {
                         continue; // skip this while iteration
                     }
 
@@ -515,37 +615,33 @@ public final class BasicLookupStrategy implements LookupStrategy {
                 }
             }
 
+            // Parents which appeared later in the results don't need to be loaded again. This ensures no ACL is
+            // read by more than one query, so its entries are never added to its builder twice.
+            parentIdsToLookup.removeAll(builders.keySet());
+
             // Return the parents left to lookup to the caller
             return parentIdsToLookup;
         }
 
         /**
-         * Accepts the current <code>ResultSet</code> row, and converts it into an <code>AclImpl</code> that
-         * contains a <code>StubAclParent</code>
+         * Accepts the current <code>ResultSet</code> row, and adds it to the <code>AclImplBuilder</code> for
+         * the ACL it belongs to, creating the builder if this is the first row for the ACL.
          *
-         * @param acls the Map we should add the converted Acl to
          * @param rs the ResultSet focused on a current row
          *
          * @throws SQLException if something goes wrong converting values
          */
-        private void convertCurrentResultIntoObject(Map<Serializable, Acl> acls, ResultSet rs) throws SQLException {
-            Long id = new Long(rs.getLong("acl_id"));
+        private void convertCurrentResultIntoObject(ResultSet rs) throws SQLException {
+            Long id = Long.valueOf(rs.getLong("acl_id"));
 
-            // If we already have an ACL for this ID, just create the ACE
-            Acl acl = acls.get(id);
+            // If we already have a builder for this ID, just add the ACE
+            AclImplBuilder builder = builders.get(id);
 
-            if (acl == null) {
-                // Make an AclImpl and pop it into the Map
+            if (builder == null) {
                 ObjectIdentity objectIdentity = new ObjectIdentityImpl(rs.getString("class"),
                         Long.valueOf(rs.getLong("object_id_identity")));
 
-                Acl parentAcl = null;
                 long parentAclId = rs.getLong("parent_object");
-
-                if (parentAclId != 0) {
-                    parentAcl = new StubAclParent(Long.valueOf(parentAclId));
-                }
-
                 boolean entriesInheriting = rs.getBoolean("entries_inheriting");
                 Sid owner;
 
@@ -555,16 +651,16 @@ public final class BasicLookupStrategy implements LookupStrategy {
                     owner = new GrantedAuthoritySid(rs.getString("acl_sid"));
                 }
 
-                acl = new AclImpl(objectIdentity, id, aclAuthorizationStrategy, auditLogger, parentAcl, null,
-                        entriesInheriting, owner);
+                builder = new AclImplBuilder(objectIdentity, id, parentAclId == 0 ? null : Long.valueOf(parentAclId),
+                        entriesInheriting, owner, aclAuthorizationStrategy, auditLogger);
 
-                acls.put(id, acl);
+                builders.put(id, builder);
             }
 
             // Add an extra ACE to the ACL (ORDER BY maintains the ACE list order)
             // It is permissible to have no ACEs in an ACL (which is detected by a null ACE_SID)
             if (rs.getString("ace_sid") != null) {
-                Long aceId = new Long(rs.getLong("ace_id"));
+                Long aceId = Long.valueOf(rs.getLong("ace_id"));
                 Sid recipient;
 
                 if (rs.getBoolean("ace_principal")) {
@@ -579,58 +675,8 @@ public final class BasicLookupStrategy implements LookupStrategy {
                 boolean auditSuccess = rs.getBoolean("audit_success");
                 boolean auditFailure = rs.getBoolean("audit_failure");
 
-                AccessControlEntryImpl ace = new AccessControlEntryImpl(aceId, acl, recipient, permission, granting,
-                        auditSuccess, auditFailure);
-
-                //Field acesField = FieldUtils.getField(AclImpl.class, "aces");
-                List<AccessControlEntryImpl> aces = readAces((AclImpl)acl);
-
-                // Add the ACE if it doesn't already exist in the ACL.aces field
-                if (!aces.contains(ace)) {
-                    aces.add(ace);
-                }
+                builder.addAce(aceId, recipient, permission, granting, auditSuccess, auditFailure);
             }
         }
     }
-
-    private class StubAclParent implements Acl {
-        private Long id;
-
-        public StubAclParent(Long id) {
-            this.id = id;
-        }
-
-        public List<AccessControlEntry> getEntries() {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public Long getId() {
-            return id;
-        }
-
-        public ObjectIdentity getObjectIdentity() {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public Sid getOwner() {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public Acl getParentAcl() {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public boolean isEntriesInheriting() {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public boolean isGranted(List<Permission> permission, List<Sid> sids, boolean administrativeMode)
-            throws NotFoundException, UnloadedSidException {
-            throw new UnsupportedOperationException("Stub only");
-        }
-
-        public boolean isSidLoaded(List<Sid> sids) {
-            throw new UnsupportedOperationException("Stub only");
-        }
-    }
 }
@@ -14,8 +14,12 @@
  */
 package org.springframework.security.acls.jdbc;
 
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -25,12 +29,19 @@ import javax.sql.DataSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.acls.model.Acl;
-import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionFilteringAclService;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.util.Assert;
 
@@ -41,10 +52,15 @@ import org.springframework.util.Assert;
  * Requires the "dirty" flags in {@link org.springframework.security.acls.domain.AclImpl} and
  * {@link org.springframework.security.acls.domain.AccessControlEntryImpl} to be set, so that the implementation can
  * detect changed parameters easily.
+ * <p>
+ * The objects on which a principal holds a permission can be found with a single query, which evaluates the ACL
+ * entries and their inheritance in the same way as {@link Acl#isGranted(List, List, boolean)}. As the query must be
+ * portable to databases without recursive queries, only a fixed number of ancestors are consulted (see
+ * {@link #setMaximumInheritanceDepth(int)}). Beyond that depth, permissions are treated as not granted.
  *
  * @author Ben Alex
  */
-public class JdbcAclService implements AclService {
+public class JdbcAclService implements PermissionFilteringAclService {
     //~ Static fields/initializers =====================================================================================
 
     protected static final Log log = LogFactory.getLog(JdbcAclService.class);
@@ -53,12 +69,15 @@ public class JdbcAclService implements AclService {
         + "where obj.parent_object = parent.id and obj.object_id_class = class.id "
         + "and parent.object_id_identity = ? and parent.object_id_class = ("
         + "select id FROM acl_class where acl_class.class = ?)";
+    private static final String SELECT_SID_PRIMARY_KEY = "select id from acl_sid where principal=? and sid=?";
 
     //~ Instance fields ================================================================================================
 
     protected JdbcTemplate jdbcTemplate;
     private LookupStrategy lookupStrategy;
     private String findChildrenSql = DEFAULT_SELECT_ACL_WITH_PARENT_SQL;
+    private int maximumInheritanceDepth = 5;
+    private int objectIdentifierFetchSize = 1000;
 
     //~ Constructors ===================================================================================================
 
@@ -119,6 +138,207 @@ public class JdbcAclService implements AclService {
         return result;
     }
 
+    public List<Serializable> findObjectIdentifiers(String type, List<Permission> permissions, List<Sid> sids,
+            Serializable afterIdentifier, int maxResults) {
+        Assert.isTrue(maxResults > 0, "maxResults must be greater than zero");
+        final List<Serializable> identifiers = new ArrayList<Serializable>();
+        Long after = afterIdentifier == null ? null : Long.valueOf(afterIdentifier.toString());
+
+        queryObjectIdentifiers(type, permissions, sids, after, maxResults, new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                identifiers.add(Long.valueOf(rs.getLong(1)));
+            }
+        });
+
+        return identifiers;
+    }
+
+    /**
+     * Streams the identifiers of all the objects of a given type on which any of the permissions is granted to
+     * the security identities, in ascending order. The rows are fetched in batches of the size set by
+     * {@link #setObjectIdentifierFetchSize(int)}, rather than being read into memory.
+     *
+     * @param type the type of the domain objects
+     * @param permissions the permissions, any of which must be granted
+     * @param sids the security identities of the principal, in the order in which they are evaluated
+     * @param handler receives each row, of which the first column is the object identifier
+     */
+    public void findObjectIdentifiers(String type, List<Permission> permissions, List<Sid> sids,
+            RowCallbackHandler handler) {
+        Assert.notNull(handler, "RowCallbackHandler required");
+        queryObjectIdentifiers(type, permissions, sids, null, 0, handler);
+    }
+
+    private void queryObjectIdentifiers(String type, List<Permission> permissions, List<Sid> sids, Long after,
+            final int maxResults, RowCallbackHandler handler) {
+        ObjectIdentifierQuery query = createObjectIdentifierQuery(type, permissions, sids);
+        final StringBuilder sql = new StringBuilder(query.getSql());
+        final List<Object> args = new ArrayList<Object>(Arrays.asList(query.getArgs()));
+
+        if (after != null) {
+            sql.append(" and acl_object_identity.object_id_identity > ?");
+            args.add(after);
+        }
+
+        sql.append(" order by acl_object_identity.object_id_identity");
+
+        jdbcTemplate.query(new PreparedStatementCreator() {
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = con.prepareStatement(sql.toString());
+
+                if (maxResults > 0) {
+                    ps.setMaxRows(maxResults);
+                }
+
+                ps.setFetchSize(maxResults > 0 ? Math.min(maxResults, objectIdentifierFetchSize)
+                        : objectIdentifierFetchSize);
+
+                for (int i = 0; i < args.size(); i++) {
+                    StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, args.get(i));
+                }
+
+                return ps;
+            }
+        }, handler);
+    }
+
+    /**
+     * Creates a query for the identifiers of the objects of a given type on which any of the permissions is granted
+     * to the security identities.
+     * <p>
+     * An ACL grants a permission if, for that permission, the first security identity with a matching entry has a
+     * granting entry before any denying one. An ACL which has no entry for any of the permissions and security
+     * identities defers to its parent, if it inherits entries. The query expresses these rules with correlated
+     * <tt>exists</tt> subqueries on <tt>acl_entry</tt>, and joins each ACL to its ancestors up to the maximum
+     * inheritance depth.
+     * <p>
+     * The primary keys of the security identities and the permission masks are written into the query as numeric
+     * literals, because they determine the precedence of the entries. Security identities which have no
+     * <tt>acl_sid</tt> row cannot hold any entries, and are ignored.
+     *
+     * @param type the type of the domain objects
+     * @param permissions the permissions, any of which must be granted
+     * @param sids the security identities of the principal, in the order in which they are evaluated
+     *
+     * @return the query, which selects <tt>acl_object_identity.object_id_identity</tt>
+     */
+    public ObjectIdentifierQuery createObjectIdentifierQuery(String type, List<Permission> permissions,
+            List<Sid> sids) {
+        Assert.hasText(type, "Type required");
+        Assert.notEmpty(permissions, "Permissions required");
+        Assert.notEmpty(sids, "SIDs required");
+
+        List<Long> sidIds = new ArrayList<Long>(sids.size());
+
+        for (Sid sid : sids) {
+            Long sidId = retrieveSidPrimaryKey(sid);
+
+            if (sidId != null && !sidIds.contains(sidId)) {
+                sidIds.add(sidId);
+            }
+        }
+
+        StringBuilder masks = new StringBuilder();
+
+        for (Permission permission : permissions) {
+            masks.append(masks.length() == 0 ? "" : ", ").append(permission.getMask());
+        }
+
+        List<Object> args = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder("select acl_object_identity.object_id_identity from acl_object_identity");
+        String alias = "acl_object_identity";
+
+        for (int depth = 1; depth <= maximumInheritanceDepth; depth++) {
+            String ancestor = "ancestor" + depth;
+            sql.append(" left outer join acl_object_identity ").append(ancestor).append(" on ").append(ancestor)
+                    .append(".id = ").append(alias).append(".parent_object and ").append(alias)
+                    .append(".entries_inheriting = ?");
+            args.add(Boolean.TRUE);
+            alias = ancestor;
+        }
+
+        sql.append(" where acl_object_identity.object_id_class = (select id from acl_class where class = ?) and ");
+        args.add(type);
+
+        if (sidIds.isEmpty()) {
+            sql.append("1 = 0");
+        } else {
+            appendGrantedCondition(sql, args, 0, masks.toString(), sidIds);
+        }
+
+        return new ObjectIdentifierQuery(sql.toString(), args.toArray());
+    }
+
+    /**
+     * Appends the condition under which the ACL at the given depth, or one of its ancestors, grants a permission.
+     */
+    private void appendGrantedCondition(StringBuilder sql, List<Object> args, int depth, String masks,
+            List<Long> sidIds) {
+        String alias = depth == 0 ? "acl_object_identity" : "ancestor" + depth;
+        String sidList = sidIds.toString().substring(1, sidIds.toString().length() - 1);
+
+        // A granting entry, with no entry for the same permission before it
+        sql.append("(exists (select 1 from acl_entry granted where granted.acl_object_identity = ").append(alias)
+                .append(".id and granted.granting = ? and granted.mask in (").append(masks)
+                .append(") and granted.sid in (").append(sidList).append(") and not exists (select 1 from acl_entry ")
+                .append("earlier where earlier.acl_object_identity = granted.acl_object_identity and ")
+                .append("earlier.mask = granted.mask and earlier.sid in (").append(sidList).append(") and (");
+        args.add(Boolean.TRUE);
+
+        if (sidIds.size() > 1) {
+            appendSidPrecedence(sql, "earlier.sid", sidIds);
+            sql.append(" < ");
+            appendSidPrecedence(sql, "granted.sid", sidIds);
+            sql.append(" or ");
+        }
+
+        sql.append("(earlier.sid = granted.sid and earlier.ace_order < granted.ace_order))))");
+
+        if (depth < maximumInheritanceDepth) {
+            // Otherwise, no entries for any of the permissions and SIDs, so defer to the parent
+            sql.append(" or (not exists (select 1 from acl_entry matching where matching.acl_object_identity = ")
+                    .append(alias).append(".id and matching.mask in (").append(masks)
+                    .append(") and matching.sid in (").append(sidList).append(")) and ");
+            appendGrantedCondition(sql, args, depth + 1, masks, sidIds);
+            sql.append(")");
+        }
+
+        sql.append(")");
+    }
+
+    private void appendSidPrecedence(StringBuilder sql, String column, List<Long> sidIds) {
+        sql.append("case ").append(column);
+
+        for (int i = 0; i < sidIds.size(); i++) {
+            sql.append(" when ").append(sidIds.get(i)).append(" then ").append(i);
+        }
+
+        sql.append(" end");
+    }
+
+    /**
+     * Retrieves the primary key of a security identity, for use in queries.
+     *
+     * @param sid the security identity
+     * @return the primary key, or <tt>null</tt> if the SID is not in the database
+     */
+    protected Long retrieveSidPrimaryKey(Sid sid) {
+        Assert.notNull(sid, "Sid required");
+        Object[] args;
+
+        if (sid instanceof PrincipalSid) {
+            args = new Object[] {Boolean.TRUE, ((PrincipalSid) sid).getPrincipal()};
+        } else if (sid instanceof GrantedAuthoritySid) {
+            args = new Object[] {Boolean.FALSE, ((GrantedAuthoritySid) sid).getGrantedAuthority()};
+        } else {
+            throw new IllegalArgumentException("Unsupported implementation of Sid");
+        }
+
+        List<Long> sidIds = jdbcTemplate.queryForList(SELECT_SID_PRIMARY_KEY, args, Long.class);
+
+        return sidIds.isEmpty() ? null : sidIds.get(0);
+    }
+
     /**
      * Allows customization of the SQL query used to find child object identities.
      *
@@ -127,4 +347,23 @@ public class JdbcAclService implements AclService {
     public void setFindChildrenQuery(String findChildrenSql) {
         this.findChildrenSql = findChildrenSql;
     }
+
+    /**
+     * Sets the number of ancestors which are consulted when finding the objects on which a permission is granted.
+     * Each additional level adds a join and two subqueries to the query. Defaults to 5.
+     *
+     * @param maximumInheritanceDepth the number of ancestors (zero to ignore inheritance)
+     */
+    public void setMaximumInheritanceDepth(int maximumInheritanceDepth) {
+        Assert.isTrue(maximumInheritanceDepth >= 0, "maximumInheritanceDepth cannot be negative");
+        this.maximumInheritanceDepth = maximumInheritanceDepth;
+    }
+
+    /**
+     * @param objectIdentifierFetchSize the JDBC fetch size used when finding object identifiers, so that large
+     * results are streamed from the database (defaults to 1000)
+     */
+    public void setObjectIdentifierFetchSize(int objectIdentifierFetchSize) {
+        this.objectIdentifierFetchSize = objectIdentifierFetchSize;
+    }
 }
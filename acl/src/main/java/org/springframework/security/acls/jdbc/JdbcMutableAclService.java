@@ -14,14 +14,27 @@
  */
 package org.springframework.security.acls.jdbc;
 
+import java.io.Serializable;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.acls.domain.AccessControlEntryImpl;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
@@ -38,6 +51,7 @@ import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
@@ -53,17 +67,30 @@ import org.springframework.util.Assert;
  * <p>
  * See the appendix of the Spring Security reference manual for more information on the expected schema
  * and how it is used. Information on using PostgreSQL is also included.
+ * <p>
+ * By default, {@link #updateAcl(MutableAcl)} deletes and recreates all the entries of the ACL. If
+ * {@link #setIncrementalUpdates(boolean) incrementalUpdates} is enabled, the entries are instead compared with those
+ * in the database and only the rows which have changed are written.
  *
  * @author Ben Alex
  * @author Johannes Zlattinger
  */
 public class JdbcMutableAclService extends JdbcAclService implements MutableAclService {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final int CHILD_LOOKUP_BATCH_SIZE = 50;
+    private static final int PRIMARY_KEY_LOOKUP_BATCH_SIZE = 100;
+
     //~ Instance fields ================================================================================================
 
     private boolean foreignKeysInDatabase = true;
+    private boolean incrementalUpdates;
+    private PrimaryKeyCache sidPrimaryKeyCache;
+    private PrimaryKeyCache classPrimaryKeyCache;
     private AclCache aclCache;
     private String deleteEntryByObjectIdentityForeignKey = "delete from acl_entry where acl_object_identity=?";
     private String deleteObjectIdentityByPrimaryKey = "delete from acl_object_identity where id=?";
+    private String deleteEntryByPrimaryKey = "delete from acl_entry where id=?";
     private String classIdentityQuery = "call identity()";
     private String sidIdentityQuery = "call identity()";
     private String insertClass = "insert into acl_class (class) values (?)";
@@ -72,12 +99,22 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         + "values (?, ?, ?, ?, ?, ?, ?)";
     private String insertObjectIdentity = "insert into acl_object_identity "
         + "(object_id_class, object_id_identity, owner_sid, entries_inheriting) " + "values (?, ?, ?, ?)";
+    private String insertObjectIdentityWithParent = "insert into acl_object_identity "
+        + "(object_id_class, object_id_identity, parent_object, owner_sid, entries_inheriting) "
+        + "values (?, ?, ?, ?, ?)";
     private String insertSid = "insert into acl_sid (principal, sid) values (?, ?)";
     private String selectClassPrimaryKey = "select id from acl_class where class=?";
     private String selectObjectIdentityPrimaryKey = "select acl_object_identity.id from acl_object_identity, acl_class "
         + "where acl_object_identity.object_id_class = acl_class.id and acl_class.class=? "
         + "and acl_object_identity.object_id_identity = ?";
+    private String selectObjectIdentityPrimaryKeys = "select id, object_id_identity from acl_object_identity "
+        + "where object_id_class = ? and object_id_identity between ? and ? and object_id_identity in ";
     private String selectSidPrimaryKey = "select id from acl_sid where principal=? and sid=?";
+    private String selectEntriesByObjectIdentityForeignKey = "select id, ace_order, sid, mask, granting, "
+        + "audit_success, audit_failure from acl_entry where acl_object_identity=?";
+    private String selectChildPrimaryKeys = "select id from acl_object_identity where parent_object in ";
+    private String updateEntry = "update acl_entry set ace_order = ?, sid = ?, mask = ?, granting = ?, "
+        + "audit_success = ?, audit_failure = ? where id = ?";
     private String updateObjectIdentity = "update acl_object_identity set "
         + "parent_object = ?, owner_sid = ?, entries_inheriting = ?" + " where id = ?";
 
@@ -113,12 +150,298 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         return (MutableAcl) acl;
     }
 
+    /**
+     * Creates a number of ACLs, with their entries, using batched statements.
+     * <p>
+     * This is intended for provisioning large numbers of ACLs, and is much faster than calling
+     * {@link #createAcl(ObjectIdentity)} and {@link #updateAcl(MutableAcl)} for each one. The object identity rows
+     * are inserted in one batch for each level of the hierarchy formed by the definitions (parents before their
+     * children), and their primary keys are then read back with a query per class and up to 100 identities. All the
+     * entries are inserted in a single batch. Each SID and class is only looked up once. The ACLs are not read back
+     * or cached.
+     * <p>
+     * Like the other write operations, this method must be called within a transaction.
+     *
+     * @param definitions the ACLs to create
+     * @return the primary keys of the new ACLs
+     * @throws AlreadyExistsException if an ACL already exists for any of the object identities
+     * @throws NotFoundException if a parent is neither an existing ACL nor one of those being created
+     */
+    public Map<ObjectIdentity, Long> createAcls(Collection<AclDefinition> definitions)
+            throws AlreadyExistsException, NotFoundException {
+        Assert.notEmpty(definitions, "AclDefinitions required");
+        Map<ObjectIdentity, AclDefinition> definitionsByIdentity = new HashMap<ObjectIdentity, AclDefinition>();
+
+        for (AclDefinition definition : definitions) {
+            if (definitionsByIdentity.put(definition.getObjectIdentity(), definition) != null) {
+                throw new IllegalArgumentException("Object identity '" + definition.getObjectIdentity()
+                        + "' is defined more than once");
+            }
+        }
+
+        Map<String, Long> classIds = new HashMap<String, Long>();
+        Map<Sid, Long> sidIds = new HashMap<Sid, Long>();
+        Set<ObjectIdentity> existingParents = new HashSet<ObjectIdentity>();
+
+        for (AclDefinition definition : definitions) {
+            String type = definition.getObjectIdentity().getType();
+
+            if (classIds.get(type) == null) {
+                classIds.put(type, createOrRetrieveClassPrimaryKey(type, true));
+            }
+
+            resolveSidPrimaryKey(definition.getOwner(), sidIds);
+
+            for (AclDefinition.Entry entry : definition.getEntries()) {
+                resolveSidPrimaryKey(entry.sid, sidIds);
+            }
+
+            ObjectIdentity parent = definition.getParent();
+
+            if (parent != null && !definitionsByIdentity.containsKey(parent)) {
+                existingParents.add(parent);
+
+                if (!classIds.containsKey(parent.getType())) {
+                    classIds.put(parent.getType(), createOrRetrieveClassPrimaryKey(parent.getType(), false));
+                }
+            }
+        }
+
+        // Check none of the ACLs exist, and find the keys of the parents which do
+        List<ObjectIdentity> identities = new ArrayList<ObjectIdentity>(definitionsByIdentity.keySet());
+        identities.addAll(existingParents);
+        final Map<ObjectIdentity, Long> primaryKeys = retrieveObjectIdentityPrimaryKeys(identities, classIds);
+
+        for (ObjectIdentity objectIdentity : definitionsByIdentity.keySet()) {
+            if (primaryKeys.containsKey(objectIdentity)) {
+                throw new AlreadyExistsException("Object identity '" + objectIdentity + "' already exists");
+            }
+        }
+
+        for (ObjectIdentity parent : existingParents) {
+            if (!primaryKeys.containsKey(parent)) {
+                throw new NotFoundException("Unable to find ACL information for parent object identity '"
+                        + parent + "'");
+            }
+        }
+
+        // Insert the object identities, a level of the hierarchy at a time so that parent keys are known
+        List<AclDefinition> entriesToCreate = new ArrayList<AclDefinition>(definitions.size());
+
+        for (List<AclDefinition> level : sortIntoLevels(definitionsByIdentity)) {
+            insertObjectIdentities(level, primaryKeys, classIds, sidIds);
+            List<ObjectIdentity> levelIdentities = new ArrayList<ObjectIdentity>(level.size());
+
+            for (AclDefinition definition : level) {
+                levelIdentities.add(definition.getObjectIdentity());
+            }
+
+            primaryKeys.putAll(retrieveObjectIdentityPrimaryKeys(levelIdentities, classIds));
+            entriesToCreate.addAll(level);
+        }
+
+        insertEntries(entriesToCreate, primaryKeys, sidIds);
+
+        Map<ObjectIdentity, Long> created = new HashMap<ObjectIdentity, Long>();
+
+        for (ObjectIdentity objectIdentity : definitionsByIdentity.keySet()) {
+            Long primaryKey = primaryKeys.get(objectIdentity);
+            Assert.notNull(primaryKey, "Inserted object identity '" + objectIdentity + "' could not be found");
+            created.put(objectIdentity, primaryKey);
+        }
+
+        return created;
+    }
+
+    private void resolveSidPrimaryKey(Sid sid, Map<Sid, Long> sidIds) {
+        if (!sidIds.containsKey(sid)) {
+            sidIds.put(sid, createOrRetrieveSidPrimaryKey(sid, true));
+        }
+    }
+
+    /**
+     * Groups the definitions by their depth within the hierarchy they form, where definitions with no parent (or
+     * whose parent already exists) have a depth of zero.
+     */
+    private List<List<AclDefinition>> sortIntoLevels(Map<ObjectIdentity, AclDefinition> definitionsByIdentity) {
+        Map<ObjectIdentity, Integer> depths = new HashMap<ObjectIdentity, Integer>();
+        List<List<AclDefinition>> levels = new ArrayList<List<AclDefinition>>();
+
+        for (AclDefinition definition : definitionsByIdentity.values()) {
+            int depth = depth(definition, definitionsByIdentity, depths, 0);
+
+            while (levels.size() <= depth) {
+                levels.add(new ArrayList<AclDefinition>());
+            }
+
+            levels.get(depth).add(definition);
+        }
+
+        return levels;
+    }
+
+    private int depth(AclDefinition definition, Map<ObjectIdentity, AclDefinition> definitionsByIdentity,
+            Map<ObjectIdentity, Integer> depths, int descendants) {
+        Integer depth = depths.get(definition.getObjectIdentity());
+
+        if (depth != null) {
+            return depth.intValue();
+        }
+
+        Assert.isTrue(descendants < definitionsByIdentity.size(), "The ACL definitions contain a cycle");
+        AclDefinition parent = definition.getParent() == null ? null : definitionsByIdentity.get(definition.getParent());
+        depth = Integer.valueOf(parent == null ? 0 : depth(parent, definitionsByIdentity, depths, descendants + 1) + 1);
+        depths.put(definition.getObjectIdentity(), depth);
+
+        return depth.intValue();
+    }
+
+    private void insertObjectIdentities(final List<AclDefinition> definitions,
+            final Map<ObjectIdentity, Long> primaryKeys, final Map<String, Long> classIds,
+            final Map<Sid, Long> sidIds) {
+        jdbcTemplate.batchUpdate(insertObjectIdentityWithParent, new BatchPreparedStatementSetter() {
+            public int getBatchSize() {
+                return definitions.size();
+            }
+
+            public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                AclDefinition definition = definitions.get(i);
+                ObjectIdentity objectIdentity = definition.getObjectIdentity();
+
+                stmt.setLong(1, classIds.get(objectIdentity.getType()).longValue());
+                stmt.setLong(2, toLong(objectIdentity));
+
+                if (definition.getParent() == null) {
+                    stmt.setNull(3, Types.BIGINT);
+                } else {
+                    stmt.setLong(3, primaryKeys.get(definition.getParent()).longValue());
+                }
+
+                stmt.setLong(4, sidIds.get(definition.getOwner()).longValue());
+                stmt.setBoolean(5, definition.isEntriesInheriting());
+            }
+        });
+    }
+
+    private void insertEntries(List<AclDefinition> definitions, final Map<ObjectIdentity, Long> primaryKeys,
+            final Map<Sid, Long> sidIds) {
+        final List<AclDefinition> owners = new ArrayList<AclDefinition>();
+        final List<AclDefinition.Entry> entries = new ArrayList<AclDefinition.Entry>();
+        final List<Integer> orders = new ArrayList<Integer>();
+
+        for (AclDefinition definition : definitions) {
+            List<AclDefinition.Entry> aclEntries = definition.getEntries();
+
+            for (int i = 0; i < aclEntries.size(); i++) {
+                owners.add(definition);
+                entries.add(aclEntries.get(i));
+                orders.add(Integer.valueOf(i));
+            }
+        }
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(insertEntry, new BatchPreparedStatementSetter() {
+            public int getBatchSize() {
+                return entries.size();
+            }
+
+            public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                AclDefinition.Entry entry = entries.get(i);
+
+                stmt.setLong(1, primaryKeys.get(owners.get(i).getObjectIdentity()).longValue());
+                stmt.setInt(2, orders.get(i).intValue());
+                stmt.setLong(3, sidIds.get(entry.sid).longValue());
+                stmt.setInt(4, entry.permission.getMask());
+                stmt.setBoolean(5, entry.granting);
+                stmt.setBoolean(6, entry.auditSuccess);
+                stmt.setBoolean(7, entry.auditFailure);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the primary keys of those object identities which exist, using a query per class and batch of
+     * identities. The identifiers of each class are sorted, so that each batch also covers a narrow range of
+     * identifiers which the database can find using the unique (class, identifier) index. Without the range, some
+     * databases only use the class for the index lookup, and scan every ACL of the class for each batch.
+     *
+     * @param identities the object identities to find
+     * @param classIds the primary keys of the identities' classes (which may be null if the class does not exist)
+     * @return the primary keys of the identities which were found
+     */
+    private Map<ObjectIdentity, Long> retrieveObjectIdentityPrimaryKeys(List<ObjectIdentity> identities,
+            Map<String, Long> classIds) {
+        Map<String, Map<Long, ObjectIdentity>> identitiesByType = new HashMap<String, Map<Long, ObjectIdentity>>();
+
+        for (ObjectIdentity identity : identities) {
+            Map<Long, ObjectIdentity> ofType = identitiesByType.get(identity.getType());
+
+            if (ofType == null) {
+                ofType = new HashMap<Long, ObjectIdentity>();
+                identitiesByType.put(identity.getType(), ofType);
+            }
+
+            ofType.put(Long.valueOf(toLong(identity)), identity);
+        }
+
+        final Map<ObjectIdentity, Long> primaryKeys = new HashMap<ObjectIdentity, Long>();
+
+        for (Map.Entry<String, Map<Long, ObjectIdentity>> ofType : identitiesByType.entrySet()) {
+            Long classId = classIds.get(ofType.getKey());
+
+            if (classId == null) {
+                continue;
+            }
+
+            final Map<Long, ObjectIdentity> byIdentifier = ofType.getValue();
+            List<Long> identifiers = new ArrayList<Long>(byIdentifier.keySet());
+            Collections.sort(identifiers);
+
+            for (int i = 0; i < identifiers.size(); i += PRIMARY_KEY_LOOKUP_BATCH_SIZE) {
+                List<Long> batch = identifiers.subList(i,
+                        Math.min(identifiers.size(), i + PRIMARY_KEY_LOOKUP_BATCH_SIZE));
+                Object[] args = new Object[batch.size() + 3];
+                StringBuilder sql = new StringBuilder(selectObjectIdentityPrimaryKeys).append("(");
+                args[0] = classId;
+                args[1] = batch.get(0);
+                args[2] = batch.get(batch.size() - 1);
+
+                for (int j = 0; j < batch.size(); j++) {
+                    args[j + 3] = batch.get(j);
+                    sql.append(j == 0 ? "?" : ", ?");
+                }
+
+                jdbcTemplate.query(sql.append(")").toString(), args, new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        ObjectIdentity identity = byIdentifier.get(Long.valueOf(rs.getLong(2)));
+
+                        if (identity != null) {
+                            primaryKeys.put(identity, Long.valueOf(rs.getLong(1)));
+                        }
+                    }
+                });
+            }
+        }
+
+        return primaryKeys;
+    }
+
+    private static long toLong(ObjectIdentity objectIdentity) {
+        return Long.valueOf(objectIdentity.getIdentifier().toString()).longValue();
+    }
+
     /**
      * Creates a new row in acl_entry for every ACE defined in the passed MutableAcl object.
      *
      * @param acl containing the ACEs to insert
      */
     protected void createEntries(final MutableAcl acl) {
+        // Resolve the SIDs first, rather than querying while the batch is being prepared
+        final long[] sidIds = resolveSidPrimaryKeys(acl.getEntries());
+
         jdbcTemplate.batchUpdate(insertEntry,
             new BatchPreparedStatementSetter() {
                 public int getBatchSize() {
@@ -132,7 +455,7 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
 
                     stmt.setLong(1, ((Long) acl.getId()).longValue());
                     stmt.setInt(2, i);
-                    stmt.setLong(3, createOrRetrieveSidPrimaryKey(entry.getSid(), true).longValue());
+                    stmt.setLong(3, sidIds[i]);
                     stmt.setInt(4, entry.getPermission().getMask());
                     stmt.setBoolean(5, entry.isGranting());
                     stmt.setBoolean(6, entry.isAuditSuccess());
@@ -141,6 +464,29 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
             });
     }
 
+    /**
+     * Returns the acl_sid primary key of each entry's Sid, creating rows where needed. Each distinct Sid is only
+     * looked up once.
+     */
+    private long[] resolveSidPrimaryKeys(List<AccessControlEntry> entries) {
+        long[] sidIds = new long[entries.size()];
+        Map<Sid, Long> resolved = new HashMap<Sid, Long>();
+
+        for (int i = 0; i < sidIds.length; i++) {
+            Sid sid = entries.get(i).getSid();
+            Long sidId = resolved.get(sid);
+
+            if (sidId == null) {
+                sidId = createOrRetrieveSidPrimaryKey(sid, true);
+                resolved.put(sid, sidId);
+            }
+
+            sidIds[i] = sidId.longValue();
+        }
+
+        return sidIds;
+    }
+
     /**
      * Creates an entry in the acl_object_identity table for the passed ObjectIdentity. The Sid is also
      * necessary, as acl_object_identity has defined the sid column as non-null.
@@ -164,20 +510,37 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
      * @return the primary key or null if not found
      */
     protected Long createOrRetrieveClassPrimaryKey(String type, boolean allowCreate) {
-        List<Long> classIds = jdbcTemplate.queryForList(selectClassPrimaryKey, new Object[] {type}, Long.class);
+        Long classId = classPrimaryKeyCache == null ? null : classPrimaryKeyCache.get(type);
 
-        if (!classIds.isEmpty()) {
-            return classIds.get(0);
+        if (classId != null) {
+            return classId;
         }
 
-        if (allowCreate) {
+        List<Long> classIds = jdbcTemplate.queryForList(selectClassPrimaryKey, new Object[] {type}, Long.class);
+
+        if (!classIds.isEmpty()) {
+            classId = classIds.get(0);
+        } else if (allowCreate) {
             jdbcTemplate.update(insertClass, type);
             Assert.isTrue(TransactionSynchronizationManager.isSynchronizationActive(),
                     "Transaction must be running");
-            return new Long(jdbcTemplate.queryForLong(classIdentityQuery));
+            classId = new Long(jdbcTemplate.queryForLong(classIdentityQuery));
+        } else {
+            return null;
+        }
+
+        if (classPrimaryKeyCache != null) {
+            classPrimaryKeyCache.put(type, classId);
         }
 
-        return null;
+        return classId;
+    }
+
+    /**
+     * Retrieves the primary key of a security identity using the configured query and primary key cache.
+     */
+    protected Long retrieveSidPrimaryKey(Sid sid) {
+        return createOrRetrieveSidPrimaryKey(sid, false);
     }
 
     /**
@@ -206,20 +569,30 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
             throw new IllegalArgumentException("Unsupported implementation of Sid");
         }
 
+        Long sidId = sidPrimaryKeyCache == null ? null : sidPrimaryKeyCache.get(sid);
+
+        if (sidId != null) {
+            return sidId;
+        }
+
         List<Long> sidIds = jdbcTemplate.queryForList(selectSidPrimaryKey,
                 new Object[] {Boolean.valueOf(sidIsPrincipal), sidName},  Long.class);
 
         if (!sidIds.isEmpty()) {
-            return sidIds.get(0);
-        }
-
-        if (allowCreate) {
+            sidId = sidIds.get(0);
+        } else if (allowCreate) {
             jdbcTemplate.update(insertSid, new Object[] {Boolean.valueOf(sidIsPrincipal), sidName});
             Assert.isTrue(TransactionSynchronizationManager.isSynchronizationActive(), "Transaction must be running");
-            return new Long(jdbcTemplate.queryForLong(sidIdentityQuery));
+            sidId = new Long(jdbcTemplate.queryForLong(sidIdentityQuery));
+        } else {
+            return null;
         }
 
-        return null;
+        if (sidPrimaryKeyCache != null) {
+            sidPrimaryKeyCache.put(sid, sidId);
+        }
+
+        return sidId;
     }
 
     public void deleteAcl(ObjectIdentity objectIdentity, boolean deleteChildren) throws ChildrenExistException {
@@ -300,12 +673,21 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
 
     /**
      * This implementation will simply delete all ACEs in the database and recreate them on each invocation of
-     * this method. A more comprehensive implementation might use dirty state checking, or more likely use ORM
-     * capabilities for create, update and delete operations of {@link MutableAcl}.
+     * this method, unless <tt>incrementalUpdates</tt> is enabled, in which case only the changed ACEs are written
+     * (see {@link #updateEntries(MutableAcl)}). A more comprehensive implementation might use dirty state checking,
+     * or more likely use ORM capabilities for create, update and delete operations of {@link MutableAcl}.
      */
     public MutableAcl updateAcl(MutableAcl acl) throws NotFoundException {
         Assert.notNull(acl.getId(), "Object Identity doesn't provide an identifier");
 
+        if (incrementalUpdates) {
+            updateEntries(acl);
+            updateObjectIdentity(acl);
+            clearCacheIncludingDescendants(acl);
+
+            return (MutableAcl) super.readAclById(acl.getObjectIdentity());
+        }
+
         // Delete this ACL's ACEs in the acl_entry table
         deleteEntries(retrieveObjectIdentityPrimaryKey(acl.getObjectIdentity()));
 
@@ -333,6 +715,137 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         aclCache.evictFromCache(objectIdentity);
     }
 
+    /**
+     * Evicts the ACL and all its descendants from the cache, reading the primary keys of each level of descendants
+     * in batches, rather than with a query per ACL.
+     */
+    private void clearCacheIncludingDescendants(MutableAcl acl) {
+        aclCache.evictFromCache(acl.getObjectIdentity());
+        List<Long> level = Collections.singletonList((Long) acl.getId());
+
+        while (!level.isEmpty()) {
+            List<Long> children = new ArrayList<Long>();
+
+            for (int i = 0; i < level.size(); i += CHILD_LOOKUP_BATCH_SIZE) {
+                List<Long> batch = level.subList(i, Math.min(level.size(), i + CHILD_LOOKUP_BATCH_SIZE));
+                StringBuilder sql = new StringBuilder(selectChildPrimaryKeys).append("(?");
+
+                for (int j = 1; j < batch.size(); j++) {
+                    sql.append(", ?");
+                }
+
+                children.addAll(jdbcTemplate.queryForList(sql.append(")").toString(), batch.toArray(), Long.class));
+            }
+
+            for (Long child : children) {
+                aclCache.evictFromCache(child);
+            }
+
+            level = children;
+        }
+    }
+
+    /**
+     * Brings the rows in acl_entry into line with the ACEs of the passed MutableAcl, by comparing them with the rows
+     * which are currently stored. ACEs are matched to rows by their identifiers: rows which no longer have a
+     * corresponding ACE are deleted, ACEs without an identifier are inserted and rows whose position or contents
+     * have changed are updated. Each kind of change is written as a single JDBC batch, and unchanged rows are not
+     * written at all.
+     * <p>
+     * Rows which change position are first moved to a temporary negative <tt>ace_order</tt>, so that the
+     * <tt>(acl_object_identity, ace_order)</tt> unique constraint is never violated while the batch is applied.
+     *
+     * @param acl containing the ACEs to persist
+     */
+    protected void updateEntries(final MutableAcl acl) {
+        final Long aclId = (Long) acl.getId();
+        Map<Serializable, EntryRow> currentRows = new HashMap<Serializable, EntryRow>();
+
+        for (EntryRow row : jdbcTemplate.query(selectEntriesByObjectIdentityForeignKey, new Object[] {aclId},
+                new EntryRowMapper())) {
+            currentRows.put(row.id, row);
+        }
+
+        long[] sidIds = resolveSidPrimaryKeys(acl.getEntries());
+        final List<EntryRow> inserts = new ArrayList<EntryRow>();
+        final List<EntryRow> updates = new ArrayList<EntryRow>();
+        List<EntryRow> moves = new ArrayList<EntryRow>();
+        List<AccessControlEntry> entries = acl.getEntries();
+
+        for (int i = 0; i < entries.size(); i++) {
+            AccessControlEntry entry_ = entries.get(i);
+            Assert.isTrue(entry_ instanceof AccessControlEntryImpl, "Unknown ACE class");
+            AccessControlEntryImpl entry = (AccessControlEntryImpl) entry_;
+            EntryRow row = new EntryRow(entry.getId(), i, sidIds[i], entry.getPermission().getMask(),
+                    entry.isGranting(), entry.isAuditSuccess(), entry.isAuditFailure());
+            EntryRow current = entry.getId() == null ? null : currentRows.remove(entry.getId());
+
+            if (current == null) {
+                inserts.add(row);
+            } else if (current.order != row.order) {
+                updates.add(row.withOrder(-1 - row.order));
+                moves.add(row);
+            } else if (!current.hasSameContents(row)) {
+                updates.add(row);
+            }
+        }
+
+        // Moved rows take their final position once all of them have been moved out of the way
+        updates.addAll(moves);
+
+        final List<Serializable> deletes = new ArrayList<Serializable>(currentRows.keySet());
+
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(deleteEntryByPrimaryKey, new BatchPreparedStatementSetter() {
+                public int getBatchSize() {
+                    return deletes.size();
+                }
+
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    stmt.setLong(1, ((Long) deletes.get(i)).longValue());
+                }
+            });
+        }
+
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(updateEntry, new BatchPreparedStatementSetter() {
+                public int getBatchSize() {
+                    return updates.size();
+                }
+
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    EntryRow row = updates.get(i);
+                    stmt.setInt(1, row.order);
+                    stmt.setLong(2, row.sidId);
+                    stmt.setInt(3, row.mask);
+                    stmt.setBoolean(4, row.granting);
+                    stmt.setBoolean(5, row.auditSuccess);
+                    stmt.setBoolean(6, row.auditFailure);
+                    stmt.setLong(7, ((Long) row.id).longValue());
+                }
+            });
+        }
+
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(insertEntry, new BatchPreparedStatementSetter() {
+                public int getBatchSize() {
+                    return inserts.size();
+                }
+
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    EntryRow row = inserts.get(i);
+                    stmt.setLong(1, aclId.longValue());
+                    stmt.setInt(2, row.order);
+                    stmt.setLong(3, row.sidId);
+                    stmt.setInt(4, row.mask);
+                    stmt.setBoolean(5, row.granting);
+                    stmt.setBoolean(6, row.auditSuccess);
+                    stmt.setBoolean(7, row.auditFailure);
+                }
+            });
+        }
+    }
+
     /**
      * Updates an existing acl_object_identity row, with new information presented in the passed MutableAcl
      * object. Also will create an acl_sid entry if needed for the Sid that owns the MutableAcl.
@@ -389,6 +902,10 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         this.deleteEntryByObjectIdentityForeignKey = deleteEntryByObjectIdentityForeignKey;
     }
 
+    public void setDeleteEntryByPrimaryKeySql(String deleteEntryByPrimaryKey) {
+        this.deleteEntryByPrimaryKey = deleteEntryByPrimaryKey;
+    }
+
     public void setDeleteObjectIdentityByPrimaryKeySql(String deleteObjectIdentityByPrimaryKey) {
         this.deleteObjectIdentityByPrimaryKey = deleteObjectIdentityByPrimaryKey;
     }
@@ -405,6 +922,14 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         this.insertObjectIdentity = insertObjectIdentity;
     }
 
+    /**
+     * @param insertObjectIdentityWithParent the statement used by {@link #createAcls(Collection)} to insert a row
+     * in acl_object_identity, including its parent.
+     */
+    public void setInsertObjectIdentityWithParentSql(String insertObjectIdentityWithParent) {
+        this.insertObjectIdentityWithParent = insertObjectIdentityWithParent;
+    }
+
     public void setInsertSidSql(String insertSid) {
         this.insertSid = insertSid;
     }
@@ -417,10 +942,40 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
         this.selectObjectIdentityPrimaryKey = selectObjectIdentityPrimaryKey;
     }
 
+    /**
+     * @param selectObjectIdentityPrimaryKeys the start of the query used by {@link #createAcls(Collection)} to find
+     * the <tt>id</tt> and <tt>object_id_identity</tt> of rows with a given class, identifiers between a given
+     * lowest and highest value, and a list of identifiers, to which a parenthesized list of parameters is appended.
+     */
+    public void setObjectIdentityPrimaryKeysQuery(String selectObjectIdentityPrimaryKeys) {
+        this.selectObjectIdentityPrimaryKeys = selectObjectIdentityPrimaryKeys;
+    }
+
     public void setSidPrimaryKeyQuery(String selectSidPrimaryKey) {
         this.selectSidPrimaryKey = selectSidPrimaryKey;
     }
 
+    /**
+     * @param selectEntriesByObjectIdentityForeignKey the query used by incremental updates to read the current
+     * acl_entry rows of an ACL. It must return the <tt>id, ace_order, sid, mask, granting, audit_success</tt> and
+     * <tt>audit_failure</tt> columns, in that order.
+     */
+    public void setEntriesByObjectIdentityForeignKeyQuery(String selectEntriesByObjectIdentityForeignKey) {
+        this.selectEntriesByObjectIdentityForeignKey = selectEntriesByObjectIdentityForeignKey;
+    }
+
+    /**
+     * @param selectChildPrimaryKeys the start of the query used by incremental updates to find the children of a
+     * set of ACLs, to which a parenthesized list of parameters is appended.
+     */
+    public void setChildPrimaryKeysQuery(String selectChildPrimaryKeys) {
+        this.selectChildPrimaryKeys = selectChildPrimaryKeys;
+    }
+
+    public void setUpdateEntrySql(String updateEntry) {
+        this.updateEntry = updateEntry;
+    }
+
     public void setUpdateObjectIdentity(String updateObjectIdentity) {
         this.updateObjectIdentity = updateObjectIdentity;
     }
@@ -432,4 +987,158 @@ public class JdbcMutableAclService extends JdbcAclService implements MutableAclS
     public void setForeignKeysInDatabase(boolean foreignKeysInDatabase) {
         this.foreignKeysInDatabase = foreignKeysInDatabase;
     }
+
+    /**
+     * @param incrementalUpdates if true, {@link #updateAcl(MutableAcl)} will only write the ACEs which differ from
+     * those in the database, rather than deleting and recreating all of them (the default is false)
+     */
+    public void setIncrementalUpdates(boolean incrementalUpdates) {
+        this.incrementalUpdates = incrementalUpdates;
+    }
+
+    /**
+     * Enables caching of the primary keys of acl_sid and acl_class rows, so that they do not need to be queried
+     * each time an ACL or ACE refers to them. Keys which are read or created within a transaction only become
+     * visible to other threads once the transaction commits, and are discarded if it rolls back.
+     * <p>
+     * The cache should only be used if rows in these tables are not deleted or modified while the application is
+     * running, since it has no means of detecting this.
+     *
+     * @param primaryKeyCacheSize the maximum number of SID and class keys (each) which will be cached. The default
+     * is zero, which disables the cache.
+     */
+    public void setPrimaryKeyCacheSize(int primaryKeyCacheSize) {
+        Assert.isTrue(primaryKeyCacheSize >= 0, "primaryKeyCacheSize cannot be negative");
+
+        if (primaryKeyCacheSize == 0) {
+            sidPrimaryKeyCache = null;
+            classPrimaryKeyCache = null;
+        } else {
+            sidPrimaryKeyCache = new PrimaryKeyCache(primaryKeyCacheSize);
+            classPrimaryKeyCache = new PrimaryKeyCache(primaryKeyCacheSize);
+        }
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Bounded, least-recently-used map of keys to primary keys. While a transaction is active, new mappings are held
+     * in a map bound to the transaction and are only added to the shared map when it commits.
+     */
+    private static final class PrimaryKeyCache {
+        private final Map<Object, Long> primaryKeys;
+
+        PrimaryKeyCache(final int maximumSize) {
+            primaryKeys = new LinkedHashMap<Object, Long>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+
+        Long get(Object key) {
+            Map<Object, Long> pending = getPendingKeys(false);
+
+            if (pending != null) {
+                Long primaryKey = pending.get(key);
+
+                if (primaryKey != null) {
+                    return primaryKey;
+                }
+            }
+
+            synchronized (primaryKeys) {
+                return primaryKeys.get(key);
+            }
+        }
+
+        void put(Object key, Long primaryKey) {
+            Map<Object, Long> pending = getPendingKeys(true);
+
+            if (pending != null) {
+                pending.put(key, primaryKey);
+                return;
+            }
+
+            synchronized (primaryKeys) {
+                primaryKeys.put(key, primaryKey);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<Object, Long> getPendingKeys(boolean create) {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                return null;
+            }
+
+            Map<Object, Long> pending = (Map<Object, Long>) TransactionSynchronizationManager.getResource(this);
+
+            if (pending == null && create) {
+                final Map<Object, Long> newPending = new HashMap<Object, Long>();
+                TransactionSynchronizationManager.bindResource(this, newPending);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    public void suspend() {
+                        TransactionSynchronizationManager.unbindResource(PrimaryKeyCache.this);
+                    }
+
+                    public void resume() {
+                        TransactionSynchronizationManager.bindResource(PrimaryKeyCache.this, newPending);
+                    }
+
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(PrimaryKeyCache.this);
+
+                        if (status == STATUS_COMMITTED) {
+                            synchronized (primaryKeys) {
+                                primaryKeys.putAll(newPending);
+                            }
+                        }
+                    }
+                });
+                pending = newPending;
+            }
+
+            return pending;
+        }
+    }
+
+    /**
+     * The contents of a row in acl_entry.
+     */
+    private static final class EntryRow {
+        final Serializable id;
+        final int order;
+        final long sidId;
+        final int mask;
+        final boolean granting;
+        final boolean auditSuccess;
+        final boolean auditFailure;
+
+        EntryRow(Serializable id, int order, long sidId, int mask, boolean granting, boolean auditSuccess,
+                boolean auditFailure) {
+            this.id = id;
+            this.order = order;
+            this.sidId = sidId;
+            this.mask = mask;
+            this.granting = granting;
+            this.auditSuccess = auditSuccess;
+            this.auditFailure = auditFailure;
+        }
+
+        EntryRow withOrder(int order) {
+            return new EntryRow(id, order, sidId, mask, granting, auditSuccess, auditFailure);
+        }
+
+        boolean hasSameContents(EntryRow other) {
+            return sidId == other.sidId && mask == other.mask && granting == other.granting
+                && auditSuccess == other.auditSuccess && auditFailure == other.auditFailure;
+        }
+    }
+
+    private static final class EntryRowMapper implements RowMapper<EntryRow> {
+        public EntryRow mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new EntryRow(Long.valueOf(rs.getLong(1)), rs.getInt(2), rs.getLong(3), rs.getInt(4),
+                    rs.getBoolean(5), rs.getBoolean(6), rs.getBoolean(7));
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package org.springframework.security.acls.jdbc;
+
+import org.springframework.util.Assert;
+
+/**
+ * A SQL query which selects the <tt>object_id_identity</tt> of each ACL on which a principal holds a permission,
+ * created by {@link JdbcAclService#createObjectIdentifierQuery(String, java.util.List, java.util.List)}.
+ * <p>
+ * The query may be embedded in an application's own queries, for example as
+ * <tt>where document.id in (<i>sql</i>)</tt>, so that paging and sorting can take place in the database after the
+ * security filtering. The arguments must then be bound in place of the query's parameter markers, in order.
+ *
+ * @since 3.0.2
+ */
+public final class ObjectIdentifierQuery {
+    //~ Instance fields ================================================================================================
+
+    private final String sql;
+    private final Object[] args;
+
+    //~ Constructors ===================================================================================================
+
+    ObjectIdentifierQuery(String sql, Object[] args) {
+        Assert.hasText(sql, "SQL required");
+        Assert.notNull(args, "Arguments required");
+        this.sql = sql;
+        this.args = args;
+    }
+
+    //~ Methods ========================================================================================================
+
+    /**
+     * @return the query, with a single column containing the object identifiers
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the values of the query's parameters, in order
+     */
+    public Object[] getArgs() {
+        return args.clone();
+    }
+
+    public String toString() {
+        return sql;
+    }
+}
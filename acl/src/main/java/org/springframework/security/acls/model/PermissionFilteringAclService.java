@@ -0,0 +1,33 @@
+package org.springframework.security.acls.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * An {@link AclService} which can find the objects on which security identities have been granted permissions,
+ * so that filtering takes place where the ACLs are stored rather than by loading and discarding ACLs one by one.
+ * <p>
+ * Implementations must make the same decisions as {@link Acl#isGranted(List, List, boolean)}, including those
+ * inherited from parent ACLs.
+ *
+ * @since 3.0.2
+ */
+public interface PermissionFilteringAclService extends AclService {
+    //~ Methods ========================================================================================================
+
+    /**
+     * Finds a page of the identifiers of the objects of a given type on which any of the permissions is granted to
+     * the security identities. Pages are requested by passing the last identifier of the previous page, so that the
+     * cost of retrieving a page does not depend on its position.
+     *
+     * @param type the type of the domain objects
+     * @param permissions the permissions, any of which must be granted
+     * @param sids the security identities of the principal, in the order in which they are evaluated
+     * @param afterIdentifier the last identifier of the previous page, or <tt>null</tt> for the first page
+     * @param maxResults the maximum number of identifiers to return
+     *
+     * @return the identifiers in ascending order (never <tt>null</tt>)
+     */
+    List<Serializable> findObjectIdentifiers(String type, List<Permission> permissions, List<Sid> sids,
+            Serializable afterIdentifier, int maxResults);
+}
@@ -0,0 +1,189 @@
+package org.springframework.security.acls.afterinvocation;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Tests {@link AclEntryAfterInvocationCollectionFilteringProvider}.
+ */
+@SuppressWarnings("unchecked")
+public class AclEntryAfterInvocationCollectionFilteringProviderTests {
+    private static final List<ConfigAttribute> CONFIG = SecurityConfig.createList("AFTER_ACL_COLLECTION_READ");
+    private static final List<Permission> READ = Arrays.<Permission>asList(BasePermission.READ);
+
+    //~ Instance fields ================================================================================================
+
+    private AclService aclService = mock(AclService.class);
+    private SidRetrievalStrategy sidRetrievalStrategy = mock(SidRetrievalStrategy.class);
+    private Authentication authentication = new TestingAuthenticationToken("ben", "ignored");
+    private List<Sid> sids = Arrays.<Sid>asList(new PrincipalSid("ben"));
+    private Map<ObjectIdentity, Acl> acls = new HashMap<ObjectIdentity, Acl>();
+    private AclEntryAfterInvocationCollectionFilteringProvider provider;
+
+    //~ Methods ========================================================================================================
+
+    @Before
+    public void createProvider() throws Exception {
+        when(sidRetrievalStrategy.getSids(authentication)).thenReturn(sids);
+        when(aclService.readAclsById(anyList(), eq(sids))).thenReturn(acls);
+        provider = new AclEntryAfterInvocationCollectionFilteringProvider(aclService, READ);
+        provider.setSidRetrievalStrategy(sidRetrievalStrategy);
+        provider.setProcessDomainObjectClass(Document.class);
+    }
+
+    private Document document(long id, boolean granted) {
+        Acl acl = mock(Acl.class);
+        when(acl.isGranted(READ, sids, false)).thenReturn(Boolean.valueOf(granted));
+        Document document = new Document(id);
+        acls.put(new ObjectIdentityImpl(document), acl);
+
+        return document;
+    }
+
+    @Test
+    public void listIsFilteredWithSingleAclRead() throws Exception {
+        Document granted1 = document(1, true);
+        Document denied = document(2, false);
+        Document granted2 = document(3, true);
+        List<Object> list = new ArrayList<Object>(Arrays.asList(denied, granted1, "not a document", denied, null,
+                granted2, denied));
+
+        Object result = provider.decide(authentication, null, CONFIG, list);
+
+        assertSame(list, result);
+        assertEquals(Arrays.asList(granted1, "not a document", null, granted2), list);
+        verify(sidRetrievalStrategy).getSids(authentication);
+        verify(aclService).readAclsById(Arrays.<ObjectIdentity>asList(new ObjectIdentityImpl(denied),
+                new ObjectIdentityImpl(granted1), new ObjectIdentityImpl(granted2)), sids);
+        verifyNoMoreInteractions(aclService);
+    }
+
+    @Test
+    public void linkedAndHashedCollectionsAreFiltered() throws Exception {
+        Document granted = document(1, true);
+        Document denied = document(2, false);
+        Collection<Object> list = new LinkedList<Object>(Arrays.asList(denied, granted, denied));
+        Collection<Object> set = new LinkedHashSet<Object>(Arrays.asList(denied, granted));
+
+        provider.decide(authentication, null, CONFIG, list);
+        provider.decide(authentication, null, CONFIG, set);
+
+        assertEquals(Arrays.asList(granted), list);
+        assertEquals(Arrays.asList(granted), new ArrayList<Object>(set));
+    }
+
+    @Test
+    public void arrayIsFiltered() throws Exception {
+        Document granted = document(1, true);
+        Document denied = document(2, false);
+        Document[] array = new Document[10000];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = i % 3 == 0 ? granted : denied;
+        }
+
+        Document[] result = (Document[]) provider.decide(authentication, null, CONFIG, array);
+
+        assertEquals(3334, result.length);
+        assertSame(granted, result[3333]);
+        verify(aclService, times(1)).readAclsById(anyList(), eq(sids));
+    }
+
+    @Test
+    public void missingAclsAreReadIndividually() throws Exception {
+        Document granted = document(1, true);
+        Document withoutAcl = new Document(2);
+        when(aclService.readAclsById(anyList(), eq(sids))).thenThrow(new NotFoundException("missing"));
+        when(aclService.readAclById(new ObjectIdentityImpl(granted), sids)).thenReturn(
+                acls.get(new ObjectIdentityImpl(granted)));
+        when(aclService.readAclById(new ObjectIdentityImpl(withoutAcl), sids)).thenThrow(
+                new NotFoundException("missing"));
+        List<Object> list = new ArrayList<Object>(Arrays.asList(withoutAcl, granted));
+
+        provider.decide(authentication, null, CONFIG, list);
+
+        assertEquals(Arrays.asList(granted), list);
+    }
+
+    @Test
+    public void aclWithoutMatchingEntryDeniesElement() throws Exception {
+        Document document = document(1, true);
+        when(acls.get(new ObjectIdentityImpl(document)).isGranted(anyList(), anyList(), anyBoolean())).thenThrow(
+                new NotFoundException("no matching ACE"));
+        List<Object> list = new ArrayList<Object>(Arrays.asList(document));
+
+        provider.decide(authentication, null, CONFIG, list);
+
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void emptyCollectionDoesNotReadAcls() throws Exception {
+        provider.decide(authentication, null, CONFIG, new ArrayList<Object>(Arrays.asList("a", null)));
+
+        verify(aclService, never()).readAclsById(anyList(), any(List.class));
+    }
+
+    @Test
+    public void hasPermissionIsUsedForEachElementWithoutBatchLookup() throws Exception {
+        final Document granted = document(1, false);
+        Document denied = document(2, true);
+        provider = new AclEntryAfterInvocationCollectionFilteringProvider(aclService, READ) {
+            @Override
+            protected boolean hasPermission(Authentication authentication, Object domainObject) {
+                return domainObject == granted;
+            }
+        };
+        provider.setProcessDomainObjectClass(Document.class);
+        provider.setBatchAclLookup(false);
+        List<Object> list = new ArrayList<Object>(Arrays.asList(denied, granted, "not a document", denied));
+
+        provider.decide(authentication, null, CONFIG, list);
+
+        assertEquals(Arrays.asList(granted, "not a document"), list);
+        verifyZeroInteractions(aclService);
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    public static class Document {
+        private final Long id;
+
+        public Document(long id) {
+            this.id = Long.valueOf(id);
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
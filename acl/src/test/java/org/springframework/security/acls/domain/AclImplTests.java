@@ -2,6 +2,7 @@ package org.springframework.security.acls.domain;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -504,6 +505,66 @@ public class AclImplTests {
         acl.deleteAce(1);
     }
 
+    @Test
+    public void isGrantedUsesFirstMatchingAceInLargeAcl() throws Exception {
+        AclImpl acl = new AclImpl(objectIdentity, 1, mockAuthzStrategy, mockAuditLogger, null, null, true,
+                new PrincipalSid("joe"));
+        int groups = AclImpl.INDEX_THRESHOLD * 3;
+
+        for (int i = 0; i < groups; i++) {
+            acl.insertAce(i, BasePermission.READ, new GrantedAuthoritySid("GROUP_" + i), true);
+        }
+
+        // A rejection placed before the grant for the same SID and mask takes precedence
+        acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid("GROUP_7"), false);
+        List<Sid> group7 = Arrays.asList((Sid) new GrantedAuthoritySid("GROUP_7"));
+        assertFalse(acl.isGranted(READ, group7, false));
+        verify(mockAuditLogger).logIfNeeded(false, acl.getEntries().get(0));
+
+        // A grant for a later SID is not considered once a rejection for an earlier SID is found
+        assertFalse(acl.isGranted(READ, Arrays.asList(group7.get(0), new GrantedAuthoritySid("GROUP_8")), false));
+        assertTrue(acl.isGranted(READ, Arrays.asList(new GrantedAuthoritySid("GROUP_8"), group7.get(0)), false));
+        assertTrue(acl.isGranted(Arrays.asList(BasePermission.READ, BasePermission.WRITE),
+                Arrays.asList(new PrincipalSid("GROUP_8"), new GrantedAuthoritySid("GROUP_8")), false));
+
+        try {
+            acl.isGranted(WRITE, group7, false);
+            fail("It should have thrown NotFoundException");
+        } catch (NotFoundException expected) {
+        }
+
+        // The index reflects each modification
+        acl.updateAce(0, BasePermission.WRITE);
+        assertTrue(acl.isGranted(READ, group7, false));
+        assertFalse(acl.isGranted(WRITE, group7, false));
+        acl.deleteAce(0);
+        assertTrue(acl.isGranted(READ, group7, false));
+        acl.insertAce(5, BasePermission.WRITE, new GrantedAuthoritySid("GROUP_7"), true);
+        assertTrue(acl.isGranted(WRITE, group7, false));
+    }
+
+    @Test
+    public void largeAclInheritsFromParentWhenNoAceMatches() throws Exception {
+        AclImpl parent = new AclImpl(objectIdentity, 1, mockAuthzStrategy, mockAuditLogger, null, null, true,
+                new PrincipalSid("joe"));
+        parent.insertAce(0, BasePermission.DELETE, new PrincipalSid("ben"), true);
+        AclImpl child = new AclImpl(new ObjectIdentityImpl(TARGET_CLASS, 101), 2, mockAuthzStrategy,
+                mockAuditLogger, parent, null, true, new PrincipalSid("joe"));
+
+        for (int i = 0; i < AclImpl.INDEX_THRESHOLD * 2; i++) {
+            child.insertAce(i, BasePermission.READ, new GrantedAuthoritySid("GROUP_" + i), true);
+        }
+
+        assertTrue(child.isGranted(DELETE, BEN, false));
+        child.setEntriesInheriting(false);
+
+        try {
+            child.isGranted(DELETE, BEN, false);
+            fail("It should have thrown NotFoundException");
+        } catch (NotFoundException expected) {
+        }
+    }
+
 
     //~ Inner Classes ==================================================================================================
 
@@ -0,0 +1,223 @@
+package org.springframework.security.acls.domain;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+
+/**
+ * Tests {@link ConcurrentMapAclCache}.
+ */
+public class ConcurrentMapAclCacheTests {
+    private static final String TARGET_CLASS = "org.springframework.security.acls.TargetObject";
+
+    private AclAuthorizationStrategy authorizationStrategy = mock(AclAuthorizationStrategy.class);
+    private AuditLogger auditLogger = mock(AuditLogger.class);
+    private long now = 1000000;
+
+    private ConcurrentMapAclCache createCache(int maximumSize, long timeToLiveSeconds) {
+        return new ConcurrentMapAclCache(maximumSize, timeToLiveSeconds) {
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private MutableAcl acl(long id) {
+        return new AclImpl(new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(id + 100)), Long.valueOf(id),
+                authorizationStrategy, auditLogger);
+    }
+
+    @Test
+    public void cachedAclIsReturnedByIdentityAndId() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+        MutableAcl acl = acl(1);
+        cache.putInCache(acl);
+
+        assertSame(acl, cache.getFromCache(acl.getObjectIdentity()));
+        assertSame(acl, cache.getFromCache(Long.valueOf(1)));
+        assertNull(cache.getFromCache(Long.valueOf(2)));
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void parentIsCachedWithChild() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+        MutableAcl parent = acl(1);
+        MutableAcl child = new AclImpl(new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(102)), Long.valueOf(2),
+                authorizationStrategy, auditLogger, parent, null, true, new PrincipalSid("joe"));
+        cache.putInCache(child);
+
+        assertSame(parent, cache.getFromCache(Long.valueOf(1)));
+        assertSame(parent, cache.getFromCache(Long.valueOf(2)).getParentAcl());
+        assertEquals(2, cache.getSize());
+
+        // Caching the child again refreshes the existing entries
+        cache.putInCache(child);
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void evictionByEitherKeyRemovesBoth() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+        MutableAcl acl1 = acl(1);
+        MutableAcl acl2 = acl(2);
+        cache.putInCache(acl1);
+        cache.putInCache(acl2);
+
+        cache.evictFromCache(Long.valueOf(1));
+        assertNull(cache.getFromCache(acl1.getObjectIdentity()));
+        cache.evictFromCache(acl2.getObjectIdentity());
+        assertNull(cache.getFromCache(Long.valueOf(2)));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void eldestEntriesAreEvictedWhenFull() throws Exception {
+        ConcurrentMapAclCache cache = createCache(3, 0);
+
+        for (long i = 1; i <= 5; i++) {
+            cache.putInCache(acl(i));
+        }
+
+        assertEquals(3, cache.getSize());
+        assertEquals(2, cache.getEvictionCount());
+        assertNull(cache.getFromCache(Long.valueOf(1)));
+        assertNull(cache.getFromCache(Long.valueOf(2)));
+        assertNotNull(cache.getFromCache(Long.valueOf(3)));
+        assertNotNull(cache.getFromCache(Long.valueOf(5)));
+    }
+
+    @Test
+    public void expiredEntriesAreNotReturned() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 60);
+        MutableAcl acl = acl(1);
+        cache.putInCache(acl);
+        now += 59000;
+        assertSame(acl, cache.getFromCache(acl.getObjectIdentity()));
+        now += 1000;
+
+        assertNull(cache.getFromCache(acl.getObjectIdentity()));
+        assertNull(cache.getFromCache(Long.valueOf(1)));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void recreatedAclReplacesPreviousId() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+        ObjectIdentity oid = new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(101));
+        cache.putInCache(acl(1));
+        MutableAcl recreated = new AclImpl(oid, Long.valueOf(7), authorizationStrategy, auditLogger);
+        cache.putInCache(recreated);
+
+        assertNull(cache.getFromCache(Long.valueOf(1)));
+        assertSame(recreated, cache.getFromCache(Long.valueOf(7)));
+        assertSame(recreated, cache.getFromCache(oid));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void removedEntriesAreSkippedWhenEvicting() throws Exception {
+        ConcurrentMapAclCache cache = createCache(3, 0);
+        cache.putInCache(acl(1));
+        cache.putInCache(acl(2));
+        cache.evictFromCache(Long.valueOf(1));
+
+        for (long i = 3; i <= 5; i++) {
+            cache.putInCache(acl(i));
+        }
+
+        assertEquals(3, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.getFromCache(Long.valueOf(2)));
+        assertNotNull(cache.getFromCache(Long.valueOf(3)));
+    }
+
+    @Test
+    public void queueOfRemovedEntriesIsBounded() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+
+        for (long i = 1; i <= 1000; i++) {
+            cache.putInCache(acl(i));
+            cache.evictFromCache(Long.valueOf(i));
+        }
+
+        assertEquals(0, cache.getSize());
+        assertTrue(cache.getInsertionOrderLength() <= 20);
+    }
+
+    @Test
+    public void aclEvictedWhileBeingCachedIsNotFoundByEitherKey() throws Exception {
+        final ConcurrentMapAclCache cache = createCache(10, 0);
+        final MutableAcl acl = acl(1);
+        CyclicBarrier start = new CyclicBarrier(3);
+        CyclicBarrier end = new CyclicBarrier(3);
+        int iterations = 20000;
+
+        new Repeater(start, end, iterations) {
+            void step() {
+                cache.putInCache(acl);
+            }
+        }.start();
+        new Repeater(start, end, iterations) {
+            void step() {
+                cache.evictFromCache(acl.getObjectIdentity());
+            }
+        }.start();
+
+        for (int i = 0; i < iterations; i++) {
+            start.await();
+            end.await();
+            cache.evictFromCache(acl.getObjectIdentity());
+
+            assertNull(cache.getFromCache(acl.getObjectIdentity()));
+            assertNull(cache.getFromCache(Long.valueOf(1)));
+        }
+    }
+
+    @Test
+    public void clearCacheRemovesEverything() throws Exception {
+        ConcurrentMapAclCache cache = createCache(10, 0);
+        cache.putInCache(acl(1));
+        cache.clearCache();
+
+        assertNull(cache.getFromCache(Long.valueOf(1)));
+        assertEquals(0, cache.getSize());
+    }
+
+    /**
+     * Runs a step in step with the test, so that each step races with the step of another <tt>Repeater</tt>.
+     */
+    private abstract static class Repeater extends Thread {
+        private final CyclicBarrier start;
+        private final CyclicBarrier end;
+        private final int iterations;
+
+        Repeater(CyclicBarrier start, CyclicBarrier end, int iterations) {
+            this.start = start;
+            this.end = end;
+            this.iterations = iterations;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    start.await();
+                    step();
+                    end.await();
+                }
+            } catch (Exception e) {
+                // The test has failed or been interrupted
+            }
+        }
+
+        abstract void step();
+    }
+}
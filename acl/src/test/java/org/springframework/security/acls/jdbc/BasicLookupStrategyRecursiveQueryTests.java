@@ -0,0 +1,165 @@
+package org.springframework.security.acls.jdbc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests the <tt>recursiveParentLookup</tt> option of {@link BasicLookupStrategy} against an H2 database, which
+ * supports recursive common table expressions.
+ */
+public class BasicLookupStrategyRecursiveQueryTests {
+    private static final String TARGET_CLASS = "org.springframework.security.acls.TargetObject";
+
+    //~ Instance fields ================================================================================================
+
+    private SingleConnectionDataSource dataSource;
+    private CountingDataSource countingDataSource;
+    private BasicLookupStrategy strategy;
+
+    //~ Methods ========================================================================================================
+
+    @Before
+    public void createDatabase() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:recursivelookuptest;MODE=HSQLDB", "sa", "", true);
+        dataSource.setDriverClassName("org.h2.Driver");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        String schema = new String(FileCopyUtils.copyToByteArray(
+                new ClassPathResource("createAclSchema.sql").getInputStream()));
+        jdbcTemplate.execute(schema.replace("varchar_ignorecase", "varchar"));
+
+        // A chain of five ACLs, each with a single ACE, with a sibling of the leaf
+        jdbcTemplate.execute("insert into acl_sid(id,principal,sid) values (1,1,'ben')");
+        jdbcTemplate.execute("insert into acl_class(id,class) values (2,'" + TARGET_CLASS + "')");
+
+        for (int i = 1; i <= 6; i++) {
+            String parent = i == 1 ? "null" : Integer.toString(Math.min(i - 1, 4));
+            jdbcTemplate.execute("insert into acl_object_identity(id,object_id_class,object_id_identity," +
+                    "parent_object,owner_sid,entries_inheriting) values (" + i + ",2," + (100 + i) + "," +
+                    parent + ",1,1)");
+            jdbcTemplate.execute("insert into acl_entry(id,acl_object_identity,ace_order,sid,mask,granting," +
+                    "audit_success,audit_failure) values (" + i + "," + i + ",0,1," + i + ",1,0,0)");
+        }
+
+        countingDataSource = new CountingDataSource(dataSource);
+        strategy = new BasicLookupStrategy(countingDataSource, mock(AclCache.class),
+                new AclAuthorizationStrategyImpl(new GrantedAuthority[] {new GrantedAuthorityImpl("ROLE_ADMIN"),
+                        new GrantedAuthorityImpl("ROLE_ADMIN"), new GrantedAuthorityImpl("ROLE_ADMIN")}),
+                new ConsoleAuditLogger());
+        strategy.setRecursiveParentLookup(true);
+    }
+
+    @After
+    public void dropDatabase() throws Exception {
+        new JdbcTemplate(dataSource).execute("drop all objects");
+        dataSource.destroy();
+    }
+
+    private ObjectIdentity oid(long identifier) {
+        return new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(identifier));
+    }
+
+    @Test
+    public void wholeAncestorChainIsLoadedInOneStatement() throws Exception {
+        Map<ObjectIdentity, Acl> acls = strategy.readAclsById(Arrays.asList(oid(105)), null);
+
+        assertEquals(1, countingDataSource.statements);
+        assertEquals(5, acls.size());
+        Acl acl = acls.get(oid(105));
+
+        for (int i = 5; i >= 1; i--) {
+            assertSame(acls.get(oid(100 + i)), acl);
+            assertEquals(1, acl.getEntries().size());
+            assertEquals(i, acl.getEntries().get(0).getPermission().getMask());
+            acl = acl.getParentAcl();
+        }
+
+        assertNull(acl);
+        assertNull(acls.get(oid(106)));
+    }
+
+    @Test
+    public void sharedAncestorsAreLoadedOnce() throws Exception {
+        Map<ObjectIdentity, Acl> acls = strategy.readAclsById(Arrays.asList(oid(105), oid(106)), null);
+
+        assertEquals(1, countingDataSource.statements);
+        assertEquals(6, acls.size());
+        assertSame(acls.get(oid(105)).getParentAcl(), acls.get(oid(106)).getParentAcl());
+        assertEquals(1, acls.get(oid(104)).getEntries().size());
+    }
+
+    @Test
+    public void paddedRecursiveQueryLoadsSameAcls() throws Exception {
+        strategy.setPadBatchSizes(true);
+        Map<ObjectIdentity, Acl> acls = strategy.readAclsById(Arrays.asList(oid(105), oid(106)), null);
+
+        assertEquals(1, countingDataSource.statements);
+        assertEquals(6, acls.size());
+    }
+
+    @Test
+    public void standardQueriesIssueOneStatementPerLevel() throws Exception {
+        strategy.setRecursiveParentLookup(false);
+        Map<ObjectIdentity, Acl> acls = strategy.readAclsById(Arrays.asList(oid(105)), null);
+
+        assertEquals(5, countingDataSource.statements);
+        assertEquals(5, acls.size());
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Counts the statements which are prepared by the strategy.
+     */
+    private static class CountingDataSource extends DelegatingDataSource {
+        int statements;
+
+        CountingDataSource(SingleConnectionDataSource target) {
+            super(target);
+        }
+
+        public Connection getConnection() throws SQLException {
+            final Connection target = super.getConnection();
+
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class},
+                    new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("prepareStatement")) {
+                        statements++;
+                    }
+
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -298,6 +298,65 @@ public class BasicLookupStrategyTests {
         Assert.assertTrue(foundParent2Acl.isGranted(checkPermission, sids, false));
     }
 
+    @Test
+    public void loadedAclsAreLinkedToEachOther() throws Exception {
+        ObjectIdentity topParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(100));
+        ObjectIdentity middleParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(101));
+        ObjectIdentity childOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(102));
+
+        // The child is read first, so its parents are found before they are requested
+        Map<ObjectIdentity, Acl> map = strategy.readAclsById(Arrays.asList(childOid, middleParentOid, topParentOid),
+                null);
+        Acl child = map.get(childOid);
+        Acl middleParent = map.get(middleParentOid);
+
+        Assert.assertSame(middleParent, child.getParentAcl());
+        Assert.assertSame(map.get(topParentOid), middleParent.getParentAcl());
+        Assert.assertSame(child, child.getEntries().get(0).getAcl());
+        Assert.assertSame(middleParent, middleParent.getEntries().get(0).getAcl());
+        Assert.assertEquals(2, map.get(topParentOid).getEntries().size());
+    }
+
+    @Test
+    public void paddedBatchesReturnSameAcls() throws Exception {
+        ObjectIdentity topParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(100));
+        ObjectIdentity middleParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(101));
+        ObjectIdentity childOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(102));
+
+        strategy.setPadBatchSizes(true);
+        Map<ObjectIdentity, Acl> map = strategy.readAclsById(Arrays.asList(topParentOid, middleParentOid, childOid),
+                null);
+        checkEntries(topParentOid, middleParentOid, childOid, map);
+    }
+
+    @Test
+    public void batchSizesArePaddedToPowersOfFour() {
+        Assert.assertEquals(3, strategy.padBatchSize(3));
+        strategy.setPadBatchSizes(true);
+        Assert.assertEquals(1, strategy.padBatchSize(1));
+        Assert.assertEquals(4, strategy.padBatchSize(2));
+        Assert.assertEquals(4, strategy.padBatchSize(4));
+        Assert.assertEquals(16, strategy.padBatchSize(5));
+        Assert.assertEquals(64, strategy.padBatchSize(50));
+    }
+
+    @Test
+    public void recursiveParentLookupFallsBackIfDatabaseDoesNotSupportIt() throws Exception {
+        ObjectIdentity topParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(100));
+        ObjectIdentity middleParentOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(101));
+        ObjectIdentity childOid = new ObjectIdentityImpl(TARGET_CLASS, new Long(102));
+
+        // HSQLDB 1.8 does not support WITH RECURSIVE
+        strategy.setRecursiveParentLookup(true);
+        Map<ObjectIdentity, Acl> map = strategy.readAclsById(Arrays.asList(topParentOid, middleParentOid, childOid),
+                null);
+        checkEntries(topParentOid, middleParentOid, childOid, map);
+
+        getCache();
+        map = strategy.readAclsById(Arrays.asList(topParentOid, middleParentOid, childOid), null);
+        checkEntries(topParentOid, middleParentOid, childOid, map);
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public void nullOwnerIsNotSupported() {
         String query = "INSERT INTO acl_object_identity(ID,OBJECT_ID_CLASS,OBJECT_ID_IDENTITY,PARENT_OBJECT,OWNER_SID,ENTRIES_INHERITING) VALUES (4,2,104,null,null,1);";
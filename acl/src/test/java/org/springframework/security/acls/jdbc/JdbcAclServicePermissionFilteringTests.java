@@ -0,0 +1,232 @@
+package org.springframework.security.acls.jdbc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConcurrentMapAclCache;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests the permission filtering queries of {@link JdbcAclService}.
+ */
+public class JdbcAclServicePermissionFilteringTests {
+    private static final String TARGET_CLASS = "org.springframework.security.acls.TargetObject";
+    private static final Sid BEN = new PrincipalSid("ben");
+    private static final Sid JOE = new PrincipalSid("joe");
+    private static final Sid ROLE_USER = new GrantedAuthoritySid("ROLE_USER");
+    private static final Sid ROLE_ADMIN = new GrantedAuthoritySid("ROLE_ADMIN");
+    private static final List<Permission> READ = Arrays.asList(BasePermission.READ);
+
+    //~ Instance fields ================================================================================================
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private JdbcMutableAclService service;
+
+    //~ Methods ========================================================================================================
+
+    @Before
+    public void createDatabase() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:permissionfilteringtest", "sa", "", true);
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute(new String(FileCopyUtils.copyToByteArray(
+                new ClassPathResource("createAclSchema.sql").getInputStream())));
+        service = new JdbcMutableAclService(dataSource, mock(LookupStrategy.class), mock(AclCache.class));
+    }
+
+    @After
+    public void dropDatabase() throws Exception {
+        jdbcTemplate.execute("shutdown");
+        dataSource.destroy();
+    }
+
+    private static ObjectIdentity oid(long id) {
+        return new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(id));
+    }
+
+    private void create(final List<AclDefinition> definitions) {
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(
+                new TransactionCallbackWithoutResult() {
+                    protected void doInTransactionWithoutResult(TransactionStatus status) {
+                        service.createAcls(definitions);
+                    }
+                });
+    }
+
+    private List<Serializable> find(List<Permission> permissions, Sid... sids) {
+        return service.findObjectIdentifiers(TARGET_CLASS, permissions, Arrays.asList(sids), null, 1000);
+    }
+
+    private void createExampleAcls() {
+        List<AclDefinition> definitions = new ArrayList<AclDefinition>();
+        definitions.add(new AclDefinition(oid(1), BEN, null).addAce(BasePermission.READ, BEN, true));
+        // Inherits from 1
+        definitions.add(new AclDefinition(oid(10), BEN, oid(1)));
+        definitions.add(new AclDefinition(oid(11), BEN, oid(1)).addAce(BasePermission.READ, BEN, false));
+        definitions.add(new AclDefinition(oid(12), BEN, oid(1), false));
+        definitions.add(new AclDefinition(oid(13), BEN, oid(1)).addAce(BasePermission.READ, ROLE_USER, true));
+        // The principal is evaluated before the authority
+        definitions.add(new AclDefinition(oid(14), BEN, null).addAce(BasePermission.READ, ROLE_USER, true)
+                .addAce(BasePermission.READ, BEN, false));
+        // The first entry for the SID prevails
+        definitions.add(new AclDefinition(oid(15), BEN, null).addAce(BasePermission.READ, BEN, false)
+                .addAce(BasePermission.READ, BEN, true));
+        // An entry for another permission does not prevent inheritance
+        definitions.add(new AclDefinition(oid(16), BEN, oid(1)).addAce(BasePermission.WRITE, BEN, true));
+        definitions.add(new AclDefinition(oid(20), BEN, oid(1)));
+        definitions.add(new AclDefinition(oid(21), BEN, oid(20)));
+        definitions.add(new AclDefinition(oid(30), JOE, null).addAce(BasePermission.READ, JOE, true));
+        create(definitions);
+    }
+
+    @Test
+    public void grantedIdentifiersAreFound() throws Exception {
+        createExampleAcls();
+
+        assertEquals(Arrays.<Serializable>asList(1L, 10L, 13L, 16L, 20L, 21L), find(READ, BEN, ROLE_USER));
+        assertEquals(Arrays.<Serializable>asList(13L, 14L), find(READ, ROLE_USER));
+        assertEquals(Arrays.<Serializable>asList(16L), find(Arrays.asList(BasePermission.WRITE), BEN));
+        assertEquals(Arrays.<Serializable>asList(1L, 10L, 13L, 16L, 20L, 21L, 30L), find(READ, BEN, ROLE_USER, JOE));
+        assertEquals(Arrays.<Serializable>asList(), find(READ, ROLE_ADMIN));
+        assertEquals(Arrays.<Serializable>asList(), service.findObjectIdentifiers("some.other.Type", READ,
+                Arrays.asList(BEN), null, 10));
+    }
+
+    @Test
+    public void ancestorsBeyondMaximumDepthAreNotConsulted() throws Exception {
+        createExampleAcls();
+        service.setMaximumInheritanceDepth(1);
+
+        assertEquals(Arrays.<Serializable>asList(1L, 10L, 13L, 16L, 20L), find(READ, BEN, ROLE_USER));
+
+        service.setMaximumInheritanceDepth(0);
+
+        assertEquals(Arrays.<Serializable>asList(1L, 13L), find(READ, BEN, ROLE_USER));
+    }
+
+    @Test
+    public void pagesAreFoundAfterTheLastIdentifier() throws Exception {
+        createExampleAcls();
+        List<Sid> sids = Arrays.asList(BEN, ROLE_USER);
+
+        assertEquals(Arrays.<Serializable>asList(1L, 10L), service.findObjectIdentifiers(TARGET_CLASS, READ, sids,
+                null, 2));
+        assertEquals(Arrays.<Serializable>asList(13L, 16L), service.findObjectIdentifiers(TARGET_CLASS, READ, sids,
+                10L, 2));
+        assertEquals(Arrays.<Serializable>asList(20L, 21L), service.findObjectIdentifiers(TARGET_CLASS, READ, sids,
+                16L, 5));
+        assertEquals(Arrays.<Serializable>asList(), service.findObjectIdentifiers(TARGET_CLASS, READ, sids, 21L, 5));
+    }
+
+    @Test
+    public void identifiersCanBeStreamed() throws Exception {
+        createExampleAcls();
+        final List<Long> identifiers = new ArrayList<Long>();
+        service.setObjectIdentifierFetchSize(2);
+
+        service.findObjectIdentifiers(TARGET_CLASS, READ, Arrays.asList(BEN, ROLE_USER), new RowCallbackHandler() {
+            public void processRow(ResultSet rs) throws SQLException {
+                identifiers.add(Long.valueOf(rs.getLong(1)));
+            }
+        });
+
+        assertEquals(Arrays.asList(1L, 10L, 13L, 16L, 20L, 21L), identifiers);
+    }
+
+    @Test
+    public void queryCanBeEmbedded() throws Exception {
+        createExampleAcls();
+        ObjectIdentifierQuery query = service.createObjectIdentifierQuery(TARGET_CLASS, READ, Arrays.asList(BEN));
+        List<Object> args = new ArrayList<Object>(Arrays.asList(query.getArgs()));
+        args.add(Long.valueOf(15));
+
+        assertEquals(3, jdbcTemplate.queryForInt("select count(*) from acl_object_identity obj where "
+                + "obj.object_id_identity in (" + query.getSql() + ") and obj.object_id_identity > ?", args.toArray()));
+    }
+
+    @Test
+    public void decisionsMatchAclImpl() throws Exception {
+        Random random = new Random(42);
+        Sid[] sids = {BEN, JOE, ROLE_USER, ROLE_ADMIN};
+        Permission[] permissions = {BasePermission.READ, BasePermission.WRITE, BasePermission.DELETE};
+        List<AclDefinition> definitions = new ArrayList<AclDefinition>();
+        List<ObjectIdentity> identities = new ArrayList<ObjectIdentity>();
+
+        for (long id = 1; id <= 300; id++) {
+            // Each ACL's parent has a lower identifier, giving chains of up to five ancestors
+            ObjectIdentity parent = id > 10 && random.nextInt(5) > 0 ? oid(Math.max(1, id / 3)) : null;
+            AclDefinition definition = new AclDefinition(oid(id), BEN, parent, random.nextInt(5) > 0);
+
+            for (int i = random.nextInt(4); i > 0; i--) {
+                definition.addAce(permissions[random.nextInt(2)], sids[random.nextInt(sids.length)],
+                        random.nextBoolean());
+            }
+
+            definitions.add(definition);
+            identities.add(definition.getObjectIdentity());
+        }
+
+        create(definitions);
+
+        BasicLookupStrategy lookupStrategy = new BasicLookupStrategy(dataSource, new ConcurrentMapAclCache(1000, 0),
+                mock(AclAuthorizationStrategy.class), mock(AuditLogger.class));
+        Map<ObjectIdentity, Acl> acls = lookupStrategy.readAclsById(identities, null);
+        List<List<Sid>> sidLists = Arrays.asList(Arrays.asList(BEN, ROLE_USER), Arrays.asList(ROLE_USER, BEN),
+                Arrays.asList(JOE), Arrays.asList(ROLE_ADMIN, JOE, ROLE_USER, BEN));
+        List<List<Permission>> permissionLists = Arrays.asList(READ,
+                Arrays.<Permission>asList(BasePermission.READ, BasePermission.WRITE),
+                Arrays.<Permission>asList(BasePermission.WRITE, BasePermission.READ),
+                Arrays.<Permission>asList(BasePermission.DELETE));
+
+        for (List<Sid> sidList : sidLists) {
+            for (List<Permission> permissionList : permissionLists) {
+                List<Serializable> expected = new ArrayList<Serializable>();
+
+                for (ObjectIdentity identity : identities) {
+                    try {
+                        if (acls.get(identity).isGranted(permissionList, sidList, true)) {
+                            expected.add(identity.getIdentifier());
+                        }
+                    } catch (NotFoundException notGranted) {
+                    }
+                }
+
+                assertEquals(sidList + " " + permissionList, expected, service.findObjectIdentifiers(TARGET_CLASS,
+                        permissionList, sidList, null, 1000));
+            }
+        }
+    }
+}
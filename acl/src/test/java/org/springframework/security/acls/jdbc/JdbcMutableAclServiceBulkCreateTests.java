@@ -0,0 +1,156 @@
+package org.springframework.security.acls.jdbc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests that {@link JdbcMutableAclService#createAcls(java.util.Collection)} issues a number of statements which does
+ * not depend on the number of ACLs and entries being created.
+ */
+public class JdbcMutableAclServiceBulkCreateTests {
+    private static final String TARGET_CLASS = "org.springframework.security.acls.TargetObject";
+    private static final Sid OWNER = new PrincipalSid("owner");
+    private static final Sid[] SIDS = {new GrantedAuthoritySid("ROLE_A"), new GrantedAuthoritySid("ROLE_B"),
+            new GrantedAuthoritySid("ROLE_C")};
+
+    //~ Instance fields ================================================================================================
+
+    private SingleConnectionDataSource dataSource;
+    private CountingDataSource countingDataSource;
+    private JdbcMutableAclService service;
+
+    //~ Methods ========================================================================================================
+
+    @Before
+    public void createDatabase() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:bulkcreatetest", "sa", "", true);
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        new JdbcTemplate(dataSource).execute(new String(FileCopyUtils.copyToByteArray(
+                new ClassPathResource("createAclSchema.sql").getInputStream())));
+        countingDataSource = new CountingDataSource(dataSource);
+        service = new JdbcMutableAclService(countingDataSource, mock(LookupStrategy.class), mock(AclCache.class));
+
+        // The parent, and the SIDs used by the entries, exist before anything is counted
+        List<AclDefinition> definitions = new ArrayList<AclDefinition>();
+        AclDefinition parent = new AclDefinition(oid(0), OWNER, null);
+
+        for (Sid sid : SIDS) {
+            parent.addAce(BasePermission.READ, sid, true);
+        }
+
+        definitions.add(parent);
+        create(definitions);
+    }
+
+    @After
+    public void dropDatabase() throws Exception {
+        new JdbcTemplate(dataSource).execute("shutdown");
+        dataSource.destroy();
+    }
+
+    private static ObjectIdentity oid(long id) {
+        return new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(id));
+    }
+
+    private int create(final List<AclDefinition> definitions) {
+        countingDataSource.statements = 0;
+        new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(
+                new TransactionCallbackWithoutResult() {
+                    protected void doInTransactionWithoutResult(TransactionStatus status) {
+                        service.createAcls(definitions);
+                    }
+                });
+
+        return countingDataSource.statements;
+    }
+
+    private List<AclDefinition> children(long firstId, int count) {
+        List<AclDefinition> definitions = new ArrayList<AclDefinition>(count);
+
+        for (long id = firstId; id < firstId + count; id++) {
+            AclDefinition definition = new AclDefinition(oid(id), OWNER, oid(0));
+
+            for (int i = 0; i < 10; i++) {
+                definition.addAce(BasePermission.READ, SIDS[i % SIDS.length], i % 2 == 0);
+            }
+
+            definitions.add(definition);
+        }
+
+        return definitions;
+    }
+
+    @Test
+    public void statementCountDoesNotGrowWithNumberOfAcls() throws Exception {
+        int single = create(children(1, 1));
+        // Stays within a single primary key lookup batch, including the parent
+        int many = create(children(2, 99));
+
+        assertTrue(single > 0);
+        assertEquals(single, many);
+        assertEquals(100, new JdbcTemplate(dataSource).queryForInt(
+                "select count(*) from acl_object_identity where parent_object is not null"));
+        assertEquals(1003, new JdbcTemplate(dataSource).queryForInt("select count(*) from acl_entry"));
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Counts the statements which are prepared by the service.
+     */
+    private static class CountingDataSource extends DelegatingDataSource {
+        int statements;
+
+        CountingDataSource(SingleConnectionDataSource target) {
+            super(target);
+        }
+
+        public Connection getConnection() throws SQLException {
+            final Connection target = super.getConnection();
+
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class},
+                    new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("prepareStatement")) {
+                        statements++;
+                    }
+
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                }
+            });
+        }
+    }
+}
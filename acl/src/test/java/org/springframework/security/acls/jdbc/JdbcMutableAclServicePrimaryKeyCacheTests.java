@@ -0,0 +1,111 @@
+package org.springframework.security.acls.jdbc;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Tests the SID and class primary key cache of {@link JdbcMutableAclService}.
+ */
+public class JdbcMutableAclServicePrimaryKeyCacheTests {
+    private static final String TARGET_CLASS = "org.springframework.security.acls.TargetObject";
+
+    //~ Instance fields ================================================================================================
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate tx;
+    private JdbcMutableAclService service;
+
+    //~ Methods ========================================================================================================
+
+    @Before
+    public void createDatabase() throws Exception {
+        dataSource = new SingleConnectionDataSource("jdbc:hsqldb:mem:primarykeycachetest", "sa", "", true);
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute(new String(FileCopyUtils.copyToByteArray(
+                new ClassPathResource("createAclSchema.sql").getInputStream())));
+        tx = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        service = new JdbcMutableAclService(dataSource, mock(LookupStrategy.class), mock(AclCache.class));
+        service.setPrimaryKeyCacheSize(10);
+    }
+
+    @After
+    public void dropDatabase() throws Exception {
+        jdbcTemplate.execute("shutdown");
+        dataSource.destroy();
+    }
+
+    private Long sidPrimaryKey(final Sid sid, final boolean allowCreate, final boolean rollback) {
+        return tx.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                if (rollback) {
+                    status.setRollbackOnly();
+                }
+
+                return service.createOrRetrieveSidPrimaryKey(sid, allowCreate);
+            }
+        });
+    }
+
+    @Test
+    public void committedKeysAreCached() throws Exception {
+        Sid ben = new PrincipalSid("ben");
+        Long benId = sidPrimaryKey(ben, true, false);
+        assertNotNull(benId);
+
+        // The key is no longer found in the database, so a cached value must be being used
+        jdbcTemplate.update("update acl_sid set sid = 'notben'");
+        assertEquals(benId, sidPrimaryKey(ben, false, false));
+        assertEquals(benId, service.createOrRetrieveSidPrimaryKey(ben, false));
+        assertNull(sidPrimaryKey(new GrantedAuthoritySid("ben"), false, false));
+    }
+
+    @Test
+    public void keysFromRolledBackTransactionAreDiscarded() throws Exception {
+        Sid ben = new PrincipalSid("ben");
+        assertNotNull(sidPrimaryKey(ben, true, true));
+
+        assertNull(sidPrimaryKey(ben, false, false));
+    }
+
+    @Test
+    public void classKeysAreCachedOnCommit() throws Exception {
+        final Long classId = tx.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                Long classId = service.createOrRetrieveClassPrimaryKey(TARGET_CLASS, true);
+                assertEquals(classId, service.createOrRetrieveClassPrimaryKey(TARGET_CLASS, false));
+                return classId;
+            }
+        });
+        jdbcTemplate.update("delete from acl_class");
+
+        assertEquals(classId, service.createOrRetrieveClassPrimaryKey(TARGET_CLASS, false));
+    }
+
+    @Test
+    public void cacheCanBeDisabled() throws Exception {
+        service.setPrimaryKeyCacheSize(0);
+        Sid ben = new PrincipalSid("ben");
+        sidPrimaryKey(ben, true, false);
+        jdbcTemplate.update("update acl_sid set sid = 'notben'");
+
+        assertNull(sidPrimaryKey(ben, false, false));
+    }
+}
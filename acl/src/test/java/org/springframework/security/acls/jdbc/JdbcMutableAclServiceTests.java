@@ -16,6 +16,7 @@ package org.springframework.security.acls.jdbc;
 
 import static org.junit.Assert.*;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AlreadyExistsException;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
 import org.springframework.security.acls.model.ChildrenExistException;
 import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.NotFoundException;
@@ -101,6 +103,8 @@ public class JdbcMutableAclServiceTests extends AbstractTransactionalJUnit4Sprin
     @AfterTransaction
     public void clearContextAndData() throws Exception {
         SecurityContextHolder.clearContext();
+        // Identifiers are reused once the tables are recreated, so cached ACLs would be stale
+        aclCache.clearCache();
         jdbcTemplate.execute("drop table acl_entry");
         jdbcTemplate.execute("drop table acl_object_identity");
         jdbcTemplate.execute("drop table acl_class");
@@ -490,4 +494,116 @@ public class JdbcMutableAclServiceTests extends AbstractTransactionalJUnit4Sprin
        SecurityContextHolder.clearContext();
    }
 
+    @Test
+    @Transactional
+    public void incrementalUpdateKeepsUnchangedEntries() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        ObjectIdentity parentOid = new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(120));
+        ObjectIdentity childOid = new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(121));
+        Sid ben = new PrincipalSid("ben");
+        Sid scott = new PrincipalSid("scott");
+
+        jdbcMutableAclService.setIncrementalUpdates(true);
+
+        try {
+            MutableAcl parent = jdbcMutableAclService.createAcl(parentOid);
+            MutableAcl child = jdbcMutableAclService.createAcl(childOid);
+            child.setParent(parent);
+            jdbcMutableAclService.updateAcl(child);
+
+            parent.insertAce(0, BasePermission.READ, ben, true);
+            parent.insertAce(1, BasePermission.WRITE, ben, true);
+            parent.insertAce(2, BasePermission.DELETE, scott, true);
+            parent = jdbcMutableAclService.updateAcl(parent);
+            assertEquals(3, parent.getEntries().size());
+            Serializable readId = parent.getEntries().get(0).getId();
+            Serializable deleteId = parent.getEntries().get(2).getId();
+
+            // Insert at the start (moving the others), change one entry and remove another
+            parent.insertAce(0, BasePermission.ADMINISTRATION, scott, false);
+            parent.updateAce(3, BasePermission.CREATE);
+            parent.deleteAce(2);
+            parent = jdbcMutableAclService.updateAcl(parent);
+
+            List<AccessControlEntry> entries = parent.getEntries();
+            assertEquals(3, entries.size());
+            assertEquals(BasePermission.ADMINISTRATION.getMask(), entries.get(0).getPermission().getMask());
+            assertFalse(entries.get(0).isGranting());
+            assertEquals(readId, entries.get(1).getId());
+            assertEquals(BasePermission.READ.getMask(), entries.get(1).getPermission().getMask());
+            assertEquals(deleteId, entries.get(2).getId());
+            assertEquals(BasePermission.CREATE.getMask(), entries.get(2).getPermission().getMask());
+            assertEquals(scott, entries.get(2).getSid());
+
+            // The child's cached parent must have been evicted
+            child = (MutableAcl) jdbcMutableAclService.readAclById(childOid);
+            assertEquals(3, child.getParentAcl().getEntries().size());
+            assertEquals(readId, child.getParentAcl().getEntries().get(1).getId());
+        } finally {
+            jdbcMutableAclService.setIncrementalUpdates(false);
+        }
+    }
+
+    @Test
+    @Transactional
+    public void createAclsInsertsHierarchyAndEntries() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        jdbcMutableAclService.createAcl(topParentOid);
+        Sid ben = new PrincipalSid("ben");
+        Sid admins = new GrantedAuthoritySid("ROLE_ADMINISTRATOR");
+        ObjectIdentity grandChildOid = new ObjectIdentityImpl(TARGET_CLASS, Long.valueOf(103));
+
+        // The grandchild is defined before its parent
+        List<AclDefinition> definitions = Arrays.asList(
+                new AclDefinition(grandChildOid, ben, childOid, false).addAce(BasePermission.WRITE, ben, true),
+                new AclDefinition(childOid, ben, middleParentOid),
+                new AclDefinition(middleParentOid, new PrincipalSid("scott"), topParentOid)
+                        .addAce(BasePermission.READ, admins, true)
+                        .addAce(BasePermission.DELETE, ben, false, true, false));
+
+        Map<ObjectIdentity, Long> created = jdbcMutableAclService.createAcls(definitions);
+        assertEquals(3, created.size());
+
+        Map<ObjectIdentity, Acl> acls = jdbcMutableAclService.readAclsById(
+                Arrays.asList(grandChildOid, childOid, middleParentOid));
+        Acl grandChild = acls.get(grandChildOid);
+        Acl child = acls.get(childOid);
+        Acl middleParent = acls.get(middleParentOid);
+
+        assertEquals(created.get(grandChildOid), ((MutableAcl) grandChild).getId());
+        assertFalse(grandChild.isEntriesInheriting());
+        assertEquals(1, grandChild.getEntries().size());
+        assertEquals(childOid, grandChild.getParentAcl().getObjectIdentity());
+        assertEquals(0, child.getEntries().size());
+        assertTrue(child.isEntriesInheriting());
+        assertEquals(middleParentOid, child.getParentAcl().getObjectIdentity());
+        assertEquals(topParentOid, middleParent.getParentAcl().getObjectIdentity());
+        assertEquals(new PrincipalSid("scott"), middleParent.getOwner());
+
+        List<AccessControlEntry> entries = middleParent.getEntries();
+        assertEquals(2, entries.size());
+        assertEquals(admins, entries.get(0).getSid());
+        assertEquals(BasePermission.READ, entries.get(0).getPermission());
+        assertEquals(ben, entries.get(1).getSid());
+        assertFalse(entries.get(1).isGranting());
+        assertTrue(((AuditableAccessControlEntry) entries.get(1)).isAuditSuccess());
+        assertTrue(grandChild.isGranted(Arrays.asList(BasePermission.WRITE), Arrays.asList(ben), false));
+    }
+
+    @Test(expected=AlreadyExistsException.class)
+    @Transactional
+    public void createAclsRejectsExistingIdentity() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        jdbcMutableAclService.createAcl(topParentOid);
+
+        jdbcMutableAclService.createAcls(Arrays.asList(new AclDefinition(middleParentOid, new PrincipalSid("ben"),
+                null), new AclDefinition(topParentOid, new PrincipalSid("ben"), null)));
+    }
+
+    @Test(expected=NotFoundException.class)
+    @Transactional
+    public void createAclsRejectsUnknownParent() throws Exception {
+        jdbcMutableAclService.createAcls(Arrays.asList(new AclDefinition(childOid, new PrincipalSid("ben"),
+                middleParentOid)));
+    }
 }
@@ -109,6 +109,7 @@ public abstract class AbstractSecurityInterceptor implements InitializingBean, A
     private boolean alwaysReauthenticate = false;
     private boolean rejectPublicInvocations = false;
     private boolean validateConfigAttributes = true;
+    private boolean publishAuthorizationSuccess = true;
 
     //~ Methods ========================================================================================================
 
@@ -213,7 +214,9 @@ public abstract class AbstractSecurityInterceptor implements InitializingBean, A
             logger.debug("Authorization successful");
         }
 
-        publishEvent(new AuthorizedEvent(object, attributes, authenticated));
+        if (publishAuthorizationSuccess) {
+            publishEvent(new AuthorizedEvent(object, attributes, authenticated));
+        }
 
         // Attempt to run as a different user
         Authentication runAs = this.runAsManager.buildRunAs(authenticated, object, attributes);
@@ -419,6 +422,19 @@ public abstract class AbstractSecurityInterceptor implements InitializingBean, A
         this.rejectPublicInvocations = rejectPublicInvocations;
     }
 
+    /**
+     * By default an {@link AuthorizedEvent} will be published for every successful authorization. Since this
+     * happens for almost every secure object invocation, the events are rarely useful and their creation and delivery
+     * add to the cost of every request. Set this property to <tt>false</tt> to prevent them from being published.
+     * Failure events are always published.
+     *
+     * @param publishAuthorizationSuccess false to prevent <tt>AuthorizedEvent</tt>s from being published
+     * (defaults to <code>true</code>).
+     */
+    public void setPublishAuthorizationSuccess(boolean publishAuthorizationSuccess) {
+        this.publishAuthorizationSuccess = publishAuthorizationSuccess;
+    }
+
     public void setRunAsManager(RunAsManager runAsManager) {
         this.runAsManager = runAsManager;
     }
@@ -78,15 +78,15 @@ public abstract class AbstractAuthenticationToken implements Authentication {
             return false;
         }
 
-        if ((this.details == null) && (test.getDetails() != null)) {
+        if ((this.getDetails() == null) && (test.getDetails() != null)) {
             return false;
         }
 
-        if ((this.details != null) && (test.getDetails() == null)) {
+        if ((this.getDetails() != null) && (test.getDetails() == null)) {
             return false;
         }
 
-        if ((this.details != null) && (!this.details.equals(test.getDetails()))) {
+        if ((this.getDetails() != null) && (!this.getDetails().equals(test.getDetails()))) {
             return false;
         }
 
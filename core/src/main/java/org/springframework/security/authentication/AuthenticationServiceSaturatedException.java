@@ -0,0 +1,32 @@
+package org.springframework.security.authentication;
+
+/**
+ * Thrown by a {@link BoundedAuthenticationExecutor} if an authentication request could not be processed because the
+ * executor's queue was full, or because the request was not completed within the configured timeout.
+ * <p>
+ * Unlike other failures, this indicates that the credentials were never checked, so the {@link ProviderManager} will
+ * not try any further providers when it is raised.
+ *
+ * @since 3.0.2
+ */
+public class AuthenticationServiceSaturatedException extends AuthenticationServiceException {
+
+    /**
+     * Constructs an <code>AuthenticationServiceSaturatedException</code> with the specified message.
+     *
+     * @param msg the detail message
+     */
+    public AuthenticationServiceSaturatedException(String msg) {
+        super(msg);
+    }
+
+    /**
+     * Constructs an <code>AuthenticationServiceSaturatedException</code> with the specified message and root cause.
+     *
+     * @param msg the detail message
+     * @param t root cause
+     */
+    public AuthenticationServiceSaturatedException(String msg, Throwable t) {
+        super(msg, t);
+    }
+}
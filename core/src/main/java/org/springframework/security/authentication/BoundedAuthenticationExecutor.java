@@ -0,0 +1,224 @@
+package org.springframework.security.authentication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.util.Assert;
+
+/**
+ * Runs {@link AuthenticationProvider#authenticate(Authentication)} calls on a dedicated, bounded thread pool rather
+ * than on the calling (typically servlet container) thread.
+ * <p>
+ * Providers such as {@link org.springframework.security.authentication.dao.DaoAuthenticationProvider DaoAuthenticationProvider}
+ * may perform expensive password hashing. If a large number of login requests arrive at once, running this work on
+ * the request threads can exhaust the container's thread pool and starve all other traffic. When an instance of this
+ * class is injected into a {@link ProviderManager}, at most <tt>poolSize</tt> authentication attempts will run
+ * concurrently and at most <tt>queueCapacity</tt> will wait for a free thread. Any further requests are rejected
+ * immediately with an {@link AuthenticationServiceSaturatedException}, as are requests which have not completed
+ * within <tt>timeout</tt> milliseconds.
+ * <p>
+ * The current queue depth, the number of rejected and timed out requests and the average service time are exposed
+ * for monitoring.
+ *
+ * @since 3.0.2
+ */
+public class BoundedAuthenticationExecutor implements InitializingBean, DisposableBean {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final Log logger = LogFactory.getLog(BoundedAuthenticationExecutor.class);
+
+    //~ Instance fields ================================================================================================
+
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 100;
+    private long timeout = 5000;
+    private String threadNamePrefix = "authentication-executor-";
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalServiceTime = new AtomicLong();
+    private final AtomicLong totalQueueTime = new AtomicLong();
+
+    //~ Methods ========================================================================================================
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.isTrue(poolSize > 0, "poolSize must be greater than zero");
+        Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than zero");
+        Assert.isTrue(timeout > 0, "timeout must be greater than zero");
+
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new AuthenticationThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Submits the authentication request to the supplied provider for execution on the pool and waits for the result.
+     *
+     * @param provider the provider which will process the request
+     * @param authentication the authentication request
+     * @return the result of calling <tt>provider.authenticate(authentication)</tt>
+     * @throws AuthenticationServiceSaturatedException if the queue is full or the request times out
+     * @throws AuthenticationException any exception raised by the provider itself
+     */
+    public Authentication authenticate(final AuthenticationProvider provider, final Authentication authentication)
+            throws AuthenticationException {
+        Assert.state(executor != null, "afterPropertiesSet() must be called before the executor is used");
+        final long submitted = System.nanoTime();
+        Future<Authentication> future;
+
+        try {
+            future = executor.submit(new Callable<Authentication>() {
+                public Authentication call() throws Exception {
+                    long started = System.nanoTime();
+                    totalQueueTime.addAndGet(started - submitted);
+                    try {
+                        return provider.authenticate(authentication);
+                    } finally {
+                        totalServiceTime.addAndGet(System.nanoTime() - started);
+                        completedCount.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            logger.warn("Authentication request rejected: queue of " + queueCapacity + " requests is full");
+            throw new AuthenticationServiceSaturatedException("Authentication service is busy", e);
+        }
+
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCount.incrementAndGet();
+            logger.warn("Authentication request using " + provider.getClass().getName() + " timed out after " +
+                    timeout + "ms");
+            throw new AuthenticationServiceSaturatedException("Authentication request timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Interrupted while waiting for authentication", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof AuthenticationException) {
+                throw (AuthenticationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new AuthenticationServiceException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return the number of requests currently waiting for a free thread
+     */
+    public int getQueueDepth() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of threads currently processing a request
+     */
+    public int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return the mean time in milliseconds spent by the providers processing a request, excluding time spent in
+     * the queue.
+     */
+    public double getAverageServiceTime() {
+        return average(totalServiceTime.get());
+    }
+
+    /**
+     * @return the mean time in milliseconds which requests have spent waiting in the queue.
+     */
+    public double getAverageQueueTime() {
+        return average(totalQueueTime.get());
+    }
+
+    private double average(long totalNanos) {
+        long count = completedCount.get();
+
+        return count == 0 ? 0 : (totalNanos / (double) count) / 1000000;
+    }
+
+    /**
+     * The number of threads which will be used to process requests. Defaults to the number of available processors,
+     * since password hashing is CPU-bound.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * The maximum number of requests which may wait for a free thread before further requests are rejected.
+     * Defaults to 100.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * The maximum time in milliseconds the calling thread will wait for a result, including time spent in the queue.
+     * Defaults to 5000.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    private class AuthenticationThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
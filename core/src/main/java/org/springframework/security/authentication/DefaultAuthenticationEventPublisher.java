@@ -57,6 +57,8 @@ public class DefaultAuthenticationEventPublisher implements AuthenticationEventP
                 AuthenticationFailureExpiredEvent.class.getName());
         exceptionMappings.put(AuthenticationServiceException.class.getName(),
                 AuthenticationFailureServiceExceptionEvent.class.getName());
+        exceptionMappings.put(AuthenticationServiceSaturatedException.class.getName(),
+                AuthenticationFailureServiceExceptionEvent.class.getName());
         exceptionMappings.put(LockedException.class.getName(),
                 AuthenticationFailureLockedEvent.class.getName());
         exceptionMappings.put(CredentialsExpiredException.class.getName(),
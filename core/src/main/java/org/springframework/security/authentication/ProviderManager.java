@@ -15,8 +15,12 @@
 
 package org.springframework.security.authentication;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -24,6 +28,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.MessageSource;
 import org.springframework.context.MessageSourceAware;
 import org.springframework.context.support.MessageSourceAccessor;
+import org.springframework.security.authentication.dao.AbstractUserDetailsAuthenticationProvider;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.SpringSecurityMessageSource;
@@ -42,10 +47,20 @@ import org.springframework.util.Assert;
  * <code>AuthenticationException</code>, the last <code>AuthenticationException</code> received will be used.
  * If no provider returns a non-null response, or indicates it can even process an <code>Authentication</code>,
  * the <code>ProviderManager</code> will throw a <code>ProviderNotFoundException</code>.
+ * The providers which support a given <tt>Authentication</tt> class are determined on the first request for that
+ * class and then cached (see {@link #setCacheProviderLookups(boolean)}).
  * <p>
  * The exception to this process is when a provider throws an {@link AccountStatusException}, in which case no
  * further providers in the list will be queried.
  *
+ * <h2>Bounded Execution</h2>
+ * <p>
+ * By default, providers are invoked on the calling thread. If a {@link BoundedAuthenticationExecutor} is set, the
+ * expensive providers (by default, those which check passwords against a <tt>UserDetailsService</tt>) will instead be
+ * invoked on its dedicated thread pool and an {@link AuthenticationServiceSaturatedException} will be thrown (again
+ * without querying further providers) if the pool cannot accept or complete the request in time. Other providers
+ * are still invoked on the calling thread (see {@link #setOffloadedProviderTypes(Set)}).
+ *
  * <h2>Event Publishing</h2>
  * <p>
  * Authentication event publishing is delegated to the configured {@link AuthenticationEventPublisher} which defaults
@@ -76,6 +91,11 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
     private List<AuthenticationProvider> providers = Collections.emptyList();
     protected MessageSourceAccessor messages = SpringSecurityMessageSource.getAccessor();
     private AuthenticationManager parent;
+    private BoundedAuthenticationExecutor authenticationExecutor;
+    private Set<Class<? extends AuthenticationProvider>> offloadedProviderTypes =
+        Collections.<Class<? extends AuthenticationProvider>>singleton(AbstractUserDetailsAuthenticationProvider.class);
+    private boolean cacheProviderLookups = true;
+    private volatile ProviderLookups providerLookups = new ProviderLookups(providers);
 
     //~ Methods ========================================================================================================
 
@@ -109,15 +129,11 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
         AuthenticationException lastException = null;
         Authentication result = null;
 
-        for (AuthenticationProvider provider : getProviders()) {
-            if (!provider.supports(toTest)) {
-                continue;
-            }
-
+        for (AuthenticationProvider provider : getSupportingProviders(toTest)) {
             logger.debug("Authentication attempt using " + provider.getClass().getName());
 
             try {
-                result = provider.authenticate(authentication);
+                result = invokeProvider(provider, authentication);
 
                 if (result != null) {
                     copyDetails(authentication, result);
@@ -127,6 +143,10 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
                 // SEC-546: Avoid polling additional providers if auth failure is due to invalid account status
                 eventPublisher.publishAuthenticationFailure(e, authentication);
                 throw e;
+            } catch (AuthenticationServiceSaturatedException e) {
+                // Fail fast rather than queueing the request again for the next provider
+                eventPublisher.publishAuthenticationFailure(e, authentication);
+                throw e;
             } catch (AuthenticationException e) {
                 lastException = e;
             }
@@ -161,6 +181,62 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
         throw lastException;
     }
 
+    /**
+     * Returns the providers which support the given <tt>Authentication</tt> class, in the order in which they were
+     * configured. Unless caching has been disabled, the result of probing each provider's <tt>supports</tt> method is
+     * stored for the class the first time it is encountered, so subsequent requests don't repeat the checks. The
+     * stored results are discarded whenever {@link #getProviders()} returns a different list.
+     */
+    private List<AuthenticationProvider> getSupportingProviders(Class<? extends Authentication> toTest) {
+        List<AuthenticationProvider> providers = getProviders();
+        // The lookups are kept with the list they were made from, so a result computed from providers which have
+        // since been replaced is stored in a map which is no longer used
+        ProviderLookups lookups = providerLookups;
+
+        if (cacheProviderLookups && lookups.providers != providers) {
+            lookups = new ProviderLookups(providers);
+            providerLookups = lookups;
+        }
+
+        List<AuthenticationProvider> result = cacheProviderLookups ? lookups.supportingProviders.get(toTest) : null;
+
+        if (result != null) {
+            return result;
+        }
+
+        result = new ArrayList<AuthenticationProvider>();
+
+        for (AuthenticationProvider provider : providers) {
+            if (provider.supports(toTest)) {
+                result.add(provider);
+            }
+        }
+
+        if (cacheProviderLookups) {
+            lookups.supportingProviders.putIfAbsent(toTest, result);
+        }
+
+        return result;
+    }
+
+    private Authentication invokeProvider(AuthenticationProvider provider, Authentication authentication) {
+        if (authenticationExecutor == null || !isOffloaded(provider)) {
+            return provider.authenticate(authentication);
+        }
+
+        return authenticationExecutor.authenticate(provider, authentication);
+    }
+
+    private boolean isOffloaded(AuthenticationProvider provider) {
+        for (Class<? extends AuthenticationProvider> type : offloadedProviderTypes) {
+            if (type.isInstance(provider)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Copies the authentication details from a source Authentication object to a destination one, provided the
      * latter does not already have one set.
@@ -193,6 +269,36 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
         this.eventPublisher = eventPublisher;
     }
 
+    /**
+     * If set, the providers selected by {@link #setOffloadedProviderTypes(Set)} will be invoked on the executor's
+     * bounded thread pool rather than on the calling thread, protecting the caller from being starved by a burst of
+     * expensive authentication requests. If the executor is saturated, the request fails immediately with an
+     * {@link AuthenticationServiceSaturatedException}. Defaults to <tt>null</tt>, in which case all providers are
+     * invoked directly.
+     * <p>
+     * Note that an offloaded provider runs on a pool thread, so it cannot see anything bound to the calling thread,
+     * such as the <tt>SecurityContextHolder</tt> contents, the current request attributes, transaction-bound resources
+     * or logging MDC values. Providers which depend on such state should not be offloaded.
+     *
+     * @param authenticationExecutor the executor to use for provider invocations
+     */
+    public void setAuthenticationExecutor(BoundedAuthenticationExecutor authenticationExecutor) {
+        this.authenticationExecutor = authenticationExecutor;
+    }
+
+    /**
+     * Sets the types of the providers which are invoked on the authentication executor, if one has been set. A
+     * provider is offloaded if it is an instance of any of the types; all other providers are invoked on the calling
+     * thread, so cheap providers such as those for anonymous or remember-me tokens don't queue behind password
+     * checks. Defaults to {@link AbstractUserDetailsAuthenticationProvider}.
+     *
+     * @param offloadedProviderTypes the provider classes or interfaces to offload (may be empty)
+     */
+    public void setOffloadedProviderTypes(Set<Class<? extends AuthenticationProvider>> offloadedProviderTypes) {
+        Assert.notNull(offloadedProviderTypes, "offloadedProviderTypes cannot be null");
+        this.offloadedProviderTypes = offloadedProviderTypes;
+    }
+
     /**
      * Sets the {@link AuthenticationProvider} objects to be used for authentication.
      *
@@ -209,6 +315,36 @@ public class ProviderManager extends AbstractAuthenticationManager implements Me
         }
 
         this.providers = providers;
+        providerLookups = new ProviderLookups(this.providers);
+    }
+
+    /**
+     * Determines whether the providers which support a particular <tt>Authentication</tt> class should be
+     * remembered after the first request, rather than calling {@link AuthenticationProvider#supports(Class)} on
+     * every configured provider for every request. Should only be disabled if a provider's <tt>supports</tt> method
+     * may return different values over time for the same class. Defaults to <tt>true</tt>.
+     * <p>
+     * The results are remembered for the list returned by {@link #getProviders()}, so a subclass which overrides
+     * that method to supply the providers will see them used, but should return the same list instance until the
+     * providers change.
+     */
+    public void setCacheProviderLookups(boolean cacheProviderLookups) {
+        this.cacheProviderLookups = cacheProviderLookups;
+        providerLookups = new ProviderLookups(providers);
+    }
+
+    /**
+     * The providers which support each <tt>Authentication</tt> class, together with the providers they were
+     * determined from.
+     */
+    private static final class ProviderLookups {
+        final List<AuthenticationProvider> providers;
+        final ConcurrentMap<Class<? extends Authentication>, List<AuthenticationProvider>> supportingProviders =
+            new ConcurrentHashMap<Class<? extends Authentication>, List<AuthenticationProvider>>();
+
+        ProviderLookups(List<AuthenticationProvider> providers) {
+            this.providers = providers;
+        }
     }
 
     private static final class NullEventPublisher implements AuthenticationEventPublisher {
@@ -0,0 +1,233 @@
+package org.springframework.security.authentication.encoding;
+
+import java.nio.CharBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.springframework.security.core.codec.Base64;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link MessageDigestPasswordEncoder} which produces exactly the same encoded values as its parent, but is
+ * designed to minimize garbage creation when a large number of iterations is used or when passwords are checked
+ * at a high rate.
+ * <p>
+ * Each thread which uses the encoder is given its own <tt>MessageDigest</tt> instance and working buffers, so the
+ * provider lookup performed by <tt>MessageDigest.getInstance</tt> is only carried out once per thread. The merged
+ * password and salt are encoded directly into a reusable byte buffer (rather than building an intermediate
+ * <tt>String</tt>), the "stretching" iterations digest the hash in place, and {@link #isPasswordValid} compares the
+ * computed hash with the encoded value in constant time without encoding it to a <tt>String</tt> first.
+ * <p>
+ * Overloaded methods which accept the raw password as a <tt>char[]</tt> are also provided, allowing callers to avoid
+ * creating <tt>String</tt> instances for passwords altogether.
+ *
+ * @since 3.0.2
+ */
+public class BufferedMessageDigestPasswordEncoder extends MessageDigestPasswordEncoder {
+    private static final char[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        protected Workspace initialValue() {
+            return new Workspace(getMessageDigest());
+        }
+    };
+
+    public BufferedMessageDigestPasswordEncoder(String algorithm) {
+        this(algorithm, false);
+    }
+
+    public BufferedMessageDigestPasswordEncoder(String algorithm, boolean encodeHashAsBase64) {
+        super(algorithm, encodeHashAsBase64);
+        Assert.isTrue(getMessageDigest().getDigestLength() > 0, "The MessageDigest for algorithm [" + algorithm +
+                "] does not report its digest length");
+    }
+
+    //~ Methods ========================================================================================================
+
+    public String encodePassword(String rawPass, Object salt) {
+        return encode(rawPass == null ? "" : rawPass, salt);
+    }
+
+    /**
+     * Encodes a password supplied as a character array. The array is not modified.
+     *
+     * @see #encodePassword(String, Object)
+     */
+    public String encodePassword(char[] rawPass, Object salt) {
+        return encode(rawPass == null ? "" : CharBuffer.wrap(rawPass), salt);
+    }
+
+    public boolean isPasswordValid(String encPass, String rawPass, Object salt) {
+        return isValid(encPass, rawPass == null ? "" : rawPass, salt);
+    }
+
+    /**
+     * Checks a password supplied as a character array. The array is not modified.
+     *
+     * @see #isPasswordValid(String, String, Object)
+     */
+    public boolean isPasswordValid(String encPass, char[] rawPass, Object salt) {
+        return isValid(encPass, rawPass == null ? "" : CharBuffer.wrap(rawPass), salt);
+    }
+
+    private String encode(CharSequence rawPass, Object salt) {
+        Workspace ws = workspaces.get();
+        digest(ws, rawPass, salt);
+
+        if (getEncodeHashAsBase64()) {
+            return new String(Base64.encode(ws.digestValue()));
+        }
+
+        char[] hex = new char[2 * ws.digestLength];
+
+        for (int i = 0, j = 0; i < ws.digestLength; i++) {
+            hex[j++] = HEX[(0xF0 & ws.digest[i]) >>> 4];
+            hex[j++] = HEX[(0x0F & ws.digest[i])];
+        }
+
+        return new String(hex);
+    }
+
+    private boolean isValid(String encPass, CharSequence rawPass, Object salt) {
+        if (encPass == null) {
+            return false;
+        }
+
+        Workspace ws = workspaces.get();
+        digest(ws, rawPass, salt);
+
+        if (getEncodeHashAsBase64()) {
+            byte[] expected = Base64.encode(ws.digestValue());
+            int result = expected.length ^ encPass.length();
+
+            for (int i = 0; i < expected.length; i++) {
+                result |= expected[i] ^ charAt(encPass, i);
+            }
+
+            return result == 0;
+        }
+
+        int result = (2 * ws.digestLength) ^ encPass.length();
+
+        for (int i = 0, j = 0; i < ws.digestLength; i++) {
+            result |= HEX[(0xF0 & ws.digest[i]) >>> 4] ^ charAt(encPass, j++);
+            result |= HEX[(0x0F & ws.digest[i])] ^ charAt(encPass, j++);
+        }
+
+        return result == 0;
+    }
+
+    private static int charAt(String s, int index) {
+        return index < s.length() ? s.charAt(index) : 0;
+    }
+
+    /**
+     * Calculates the (stretched) digest of the password merged with the salt, in the same form as
+     * {@link #mergePasswordAndSalt(String, Object, boolean)}, leaving the result in the workspace's digest buffer.
+     */
+    private void digest(Workspace ws, CharSequence rawPass, Object salt) {
+        int length = ws.appendUtf8(0, rawPass);
+
+        if (salt != null && !"".equals(salt)) {
+            length = ws.appendUtf8(length, "{");
+            length = ws.appendUtf8(length, salt.toString());
+            length = ws.appendUtf8(length, "}");
+        }
+
+        MessageDigest md = ws.messageDigest;
+        md.reset();
+        md.update(ws.input, 0, length);
+        // Don't leave the password lying around in the buffer
+        Arrays.fill(ws.input, 0, length, (byte) 0);
+        ws.completeDigest();
+
+        // "stretch" the encoded value if configured to do so
+        for (int i = 1; i < getIterations(); i++) {
+            md.update(ws.digest, 0, ws.digestLength);
+            ws.completeDigest();
+        }
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Per-thread state: the digest instance and the buffers it reads from and writes to.
+     */
+    private static final class Workspace {
+        final MessageDigest messageDigest;
+        final int digestLength;
+        final byte[] digest;
+        byte[] input = new byte[64];
+
+        Workspace(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+            this.digestLength = messageDigest.getDigestLength();
+            this.digest = new byte[digestLength];
+        }
+
+        /**
+         * Writes the digest of the data supplied so far into the digest buffer.
+         */
+        void completeDigest() {
+            try {
+                messageDigest.digest(digest, 0, digestLength);
+            } catch (DigestException e) {
+                throw new IllegalStateException("Failed to calculate digest: " + e.getMessage());
+            }
+        }
+
+        byte[] digestValue() {
+            byte[] value = new byte[digestLength];
+            System.arraycopy(digest, 0, value, 0, digestLength);
+            return value;
+        }
+
+        /**
+         * Encodes the characters as UTF-8 into the input buffer starting at <tt>pos</tt>, replacing unpaired
+         * surrogates with '?' as <tt>String.getBytes("UTF-8")</tt> does.
+         *
+         * @return the position following the last byte written
+         */
+        int appendUtf8(int pos, CharSequence chars) {
+            int n = chars.length();
+            ensureCapacity(pos + 4 * n);
+
+            for (int i = 0; i < n; i++) {
+                char c = chars.charAt(i);
+
+                if (c < 0x80) {
+                    input[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    input[pos++] = (byte) (0xC0 | (c >> 6));
+                    input[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, chars.charAt(++i));
+                    input[pos++] = (byte) (0xF0 | (cp >> 18));
+                    input[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    input[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    input[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                    input[pos++] = (byte) '?';
+                } else {
+                    input[pos++] = (byte) (0xE0 | (c >> 12));
+                    input[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    input[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+
+            return pos;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required > input.length) {
+                byte[] newInput = new byte[Math.max(required, 2 * input.length)];
+                System.arraycopy(input, 0, newInput, 0, input.length);
+                Arrays.fill(input, (byte) 0);
+                input = newInput;
+            }
+        }
+    }
+}
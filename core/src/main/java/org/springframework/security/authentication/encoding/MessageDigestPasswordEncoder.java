@@ -133,6 +133,10 @@ public class MessageDigestPasswordEncoder extends BaseDigestPasswordEncoder {
         return algorithm;
     }
 
+    public int getIterations() {
+        return iterations;
+    }
+
     /**
      * Sets the number of iterations for which the calculated hash value should be "stretched". If this is greater
      * than one, the initial digest is calculated, the digest function will be called repeatedly on the result for
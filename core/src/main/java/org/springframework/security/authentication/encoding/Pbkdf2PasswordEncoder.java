@@ -0,0 +1,328 @@
+package org.springframework.security.authentication.encoding;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.util.Assert;
+
+/**
+ * A key-stretching {@link PasswordEncoder} based on PBKDF2 (RFC 2898), whose work factor can be calibrated to the
+ * hardware it runs on.
+ * <p>
+ * Each encoded password contains a random salt and the parameters used to create it, in the form
+ * <tt>$pbkdf2$&lt;algorithm&gt;$&lt;iterations&gt;$&lt;base64 salt&gt;$&lt;base64 hash&gt;</tt>. Passwords are
+ * always verified using the parameters stored with them, so changing the iteration count or the algorithm does not
+ * invalidate existing hashes. Any salt supplied by a {@link org.springframework.security.authentication.dao.SaltSource
+ * SaltSource} is merged with the password before hashing, in the same way as the digest-based encoders.
+ * <p>
+ * If no explicit iteration count is set, the encoder will measure the cost of the hash function when
+ * {@link #afterPropertiesSet()} is called and choose the number of iterations which makes a single verification take
+ * approximately <tt>targetVerifyTime</tt> milliseconds (50 by default), subject to a lower bound of
+ * <tt>minIterations</tt>. As hardware gets faster, newly encoded passwords will therefore automatically be stretched
+ * further. {@link #isUpgradeRequired(String)} can be used after a successful login to find out whether a stored
+ * password was encoded with weaker parameters than are now in use, so that it can be re-encoded while the raw
+ * password is available.
+ *
+ * @since 3.0.2
+ */
+public class Pbkdf2PasswordEncoder extends BasePasswordEncoder implements InitializingBean {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final Log logger = LogFactory.getLog(Pbkdf2PasswordEncoder.class);
+
+    private static final String PREFIX = "$pbkdf2$";
+    private static final int CALIBRATION_ITERATIONS = 1000;
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    //~ Instance fields ================================================================================================
+
+    private final String algorithm;
+    private final SecureRandom random = new SecureRandom();
+    private int saltLength = 16;
+    private int iterations = 0;
+    private int minIterations = 1000;
+    private long targetVerifyTime = 50;
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * Creates an encoder which uses PBKDF2 with HmacSHA1.
+     */
+    public Pbkdf2PasswordEncoder() {
+        this("HmacSHA1");
+    }
+
+    /**
+     * @param algorithm the name of the JCE <tt>Mac</tt> algorithm used as the pseudo-random function, for example
+     * "HmacSHA256".
+     */
+    public Pbkdf2PasswordEncoder(String algorithm) {
+        Assert.hasText(algorithm, "algorithm cannot be empty");
+        Assert.isTrue(algorithm.indexOf('$') < 0, "algorithm cannot contain '$'");
+        this.algorithm = algorithm;
+        // Validity check
+        createMac(algorithm);
+    }
+
+    //~ Methods ========================================================================================================
+
+    /**
+     * Calibrates the iteration count if one has not been set explicitly.
+     */
+    public void afterPropertiesSet() throws Exception {
+        if (iterations == 0) {
+            iterations = calibrate();
+        }
+    }
+
+    public String encodePassword(String rawPass, Object salt) {
+        byte[] randomSalt = new byte[saltLength];
+        random.nextBytes(randomSalt);
+        int c = getIterations();
+        int hashLength = createMac(algorithm).getMacLength();
+        byte[] hash = pbkdf2(algorithm, passwordBytes(rawPass, salt), randomSalt, c, hashLength);
+
+        return PREFIX + algorithm + "$" + c + "$" + new String(Base64.encode(randomSalt)) + "$" +
+                new String(Base64.encode(hash));
+    }
+
+    public boolean isPasswordValid(String encPass, String rawPass, Object salt) {
+        EncodedPassword stored = EncodedPassword.parse(encPass);
+
+        if (stored == null) {
+            return false;
+        }
+
+        byte[] hash;
+
+        try {
+            hash = pbkdf2(stored.algorithm, passwordBytes(rawPass, salt), stored.salt, stored.iterations,
+                    stored.hash.length);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Unable to verify stored password", e);
+            return false;
+        }
+
+        int result = 0;
+
+        for (int i = 0; i < hash.length; i++) {
+            result |= hash[i] ^ stored.hash[i];
+        }
+
+        return result == 0;
+    }
+
+    /**
+     * Indicates whether a stored password should be re-encoded because it was created with a different algorithm or
+     * fewer iterations than this encoder currently uses (or was not created by this encoder at all). The check is
+     * cheap, and is intended to be made after the password has been verified, so that the raw password can be
+     * re-encoded using {@link #encodePassword(String, Object)} and stored in place of the old value.
+     *
+     * @param encPass a previously encoded password
+     * @return true if the password should be re-encoded
+     */
+    public boolean isUpgradeRequired(String encPass) {
+        EncodedPassword stored = EncodedPassword.parse(encPass);
+
+        return stored == null || !stored.algorithm.equals(algorithm) || stored.iterations < getIterations() ||
+                stored.salt.length < saltLength;
+    }
+
+    /**
+     * Measures the time taken by the hash function on this host and returns the number of iterations which will
+     * take roughly <tt>targetVerifyTime</tt> milliseconds, or <tt>minIterations</tt> if that is greater.
+     */
+    protected int calibrate() {
+        byte[] password = new byte[] {'c', 'a', 'l', 'i', 'b', 'r', 'a', 't', 'e'};
+        byte[] salt = new byte[saltLength];
+        int hashLength = createMac(algorithm).getMacLength();
+        long best = Long.MAX_VALUE;
+
+        // Allow the JIT to compile the hot path before timing it and take the fastest run
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            pbkdf2(algorithm, password, salt, CALIBRATION_ITERATIONS, hashLength);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double nanosPerIteration = Math.max(1, best) / (double) CALIBRATION_ITERATIONS;
+        long calibrated = (long) ((targetVerifyTime * 1000000) / nanosPerIteration);
+        int result = (int) Math.max(minIterations, Math.min(Integer.MAX_VALUE, calibrated));
+
+        if (logger.isInfoEnabled()) {
+            logger.info("Calibrated " + algorithm + " to " + result + " iterations for a target verification time of "
+                    + targetVerifyTime + "ms");
+        }
+
+        return result;
+    }
+
+    private byte[] passwordBytes(String rawPass, Object salt) {
+        try {
+            return mergePasswordAndSalt(rawPass, salt, false).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported!");
+        }
+    }
+
+    /**
+     * The PBKDF2 key derivation function from RFC 2898.
+     */
+    static byte[] pbkdf2(String algorithm, byte[] password, byte[] salt, int iterations, int keyLength) {
+        Assert.isTrue(iterations > 0, "iterations must be greater than zero");
+        Mac mac = createMac(algorithm);
+
+        try {
+            // HMAC pads short keys with zeros, so an empty key is equivalent to a single zero byte (which, unlike
+            // an empty array, SecretKeySpec will accept)
+            mac.init(new SecretKeySpec(password.length == 0 ? new byte[1] : password, algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Failed to initialize " + algorithm + ": " + e.getMessage());
+        }
+
+        int hLen = mac.getMacLength();
+        byte[] result = new byte[keyLength];
+        byte[] u = new byte[hLen];
+        byte[] t = new byte[hLen];
+        int blocks = (keyLength + hLen - 1) / hLen;
+
+        try {
+            for (int block = 1; block <= blocks; block++) {
+                mac.update(salt);
+                mac.update((byte) (block >>> 24));
+                mac.update((byte) (block >>> 16));
+                mac.update((byte) (block >>> 8));
+                mac.update((byte) block);
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, t, 0, hLen);
+
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+
+                    for (int j = 0; j < hLen; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+
+                int offset = (block - 1) * hLen;
+                System.arraycopy(t, 0, result, offset, Math.min(hLen, keyLength - offset));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to calculate " + algorithm + ": " + e.getMessage());
+        }
+
+        return result;
+    }
+
+    private static Mac createMac(String algorithm) {
+        try {
+            return Mac.getInstance(algorithm);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("No such algorithm [" + algorithm + "]");
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the number of iterations used when encoding new passwords (either the explicitly configured value or
+     * the result of calibration).
+     */
+    public int getIterations() {
+        Assert.state(iterations > 0, "The iteration count has not been set or calibrated. Either set it explicitly " +
+                "or call afterPropertiesSet()");
+        return iterations;
+    }
+
+    /**
+     * Sets a fixed number of iterations, disabling calibration.
+     */
+    public void setIterations(int iterations) {
+        Assert.isTrue(iterations > 0, "Iterations value must be greater than zero");
+        this.iterations = iterations;
+    }
+
+    /**
+     * The lower bound on the number of iterations chosen by calibration. Defaults to 1000.
+     */
+    public void setMinIterations(int minIterations) {
+        Assert.isTrue(minIterations > 0, "minIterations must be greater than zero");
+        this.minIterations = minIterations;
+    }
+
+    /**
+     * The time in milliseconds which verifying a single password should take. Used to calibrate the iteration
+     * count. Defaults to 50.
+     */
+    public void setTargetVerifyTime(long targetVerifyTime) {
+        Assert.isTrue(targetVerifyTime > 0, "targetVerifyTime must be greater than zero");
+        this.targetVerifyTime = targetVerifyTime;
+    }
+
+    /**
+     * The length in bytes of the random salt generated for each password. Defaults to 16.
+     */
+    public void setSaltLength(int saltLength) {
+        Assert.isTrue(saltLength > 0, "saltLength must be greater than zero");
+        this.saltLength = saltLength;
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    private static final class EncodedPassword {
+        final String algorithm;
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        EncodedPassword(String algorithm, int iterations, byte[] salt, byte[] hash) {
+            this.algorithm = algorithm;
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        /**
+         * @return the parsed value, or null if the value was not created by this encoder
+         */
+        static EncodedPassword parse(String encPass) {
+            if (encPass == null || !encPass.startsWith(PREFIX)) {
+                return null;
+            }
+
+            String[] parts = encPass.substring(PREFIX.length()).split("\\$");
+
+            if (parts.length != 4) {
+                return null;
+            }
+
+            try {
+                int iterations = Integer.parseInt(parts[1]);
+                byte[] salt = Base64.decode(parts[2].getBytes("US-ASCII"));
+                byte[] hash = Base64.decode(parts[3].getBytes("US-ASCII"));
+
+                if (iterations <= 0 || hash.length == 0) {
+                    return null;
+                }
+
+                return new EncodedPassword(parts[0], iterations, salt, hash);
+            } catch (IllegalArgumentException e) {
+                // Invalid number or Base64 value
+                return null;
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("US-ASCII not supported!");
+            }
+        }
+    }
+}
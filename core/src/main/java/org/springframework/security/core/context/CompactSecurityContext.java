@@ -0,0 +1,47 @@
+package org.springframework.security.core.context;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.springframework.security.core.Authentication;
+
+/**
+ * A {@link SecurityContextImpl} which uses {@link SecurityContextCodec} for its serialized form, rather than default
+ * Java serialization of the {@code Authentication} object graph.
+ * <p>
+ * The context behaves identically to its superclass. It can be used in place of the default implementation (for
+ * example, by setting it as the <tt>securityContextClass</tt> of {@code HttpSessionSecurityContextRepository}) to
+ * reduce the size of session data which is replicated or passivated by the servlet container.
+ *
+ * @since 3.0.2
+ */
+public class CompactSecurityContext extends SecurityContextImpl implements Externalizable {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final long serialVersionUID = 1L;
+
+    private static final SecurityContextCodec CODEC = new SecurityContextCodec();
+
+    //~ Methods ========================================================================================================
+
+    public void writeExternal(ObjectOutput out) throws IOException {
+        byte[] encoded = CODEC.encode(getAuthentication());
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    public void readExternal(ObjectInput in) throws IOException {
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+
+        try {
+            setAuthentication((Authentication) CODEC.decode(encoded));
+        } catch (RuntimeException e) {
+            IOException ioe = new IOException("Failed to decode security context");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.springframework.security.core.context;
+
+import java.util.concurrent.Callable;
+
+import org.springframework.util.Assert;
+
+/**
+ * Wraps a {@code Callable} so that it executes with a specific {@link SecurityContext} in the
+ * {@link SecurityContextHolder}. The behaviour is the same as that of {@link DelegatingSecurityContextRunnable}.
+ *
+ * @since 3.0.2
+ */
+public final class DelegatingSecurityContextCallable<V> implements Callable<V> {
+    //~ Instance fields ================================================================================================
+
+    private final Callable<V> delegate;
+    private final SecurityContext securityContext;
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * Creates a wrapper which will call the delegate with the supplied context.
+     */
+    public DelegatingSecurityContextCallable(Callable<V> delegate, SecurityContext securityContext) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.notNull(securityContext, "securityContext cannot be null");
+        this.delegate = delegate;
+        this.securityContext = securityContext;
+    }
+
+    /**
+     * Creates a wrapper which will call the delegate with the context of the current thread.
+     */
+    public DelegatingSecurityContextCallable(Callable<V> delegate) {
+        this(delegate, SecurityContextHolder.getContext());
+    }
+
+    //~ Methods ========================================================================================================
+
+    public V call() throws Exception {
+        SecurityContext original = SecurityContextHolder.getContext();
+
+        try {
+            SecurityContextHolder.setContext(securityContext);
+            return delegate.call();
+        } finally {
+            DelegatingSecurityContextRunnable.restore(original);
+        }
+    }
+
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package org.springframework.security.core.context;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import org.springframework.util.Assert;
+
+/**
+ * An {@code Executor} which wraps each submitted task in a {@link DelegatingSecurityContextRunnable} before passing
+ * it to the delegate executor.
+ * <p>
+ * If a <tt>securityContext</tt> is supplied, every task runs with that context (typically that of a system
+ * account used for background work). Otherwise each task runs with the context of the thread which submitted it,
+ * which is usually what is required when moving blocking work from a request thread to a pool.
+ *
+ * @since 3.0.2
+ */
+public class DelegatingSecurityContextExecutor implements Executor {
+    //~ Instance fields ================================================================================================
+
+    private final Executor delegate;
+    private final SecurityContext securityContext;
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * @param delegate the executor which will run the tasks
+     * @param securityContext the context to run every task with, or null to use the context of the submitting thread
+     */
+    public DelegatingSecurityContextExecutor(Executor delegate, SecurityContext securityContext) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+        this.securityContext = securityContext;
+    }
+
+    public DelegatingSecurityContextExecutor(Executor delegate) {
+        this(delegate, null);
+    }
+
+    //~ Methods ========================================================================================================
+
+    public final void execute(Runnable task) {
+        delegate.execute(wrap(task));
+    }
+
+    protected final Runnable wrap(Runnable task) {
+        return new DelegatingSecurityContextRunnable(task, getContextForTask());
+    }
+
+    protected final <T> DelegatingSecurityContextCallable<T> wrap(Callable<T> task) {
+        return new DelegatingSecurityContextCallable<T>(task, getContextForTask());
+    }
+
+    private SecurityContext getContextForTask() {
+        return securityContext != null ? securityContext : SecurityContextHolder.getContext();
+    }
+
+    protected Executor getDelegate() {
+        return delegate;
+    }
+}
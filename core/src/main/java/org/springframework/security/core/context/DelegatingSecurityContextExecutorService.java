@@ -0,0 +1,101 @@
+package org.springframework.security.core.context;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An {@code ExecutorService} which runs every submitted task with a {@link SecurityContext}, as described for
+ * {@link DelegatingSecurityContextExecutor}. Lifecycle methods are passed straight to the delegate.
+ *
+ * @since 3.0.2
+ */
+public class DelegatingSecurityContextExecutorService extends DelegatingSecurityContextExecutor
+        implements ExecutorService {
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * @param delegate the executor service which will run the tasks
+     * @param securityContext the context to run every task with, or null to use the context of the submitting thread
+     */
+    public DelegatingSecurityContextExecutorService(ExecutorService delegate, SecurityContext securityContext) {
+        super(delegate, securityContext);
+    }
+
+    public DelegatingSecurityContextExecutorService(ExecutorService delegate) {
+        this(delegate, null);
+    }
+
+    //~ Methods ========================================================================================================
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return getDelegate().submit(wrap(task));
+    }
+
+    public <T> Future<T> submit(Runnable task, T result) {
+        return getDelegate().submit(wrap(task), result);
+    }
+
+    public Future<?> submit(Runnable task) {
+        return getDelegate().submit(wrap(task));
+    }
+
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        return getDelegate().invokeAll(wrapAll(tasks));
+    }
+
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return getDelegate().invokeAll(wrapAll(tasks), timeout, unit);
+    }
+
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        return getDelegate().invokeAny(wrapAll(tasks));
+    }
+
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return getDelegate().invokeAny(wrapAll(tasks), timeout, unit);
+    }
+
+    private <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+        List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+
+        for (Callable<T> task : tasks) {
+            wrapped.add(wrap(task));
+        }
+
+        return wrapped;
+    }
+
+    public void shutdown() {
+        getDelegate().shutdown();
+    }
+
+    public List<Runnable> shutdownNow() {
+        return getDelegate().shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return getDelegate().isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return getDelegate().isTerminated();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return getDelegate().awaitTermination(timeout, unit);
+    }
+
+    protected ExecutorService getDelegate() {
+        return (ExecutorService) super.getDelegate();
+    }
+}
@@ -0,0 +1,66 @@
+package org.springframework.security.core.context;
+
+import org.springframework.util.Assert;
+
+/**
+ * Wraps a {@code Runnable} so that it executes with a specific {@link SecurityContext} in the
+ * {@link SecurityContextHolder}, allowing work to be handed to another thread without losing the identity of the
+ * user who submitted it.
+ * <p>
+ * The context which was previously present on the executing thread is restored once the delegate completes (or
+ * the holder is cleared if there was none), so the wrapper is safe to run on the submitting thread itself, as happens
+ * with a "caller runs" rejection policy.
+ *
+ * @since 3.0.2
+ * @see DelegatingSecurityContextExecutor
+ */
+public final class DelegatingSecurityContextRunnable implements Runnable {
+    //~ Instance fields ================================================================================================
+
+    private final Runnable delegate;
+    private final SecurityContext securityContext;
+
+    //~ Constructors ===================================================================================================
+
+    /**
+     * Creates a wrapper which will run the delegate with the supplied context.
+     */
+    public DelegatingSecurityContextRunnable(Runnable delegate, SecurityContext securityContext) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.notNull(securityContext, "securityContext cannot be null");
+        this.delegate = delegate;
+        this.securityContext = securityContext;
+    }
+
+    /**
+     * Creates a wrapper which will run the delegate with the context of the current thread.
+     */
+    public DelegatingSecurityContextRunnable(Runnable delegate) {
+        this(delegate, SecurityContextHolder.getContext());
+    }
+
+    //~ Methods ========================================================================================================
+
+    public void run() {
+        SecurityContext original = SecurityContextHolder.getContext();
+
+        try {
+            SecurityContextHolder.setContext(securityContext);
+            delegate.run();
+        } finally {
+            restore(original);
+        }
+    }
+
+    static void restore(SecurityContext original) {
+        if (original.equals(SecurityContextHolder.createEmptyContext())) {
+            SecurityContextHolder.clearContext();
+        } else {
+            SecurityContextHolder.setContext(original);
+        }
+    }
+
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,396 @@
+package org.springframework.security.core.context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.util.Assert;
+
+/**
+ * Compact binary encoding of a {@code SecurityContext} and the standard token types it typically contains, for use
+ * where contexts are replicated or persisted in bulk and the size of default Java serialization matters.
+ * <p>
+ * {@link SecurityContextImpl}, {@link UsernamePasswordAuthenticationToken}, {@link User},
+ * {@link GrantedAuthorityImpl} and {@code String} values are written field by field with varint-framed lengths and
+ * no class descriptors. Each distinct string is written once per encoded value and subsequently referred to by its
+ * index, so a username which appears both in the token and in the {@code User} principal, or an authority shared by
+ * both, costs only a byte or two after its first occurrence. Any other {@code Serializable} value (such as the
+ * authentication details) falls back to standard Java serialization, so the codec can be used with any context
+ * contents, though the saving is then correspondingly smaller. Subclasses of the supported types are also written
+ * using Java serialization, since their additional state would otherwise be lost.
+ * <p>
+ * The class is stateless and thread-safe. {@link CompactSecurityContext} uses it to implement {@code Externalizable},
+ * allowing it to be used transparently wherever the context is stored in an {@code HttpSession}.
+ *
+ * @since 3.0.2
+ */
+public class SecurityContextCodec {
+    //~ Static fields/initializers =====================================================================================
+
+    static final int VERSION = 1;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int SECURITY_CONTEXT = 2;
+    private static final int USERNAME_PASSWORD_TOKEN = 3;
+    private static final int USER = 4;
+    private static final int GRANTED_AUTHORITY = 5;
+    private static final int SERIALIZED = 6;
+
+    //~ Methods ========================================================================================================
+
+    /**
+     * Encodes a security context, token, user, authority or other serializable value.
+     *
+     * @param value the value to encode, which may be null.
+     * @return the encoded form.
+     */
+    public byte[] encode(Object value) {
+        Output out = new Output();
+        out.writeVarint(VERSION);
+        writeValue(value, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a value previously produced by {@link #encode(Object)}.
+     *
+     * @param bytes the encoded form
+     * @return the decoded value
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    public Object decode(byte[] bytes) {
+        Assert.notNull(bytes, "bytes cannot be null");
+        Input in = new Input(bytes);
+
+        try {
+            int version = in.readVarint();
+
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported encoding version " + version);
+            }
+
+            Object value = readValue(in);
+
+            if (in.pos != bytes.length) {
+                throw new IllegalArgumentException("Unexpected trailing data after encoded value");
+            }
+
+            return value;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Encoded value is truncated", e);
+        }
+    }
+
+    private void writeValue(Object value, Output out) {
+        if (value == null) {
+            out.writeVarint(NULL);
+            return;
+        }
+
+        Class<?> type = value.getClass();
+
+        if (type == String.class) {
+            out.writeVarint(STRING);
+            out.writeString((String) value);
+        } else if (type == SecurityContextImpl.class || type == CompactSecurityContext.class) {
+            out.writeVarint(SECURITY_CONTEXT);
+            writeValue(((SecurityContext) value).getAuthentication(), out);
+        } else if (type == UsernamePasswordAuthenticationToken.class) {
+            UsernamePasswordAuthenticationToken token = (UsernamePasswordAuthenticationToken) value;
+            out.writeVarint(USERNAME_PASSWORD_TOKEN);
+            out.writeVarint(token.isAuthenticated() ? 1 : 0);
+            writeValue(token.getPrincipal(), out);
+            writeValue(token.getCredentials(), out);
+            writeAuthorities(token.getAuthorities(), out);
+            writeValue(token.getDetails(), out);
+        } else if (type == User.class) {
+            User user = (User) value;
+            out.writeVarint(USER);
+            out.writeVarint((user.isEnabled() ? 1 : 0) | (user.isAccountNonExpired() ? 2 : 0)
+                    | (user.isCredentialsNonExpired() ? 4 : 0) | (user.isAccountNonLocked() ? 8 : 0));
+            out.writeString(user.getUsername());
+            out.writeString(user.getPassword());
+            writeAuthorities(user.getAuthorities(), out);
+        } else if (type == GrantedAuthorityImpl.class) {
+            out.writeVarint(GRANTED_AUTHORITY);
+            out.writeString(((GrantedAuthority) value).getAuthority());
+        } else if (value instanceof Serializable) {
+            out.writeVarint(SERIALIZED);
+            out.writeBytes(serialize(value));
+        } else {
+            throw new IllegalArgumentException("Cannot encode non-serializable value of " + type);
+        }
+    }
+
+    private void writeAuthorities(Collection<GrantedAuthority> authorities, Output out) {
+        out.writeVarint(authorities.size());
+
+        for (GrantedAuthority authority : authorities) {
+            writeValue(authority, out);
+        }
+    }
+
+    private Object readValue(Input in) {
+        int tag = in.readVarint();
+
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readString();
+            case SECURITY_CONTEXT:
+                SecurityContext context = new SecurityContextImpl();
+                context.setAuthentication(readValue(in, Authentication.class));
+                return context;
+            case USERNAME_PASSWORD_TOKEN:
+                boolean authenticated = in.readVarint() == 1;
+                Object principal = readValue(in);
+                Object credentials = readValue(in);
+                UsernamePasswordAuthenticationToken token =
+                    new UsernamePasswordAuthenticationToken(principal, credentials, readAuthorities(in));
+
+                if (!authenticated) {
+                    token.setAuthenticated(false);
+                }
+
+                token.setDetails(readValue(in));
+                return token;
+            case USER:
+                int flags = in.readVarint();
+                String username = in.readString();
+                String password = in.readString();
+                return new User(username, password, (flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0,
+                        (flags & 8) != 0, readAuthorities(in));
+            case GRANTED_AUTHORITY:
+                return new GrantedAuthorityImpl(in.readString());
+            case SERIALIZED:
+                return deserialize(in.readBytes());
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+    }
+
+    private List<GrantedAuthority> readAuthorities(Input in) {
+        int count = in.readVarint();
+        List<GrantedAuthority> authorities = new ArrayList<GrantedAuthority>(count);
+
+        for (int i = 0; i < count; i++) {
+            authorities.add(readValue(in, GrantedAuthority.class));
+        }
+
+        return authorities;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readValue(Input in, Class<T> type) {
+        Object value = readValue(in);
+
+        if (value != null && !type.isInstance(value)) {
+            throw new IllegalArgumentException("Expected " + type.getName() + " but found " + value.getClass());
+        }
+
+        return (T) value;
+    }
+
+    private static byte[] serialize(Object value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to serialize " + value.getClass(), e);
+        }
+    }
+
+    private static Object deserialize(byte[] data) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+            return in.readObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to deserialize encoded value", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Failed to deserialize encoded value", e);
+        }
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Growable output buffer. Strings are written as a single varint holding either the UTF-8 length of a new
+     * string shifted left by one, or the index of a previously written string shifted left by one with the low bit
+     * set.
+     */
+    private static final class Output {
+        private byte[] buf = new byte[128];
+        private int count;
+        private Map<String, Integer> strings;
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+
+            while ((value & ~0x7F) != 0) {
+                buf[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            buf[count++] = (byte) value;
+        }
+
+        void writeString(String s) {
+            if (strings == null) {
+                strings = new HashMap<String, Integer>();
+            }
+
+            Integer index = strings.get(s);
+
+            if (index != null) {
+                writeVarint((index.intValue() << 1) | 1);
+                return;
+            }
+
+            strings.put(s, Integer.valueOf(strings.size()));
+            int length = s.length();
+
+            for (int i = 0; i < length; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    writeUtf8(s);
+                    return;
+                }
+            }
+
+            writeVarint(length << 1);
+            ensureCapacity(length);
+
+            for (int i = 0; i < length; i++) {
+                buf[count++] = (byte) s.charAt(i);
+            }
+        }
+
+        private void writeUtf8(String s) {
+            byte[] utf8;
+
+            try {
+                utf8 = s.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            writeVarint(utf8.length << 1);
+            write(utf8);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            write(bytes);
+        }
+
+        private void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buf, count, bytes.length);
+            count += bytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (count + extra > buf.length) {
+                byte[] newBuf = new byte[Math.max(buf.length << 1, count + extra)];
+                System.arraycopy(buf, 0, newBuf, 0, count);
+                buf = newBuf;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[count];
+            System.arraycopy(buf, 0, result, 0, count);
+            return result;
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+        private List<String> strings;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readVarint() {
+            int value = 0;
+
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = buf[pos++];
+                value |= (b & 0x7F) << shift;
+
+                if (b >= 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            if (strings == null) {
+                strings = new ArrayList<String>();
+            }
+
+            int header = readVarint();
+
+            if ((header & 1) != 0) {
+                int index = header >>> 1;
+
+                if (index >= strings.size()) {
+                    throw new IllegalArgumentException("Invalid string reference " + index);
+                }
+
+                return strings.get(index);
+            }
+
+            int length = checkLength(header >>> 1);
+            String s;
+
+            try {
+                s = new String(buf, pos, length, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            pos += length;
+            strings.add(s);
+            return s;
+        }
+
+        byte[] readBytes() {
+            int length = checkLength(readVarint());
+            byte[] bytes = new byte[length];
+            System.arraycopy(buf, pos, bytes, 0, length);
+            pos += length;
+            return bytes;
+        }
+
+        private int checkLength(int length) {
+            if (length < 0 || length > buf.length - pos) {
+                throw new IllegalArgumentException("Encoded length " + length + " exceeds available data");
+            }
+
+            return length;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.springframework.security.core.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.event.SimpleApplicationEventMulticaster;
+import org.springframework.security.access.event.AbstractAuthorizationEvent;
+import org.springframework.security.authentication.event.AbstractAuthenticationEvent;
+import org.springframework.util.Assert;
+
+/**
+ * An <tt>ApplicationEventMulticaster</tt> which delivers security events to listeners on a background thread, so
+ * that slow listeners (such as those which write audit records to a database) don't add to the latency of the
+ * request which raised the event.
+ * <p>
+ * To use it, register it in the application context under the name <tt>applicationEventMulticaster</tt>. Events
+ * which are instances of one of the configured <tt>asyncEventTypes</tt> (by default {@link AbstractAuthenticationEvent}
+ * and {@link AbstractAuthorizationEvent}) are placed in a bounded, lock-free ring buffer and delivered in batches by a
+ * single dispatcher thread, in the order in which they were published. All other events are delivered synchronously as
+ * normal. Events of any of the <tt>ignoredEventTypes</tt> are discarded without being delivered to listeners.
+ * <p>
+ * If the buffer is full when an event is published, the configured {@link OverflowPolicy} determines whether the
+ * event is dropped or delivered synchronously on the publishing thread. The number of dispatched and dropped events
+ * and the current queue size are available for monitoring.
+ * <p>
+ * If a particular event type isn't required at all, it is cheaper still to stop it from being created. For example,
+ * {@link org.springframework.security.access.intercept.AbstractSecurityInterceptor AbstractSecurityInterceptor} can
+ * be configured not to publish an <tt>AuthorizedEvent</tt> for every successful invocation.
+ *
+ * @since 3.0.2
+ */
+public class AsyncSecurityEventMulticaster extends SimpleApplicationEventMulticaster implements InitializingBean,
+        DisposableBean {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final Log logger = LogFactory.getLog(AsyncSecurityEventMulticaster.class);
+
+    //~ Instance fields ================================================================================================
+
+    private List<Class<?>> asyncEventTypes = new ArrayList<Class<?>>(Arrays.<Class<?>>asList(
+            AbstractAuthenticationEvent.class, AbstractAuthorizationEvent.class));
+    private List<Class<?>> ignoredEventTypes = new ArrayList<Class<?>>();
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCARD;
+    private int bufferSize = 8192;
+    private int batchSize = 256;
+    private long idleWait = 10;
+
+    private EventRingBuffer<ApplicationEvent> buffer;
+    private Thread dispatcher;
+    private volatile boolean running;
+    // The number of threads between checking the running flag and adding an event to the buffer
+    private final AtomicInteger activePublishers = new AtomicInteger();
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+
+    //~ Methods ========================================================================================================
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.isTrue(bufferSize > 0, "bufferSize must be greater than zero");
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        buffer = new EventRingBuffer<ApplicationEvent>(bufferSize);
+        running = true;
+        dispatcher = new Thread(new Dispatcher(), "security-event-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher thread after delivering any events which are still in the buffer.
+     */
+    public void destroy() throws InterruptedException {
+        running = false;
+
+        if (dispatcher != null) {
+            LockSupport.unpark(dispatcher);
+            dispatcher.join();
+        }
+    }
+
+    public void multicastEvent(ApplicationEvent event) {
+        if (isInstanceOfAny(event, ignoredEventTypes)) {
+            return;
+        }
+
+        if (!isInstanceOfAny(event, asyncEventTypes)) {
+            super.multicastEvent(event);
+            return;
+        }
+
+        boolean stopped;
+        boolean offered = false;
+
+        // The dispatcher won't stop while a publisher which saw it running has yet to add its event
+        activePublishers.incrementAndGet();
+
+        try {
+            stopped = !running;
+
+            if (!stopped) {
+                offered = buffer.offer(event);
+            }
+        } finally {
+            activePublishers.decrementAndGet();
+        }
+
+        if (stopped) {
+            super.multicastEvent(event);
+            return;
+        }
+
+        if (offered) {
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            callerRunsCount.incrementAndGet();
+            super.multicastEvent(event);
+        } else {
+            droppedCount.incrementAndGet();
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Event buffer is full. Discarding " + event);
+            }
+        }
+    }
+
+    private boolean isInstanceOfAny(ApplicationEvent event, List<Class<?>> types) {
+        for (int i = 0; i < types.size(); i++) {
+            if (types.get(i).isInstance(event)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void deliver(ApplicationEvent event) {
+        try {
+            super.multicastEvent(event);
+        } catch (RuntimeException e) {
+            logger.error("Listener failed to process " + event, e);
+        }
+
+        dispatchedCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of events currently waiting to be delivered
+     */
+    public int getQueueSize() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * @return the number of events which have been delivered by the dispatcher thread
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * @return the number of events which were discarded because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of events which were delivered on the publishing thread because the buffer was full
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * The event classes (including their subclasses) which will be delivered asynchronously. Defaults to
+     * {@link AbstractAuthenticationEvent} and {@link AbstractAuthorizationEvent}.
+     */
+    public void setAsyncEventTypes(List<Class<?>> asyncEventTypes) {
+        Assert.notNull(asyncEventTypes, "asyncEventTypes cannot be null");
+        this.asyncEventTypes = new ArrayList<Class<?>>(asyncEventTypes);
+    }
+
+    /**
+     * Event classes (including their subclasses) which should be discarded rather than delivered. Empty by default.
+     */
+    public void setIgnoredEventTypes(List<Class<?>> ignoredEventTypes) {
+        Assert.notNull(ignoredEventTypes, "ignoredEventTypes cannot be null");
+        this.ignoredEventTypes = new ArrayList<Class<?>>(ignoredEventTypes);
+    }
+
+    /**
+     * What to do with an event if the buffer is full. Defaults to {@link OverflowPolicy#DISCARD}.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        Assert.notNull(overflowPolicy, "overflowPolicy cannot be null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * The number of events which can be waiting for delivery. Rounded up to a power of two. Defaults to 8192.
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * The maximum number of events removed from the buffer by the dispatcher at a time. Defaults to 256.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The time in milliseconds the dispatcher sleeps for when the buffer is empty. Defaults to 10.
+     */
+    public void setIdleWait(long idleWait) {
+        this.idleWait = idleWait;
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Determines how an event is handled when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** The event is dropped and the dropped count incremented */
+        DISCARD,
+        /** The event is delivered synchronously, on the thread which published it */
+        CALLER_RUNS
+    }
+
+    private class Dispatcher implements Runnable {
+        public void run() {
+            List<ApplicationEvent> batch = new ArrayList<ApplicationEvent>(batchSize);
+
+            while (true) {
+                boolean stopping = !running;
+
+                if (buffer.drainTo(batch, batchSize) > 0) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        deliver(batch.get(i));
+                    }
+                    batch.clear();
+                    continue;
+                }
+
+                // Only stop once a check made after the running flag was cleared has found no publisher part way
+                // through adding an event and the buffer empty. Any later publisher will see the flag cleared.
+                if (stopping && activePublishers.get() == 0 && buffer.size() == 0) {
+                    return;
+                }
+
+                LockSupport.parkNanos(idleWait * 1000000);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.springframework.security.core.event;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer which supports any number of producer threads and a single consumer thread.
+ * <p>
+ * Producers claim a slot by advancing the tail sequence with a compare-and-set and then store their element in it.
+ * The consumer removes elements in order, clearing each slot before advancing the head sequence, so a producer can
+ * never overwrite an element which has not been consumed.
+ *
+ * @since 3.0.2
+ */
+final class EventRingBuffer<E> {
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity the minimum number of elements the buffer can hold. Will be rounded up to a power of two.
+     */
+    EventRingBuffer(int capacity) {
+        int size = 1;
+
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        slots = new AtomicReferenceArray<E>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element to the buffer. May be called by any thread.
+     *
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long t;
+
+        do {
+            t = tail.get();
+
+            if (t - head.get() >= slots.length()) {
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+
+        slots.set((int) t & mask, element);
+
+        return true;
+    }
+
+    /**
+     * Moves up to <tt>max</tt> elements into the supplied list. Must only be called by the consumer thread.
+     *
+     * @return the number of elements removed
+     */
+    int drainTo(List<? super E> target, int max) {
+        long h = head.get();
+        int count = 0;
+
+        while (count < max) {
+            int index = (int) h & mask;
+            E element = slots.get(index);
+
+            // Either the buffer is empty or the producer which claimed the slot hasn't stored its element yet
+            if (element == null) {
+                break;
+            }
+
+            slots.set(index, null);
+            target.add(element);
+            head.set(++h);
+            count++;
+        }
+
+        return count;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
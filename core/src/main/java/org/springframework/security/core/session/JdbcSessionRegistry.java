@@ -0,0 +1,595 @@
+package org.springframework.security.core.session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.support.JdbcDaoSupport;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link SessionRegistry} which stores session information in a database table, so that concurrent session control
+ * can be applied across all the nodes of a cluster which share the same database.
+ * <p>
+ * Registration and removal of sessions are written to the database immediately. The much more frequent updates to
+ * the last request time of a session (and sessions being marked as expired) are applied to the in-memory
+ * {@link SessionInformation} straight away, but are only written to the database in batches by a background thread
+ * every <tt>flushInterval</tt> milliseconds (or when {@link #flush()} is called).
+ * <p>
+ * Sessions looked up by id are kept in a local near-cache, so that the check made by <tt>ConcurrentSessionFilter</tt>
+ * on every request doesn't normally need to query the database. A cached entry is reloaded once it is more than
+ * <tt>maxStaleness</tt> milliseconds old, so a session which is expired on one node will be seen as expired on the
+ * others within <tt>flushInterval + maxStaleness</tt> milliseconds. {@link #getAllSessions(Object, boolean)} and
+ * {@link #getAllPrincipals()} always query the database.
+ * <p>
+ * Entries which have not been reloaded for several <tt>maxStaleness</tt> periods (such as those of sessions which
+ * were destroyed on another node) are evicted from the near-cache when changes are flushed, and the least recently
+ * loaded entries are evicted whenever it holds more than <tt>maxCacheSize</tt> sessions.
+ * <p>
+ * Principals are stored by name: the username of a {@link UserDetails}, the name of a <tt>java.security.Principal</tt>
+ * or otherwise the result of <tt>toString()</tt>. Sessions which were registered on another node are returned with
+ * this name as their principal.
+ *
+ * @since 3.0.2
+ */
+public class JdbcSessionRegistry extends JdbcDaoSupport implements SessionRegistry,
+        ApplicationListener<SessionDestroyedEvent>, DisposableBean {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final Log logger = LogFactory.getLog(JdbcSessionRegistry.class);
+
+    /** The number of <tt>maxStaleness</tt> periods after which an entry which has not been reloaded is evicted */
+    private static final int CACHE_EVICTION_PERIODS = 3;
+
+    private static final Comparator<JdbcSessionInformation> LEAST_RECENTLY_LOADED =
+        new Comparator<JdbcSessionInformation>() {
+            public int compare(JdbcSessionInformation o1, JdbcSessionInformation o2) {
+                long l1 = o1.loadedAt;
+                long l2 = o2.loadedAt;
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        };
+
+    /** Default SQL for creating the database table to store the sessions */
+    public static final String CREATE_TABLE_SQL =
+            "create table session_registry (session_id varchar(100) primary key, principal varchar(100) not null, " +
+                    "last_request bigint not null, expired boolean not null)";
+    /** The default SQL used to load a single session */
+    public static final String DEF_SESSION_BY_ID_SQL =
+            "select session_id, principal, last_request, expired from session_registry where session_id = ?";
+    /** The default SQL used to load the sessions of a principal */
+    public static final String DEF_SESSIONS_BY_PRINCIPAL_SQL =
+            "select session_id, principal, last_request, expired from session_registry where principal = ?";
+    /** The default SQL used by <tt>getAllPrincipals</tt> */
+    public static final String DEF_ALL_PRINCIPALS_SQL =
+            "select distinct principal from session_registry";
+    /** The default SQL used by <tt>registerNewSession</tt> */
+    public static final String DEF_INSERT_SESSION_SQL =
+            "insert into session_registry (session_id, principal, last_request, expired) values (?,?,?,?)";
+    /** The default SQL used by <tt>registerNewSession</tt> to replace an existing session */
+    public static final String DEF_REPLACE_SESSION_SQL =
+            "update session_registry set principal = ?, last_request = ?, expired = ? where session_id = ?";
+    /** The default SQL used by <tt>removeSessionInformation</tt> */
+    public static final String DEF_DELETE_SESSION_SQL =
+            "delete from session_registry where session_id = ?";
+    /** The default SQL used to write back last request times. Never moves the time backwards. */
+    public static final String DEF_UPDATE_LAST_REQUEST_SQL =
+            "update session_registry set last_request = ? where session_id = ? and last_request < ?";
+    /** The default SQL used to write back sessions which have been expired */
+    public static final String DEF_EXPIRE_SESSION_SQL =
+            "update session_registry set expired = ? where session_id = ?";
+
+    //~ Instance fields ================================================================================================
+
+    private String sessionByIdSql = DEF_SESSION_BY_ID_SQL;
+    private String sessionsByPrincipalSql = DEF_SESSIONS_BY_PRINCIPAL_SQL;
+    private String allPrincipalsSql = DEF_ALL_PRINCIPALS_SQL;
+    private String insertSessionSql = DEF_INSERT_SESSION_SQL;
+    private String replaceSessionSql = DEF_REPLACE_SESSION_SQL;
+    private String deleteSessionSql = DEF_DELETE_SESSION_SQL;
+    private String updateLastRequestSql = DEF_UPDATE_LAST_REQUEST_SQL;
+    private String expireSessionSql = DEF_EXPIRE_SESSION_SQL;
+    private boolean createTableOnStartup;
+
+    private long flushInterval = 5000;
+    private long maxStaleness = 5000;
+    private int maxCacheSize = 10000;
+    private ScheduledExecutorService scheduler;
+
+    /** The near-cache of sessions looked up by id */
+    private final ConcurrentMap<String, JdbcSessionInformation> cache =
+        new ConcurrentHashMap<String, JdbcSessionInformation>();
+    /** Set while the near-cache is being reduced to <tt>maxCacheSize</tt>, so that only one thread does so */
+    private final AtomicBoolean trimmingCache = new AtomicBoolean();
+    /** Sessions whose last request time has changed since the last flush */
+    private final ConcurrentMap<String, JdbcSessionInformation> pendingRefreshes =
+        new ConcurrentHashMap<String, JdbcSessionInformation>();
+    /** Sessions which have been expired since the last flush */
+    private final ConcurrentMap<String, JdbcSessionInformation> pendingExpirations =
+        new ConcurrentHashMap<String, JdbcSessionInformation>();
+
+    private final RowMapper<JdbcSessionInformation> sessionMapper = new RowMapper<JdbcSessionInformation>() {
+        public JdbcSessionInformation mapRow(ResultSet rs, int rowNum) throws SQLException {
+            JdbcSessionInformation info = new JdbcSessionInformation(JdbcSessionRegistry.this, rs.getString(2),
+                    rs.getString(1), new Date(rs.getLong(3)));
+
+            if (rs.getBoolean(4)) {
+                info.markExpired();
+            }
+
+            return info;
+        }
+    };
+
+    //~ Methods ========================================================================================================
+
+    protected void initDao() {
+        Assert.isTrue(flushInterval > 0, "flushInterval must be greater than zero");
+        Assert.isTrue(maxStaleness >= 0, "maxStaleness cannot be negative");
+        Assert.isTrue(maxCacheSize > 0, "maxCacheSize must be greater than zero");
+
+        if (createTableOnStartup) {
+            getJdbcTemplate().execute(CREATE_TABLE_SQL);
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "session-registry-flusher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to write session changes to the database", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background thread and writes any outstanding changes.
+     */
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+
+        flush();
+    }
+
+    public List<Object> getAllPrincipals() {
+        return getJdbcTemplate().query(allPrincipalsSql, new RowMapper<Object>() {
+            public Object mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return rs.getString(1);
+            }
+        });
+    }
+
+    public List<SessionInformation> getAllSessions(Object principal, boolean includeExpiredSessions) {
+        List<JdbcSessionInformation> rows = getJdbcTemplate().query(sessionsByPrincipalSql,
+                new Object[] {getPrincipalName(principal)}, sessionMapper);
+        List<SessionInformation> sessions = new ArrayList<SessionInformation>(rows.size());
+
+        for (JdbcSessionInformation row : rows) {
+            // Prefer the local copy, which has the most recent changes
+            JdbcSessionInformation cached = cache.get(row.getSessionId());
+            SessionInformation info = cached == null ? row : cached.merge(row);
+
+            if (includeExpiredSessions || !info.isExpired()) {
+                sessions.add(info);
+            }
+        }
+
+        return sessions;
+    }
+
+    public SessionInformation getSessionInformation(String sessionId) {
+        Assert.hasText(sessionId, "SessionId required as per interface contract");
+
+        JdbcSessionInformation cached = cache.get(sessionId);
+        long now = System.currentTimeMillis();
+
+        if (cached != null && now - cached.loadedAt < maxStaleness) {
+            return cached;
+        }
+
+        JdbcSessionInformation row = loadSession(sessionId);
+
+        if (row == null) {
+            if (cached != null) {
+                cache.remove(sessionId, cached);
+            }
+
+            return null;
+        }
+
+        // An entry which has been evicted from the cache may still have changes waiting to be written
+        JdbcSessionInformation info = cached != null ? cached : getPendingChanges(sessionId);
+
+        if (info == null) {
+            info = row;
+        } else {
+            info.merge(row);
+        }
+
+        if (info != cached) {
+            JdbcSessionInformation existing = cache.putIfAbsent(sessionId, info);
+
+            if (existing != null) {
+                info = existing.merge(row);
+            } else {
+                trimCacheIfFull();
+            }
+        }
+
+        info.loadedAt = now;
+
+        return info;
+    }
+
+    private JdbcSessionInformation loadSession(String sessionId) {
+        List<JdbcSessionInformation> rows = getJdbcTemplate().query(sessionByIdSql, new Object[] {sessionId},
+                sessionMapper);
+
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private JdbcSessionInformation getPendingChanges(String sessionId) {
+        JdbcSessionInformation info = pendingExpirations.get(sessionId);
+
+        return info != null ? info : pendingRefreshes.get(sessionId);
+    }
+
+    public void onApplicationEvent(SessionDestroyedEvent event) {
+        removeSessionInformation(event.getId());
+    }
+
+    public void refreshLastRequest(String sessionId) {
+        Assert.hasText(sessionId, "SessionId required as per interface contract");
+
+        SessionInformation info = getSessionInformation(sessionId);
+
+        if (info != null) {
+            info.refreshLastRequest();
+        }
+    }
+
+    public void registerNewSession(String sessionId, Object principal) {
+        Assert.hasText(sessionId, "SessionId required as per interface contract");
+        Assert.notNull(principal, "Principal required as per interface contract");
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Registering session " + sessionId +", for principal " + principal);
+        }
+
+        JdbcSessionInformation info = new JdbcSessionInformation(this, principal, sessionId, new Date());
+        discardPendingChanges(sessionId);
+        writeSession(sessionId, getPrincipalName(principal), info.getLastRequestTime());
+        cache.put(sessionId, info);
+        trimCacheIfFull();
+    }
+
+    /**
+     * Replaces any existing row in place, rather than deleting and re-inserting it, so that another thread or node
+     * never finds the session missing part way through.
+     */
+    private void writeSession(String sessionId, String principalName, long lastRequest) {
+        Object[] replaceArgs = new Object[] {principalName, Long.valueOf(lastRequest), Boolean.FALSE, sessionId};
+
+        if (getJdbcTemplate().update(replaceSessionSql, replaceArgs) > 0) {
+            return;
+        }
+
+        try {
+            getJdbcTemplate().update(insertSessionSql, new Object[] {sessionId, principalName,
+                    Long.valueOf(lastRequest), Boolean.FALSE});
+        } catch (DataIntegrityViolationException e) {
+            // The row was inserted concurrently by another node
+            getJdbcTemplate().update(replaceSessionSql, replaceArgs);
+        }
+    }
+
+    public void removeSessionInformation(String sessionId) {
+        Assert.hasText(sessionId, "SessionId required as per interface contract");
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removing session " + sessionId + " from set of registered sessions");
+        }
+
+        cache.remove(sessionId);
+        discardPendingChanges(sessionId);
+        getJdbcTemplate().update(deleteSessionSql, new Object[] {sessionId});
+    }
+
+    private void discardPendingChanges(String sessionId) {
+        pendingRefreshes.remove(sessionId);
+        pendingExpirations.remove(sessionId);
+    }
+
+    /**
+     * Writes all outstanding last request times and expirations to the database, each as a single batch. Normally
+     * called by the background thread, but can be called directly.
+     */
+    public void flush() {
+        final List<JdbcSessionInformation> expired = drain(pendingExpirations);
+        final List<JdbcSessionInformation> refreshed = drain(pendingRefreshes);
+
+        try {
+            if (!expired.isEmpty()) {
+                getJdbcTemplate().batchUpdate(expireSessionSql, new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setBoolean(1, true);
+                        ps.setString(2, expired.get(i).getSessionId());
+                    }
+
+                    public int getBatchSize() {
+                        return expired.size();
+                    }
+                });
+            }
+
+            if (!refreshed.isEmpty()) {
+                getJdbcTemplate().batchUpdate(updateLastRequestSql, new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        long lastRequest = refreshed.get(i).getLastRequestTime();
+                        ps.setLong(1, lastRequest);
+                        ps.setString(2, refreshed.get(i).getSessionId());
+                        ps.setLong(3, lastRequest);
+                    }
+
+                    public int getBatchSize() {
+                        return refreshed.size();
+                    }
+                });
+            }
+        } catch (DataAccessException e) {
+            // Put the changes back so they are retried on the next flush
+            requeue(pendingExpirations, expired);
+            requeue(pendingRefreshes, refreshed);
+            throw e;
+        }
+
+        if (logger.isDebugEnabled() && (expired.size() + refreshed.size()) > 0) {
+            logger.debug("Wrote " + expired.size() + " expired sessions and " + refreshed.size() +
+                    " last request times to the database");
+        }
+
+        evictUnusedCacheEntries(System.currentTimeMillis());
+        trimCacheIfFull();
+    }
+
+    /**
+     * Evicts the entries which have not been reloaded for several <tt>maxStaleness</tt> periods. An entry which is
+     * still in use is reloaded at least once every period, so these are normally sessions which have been destroyed
+     * on another node or which are no longer being used.
+     */
+    private void evictUnusedCacheEntries(long now) {
+        long maxAge = CACHE_EVICTION_PERIODS * maxStaleness;
+
+        for (JdbcSessionInformation info : cache.values()) {
+            if (now - info.loadedAt > maxAge) {
+                cache.remove(info.getSessionId(), info);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently loaded entries once the cache holds more than <tt>maxCacheSize</tt> sessions. A
+     * tenth of the entries are evicted at a time, so that the cost of sorting them is not paid on every insertion.
+     */
+    private void trimCacheIfFull() {
+        if (cache.size() <= maxCacheSize || !trimmingCache.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            List<JdbcSessionInformation> entries = new ArrayList<JdbcSessionInformation>(cache.values());
+            int excess = entries.size() - (maxCacheSize - maxCacheSize / 10);
+
+            if (excess <= 0) {
+                return;
+            }
+
+            Collections.sort(entries, LEAST_RECENTLY_LOADED);
+
+            for (int i = 0; i < excess; i++) {
+                JdbcSessionInformation info = entries.get(i);
+                cache.remove(info.getSessionId(), info);
+            }
+        } finally {
+            trimmingCache.set(false);
+        }
+    }
+
+    private static List<JdbcSessionInformation> drain(ConcurrentMap<String, JdbcSessionInformation> pending) {
+        List<JdbcSessionInformation> drained = new ArrayList<JdbcSessionInformation>();
+
+        for (String sessionId : pending.keySet()) {
+            // Remove by key rather than through the iterator, so that a change queued after this point is kept
+            JdbcSessionInformation info = pending.remove(sessionId);
+
+            if (info != null) {
+                drained.add(info);
+            }
+        }
+
+        return drained;
+    }
+
+    private void requeue(ConcurrentMap<String, JdbcSessionInformation> pending, List<JdbcSessionInformation> infos) {
+        for (JdbcSessionInformation info : infos) {
+            if (cache.get(info.getSessionId()) == info || !cache.containsKey(info.getSessionId())) {
+                pending.putIfAbsent(info.getSessionId(), info);
+            }
+        }
+    }
+
+    /**
+     * @return the number of sessions whose changes have not yet been written to the database
+     */
+    public int getPendingWriteCount() {
+        return pendingRefreshes.size() + pendingExpirations.size();
+    }
+
+    /**
+     * @return the number of sessions held in the local near-cache
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Determines the name under which the principal is stored.
+     */
+    protected String getPrincipalName(Object principal) {
+        if (principal instanceof UserDetails) {
+            return ((UserDetails) principal).getUsername();
+        }
+
+        if (principal instanceof java.security.Principal) {
+            return ((java.security.Principal) principal).getName();
+        }
+
+        return principal.toString();
+    }
+
+    void queueRefresh(JdbcSessionInformation info) {
+        pendingRefreshes.put(info.getSessionId(), info);
+    }
+
+    void queueExpiration(JdbcSessionInformation info) {
+        pendingExpirations.put(info.getSessionId(), info);
+    }
+
+    /**
+     * The interval in milliseconds at which changes are written to the database. Defaults to 5000.
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * The maximum age in milliseconds of a session in the near-cache before it is reloaded from the database.
+     * Defaults to 5000.
+     */
+    public void setMaxStaleness(long maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * The maximum number of sessions held in the near-cache, beyond which the least recently loaded are evicted.
+     * Defaults to 10000.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public void setCreateTableOnStartup(boolean createTableOnStartup) {
+        this.createTableOnStartup = createTableOnStartup;
+    }
+
+    public void setSessionByIdSql(String sessionByIdSql) {
+        this.sessionByIdSql = sessionByIdSql;
+    }
+
+    public void setSessionsByPrincipalSql(String sessionsByPrincipalSql) {
+        this.sessionsByPrincipalSql = sessionsByPrincipalSql;
+    }
+
+    public void setAllPrincipalsSql(String allPrincipalsSql) {
+        this.allPrincipalsSql = allPrincipalsSql;
+    }
+
+    public void setInsertSessionSql(String insertSessionSql) {
+        this.insertSessionSql = insertSessionSql;
+    }
+
+    public void setReplaceSessionSql(String replaceSessionSql) {
+        this.replaceSessionSql = replaceSessionSql;
+    }
+
+    public void setDeleteSessionSql(String deleteSessionSql) {
+        this.deleteSessionSql = deleteSessionSql;
+    }
+
+    public void setUpdateLastRequestSql(String updateLastRequestSql) {
+        this.updateLastRequestSql = updateLastRequestSql;
+    }
+
+    public void setExpireSessionSql(String expireSessionSql) {
+        this.expireSessionSql = expireSessionSql;
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * Queues changes to be written back to the database by the registry.
+     */
+    private static final class JdbcSessionInformation extends SessionInformation {
+        private final transient JdbcSessionRegistry registry;
+        volatile long loadedAt = System.currentTimeMillis();
+
+        JdbcSessionInformation(JdbcSessionRegistry registry, Object principal, String sessionId, Date lastRequest) {
+            super(principal, sessionId, lastRequest);
+            this.registry = registry;
+        }
+
+        public void expireNow() {
+            super.expireNow();
+            registry.queueExpiration(this);
+        }
+
+        public void refreshLastRequest(long now) {
+            super.refreshLastRequest(now);
+            registry.queueRefresh(this);
+        }
+
+        /**
+         * Marks the session as expired without writing it back.
+         */
+        void markExpired() {
+            super.expireNow();
+        }
+
+        /**
+         * Applies changes made on other nodes. A session never becomes un-expired and the last request time never
+         * moves backwards.
+         */
+        JdbcSessionInformation merge(JdbcSessionInformation row) {
+            if (row.isExpired() && !isExpired()) {
+                markExpired();
+            }
+
+            if (row.getLastRequestTime() > getLastRequestTime()) {
+                super.refreshLastRequest(row.getLastRequestTime());
+            }
+
+            return this;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.springframework.security.core.session;
+
+/**
+ * A {@link SessionRegistry} which keeps the unexpired sessions of each principal ordered by last use, so that
+ * concurrent session control can find the number of sessions a principal has and the session which should be
+ * expired without building and scanning a list of all of them.
+ *
+ * @since 3.0.2
+ */
+public interface OrderedSessionRegistry extends SessionRegistry {
+
+    /**
+     * Returns the number of sessions registered for the principal which have not been expired.
+     *
+     * @param principal to count the sessions of (should never be <code>null</code>)
+     * @return the number of unexpired sessions
+     */
+    int getUnexpiredSessionCount(Object principal);
+
+    /**
+     * Returns the unexpired session of the principal which was used least recently.
+     *
+     * @param principal to locate the session for (should never be <code>null</code>)
+     * @return the session, or <code>null</code> if the principal has no unexpired sessions
+     */
+    SessionInformation getLeastRecentlyUsedSession(Object principal);
+}
@@ -37,10 +37,10 @@ import java.io.Serializable;
 public class SessionInformation implements Serializable {
     //~ Instance fields ================================================================================================
 
-    private Date lastRequest;
+    private volatile long lastRequest;
     private Object principal;
     private String sessionId;
-    private boolean expired = false;
+    private volatile boolean expired = false;
 
     //~ Constructors ===================================================================================================
 
@@ -50,7 +50,7 @@ public class SessionInformation implements Serializable {
         Assert.notNull(lastRequest, "LastRequest required");
         this.principal = principal;
         this.sessionId = sessionId;
-        this.lastRequest = lastRequest;
+        this.lastRequest = lastRequest.getTime();
     }
 
     //~ Methods ========================================================================================================
@@ -60,6 +60,14 @@ public class SessionInformation implements Serializable {
     }
 
     public Date getLastRequest() {
+        return new Date(lastRequest);
+    }
+
+    /**
+     * @return the time of the last request, in milliseconds since the epoch. Unlike {@link #getLastRequest()} this
+     * doesn't allocate a <tt>Date</tt>.
+     */
+    public long getLastRequestTime() {
         return lastRequest;
     }
 
@@ -79,6 +87,15 @@ public class SessionInformation implements Serializable {
      * Refreshes the internal lastRequest to the current date and time.
      */
     public void refreshLastRequest() {
-        this.lastRequest = new Date();
+        refreshLastRequest(System.currentTimeMillis());
+    }
+
+    /**
+     * Sets the internal lastRequest to the supplied time.
+     *
+     * @param now the current time in milliseconds since the epoch
+     */
+    public void refreshLastRequest(long now) {
+        this.lastRequest = now;
     }
 }
@@ -16,14 +16,14 @@
 package org.springframework.security.core.session;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -38,29 +38,44 @@ import org.springframework.util.Assert;
  * For this class to function correctly in a web application, it is important that you register an
  * {@link org.springframework.security.web.session.HttpSessionEventPublisher HttpSessionEventPublisher}
  * in the <tt>web.xml</tt> file so that this class is notified of sessions that expire.
+ * <p>
+ * The registry is built on concurrent maps and doesn't hold any global lock, so registrations and removals for
+ * different principals (and different sessions of the same principal) can proceed in parallel. A session which is
+ * registered and removed concurrently will always end up either fully registered or fully removed.
+ * <p>
+ * The unexpired sessions of each principal are also kept in order of last use (each call to
+ * {@link SessionInformation#refreshLastRequest()} moves a session to the end), so the number of unexpired sessions
+ * and the least recently used session can be obtained in constant time, as described by
+ * {@link OrderedSessionRegistry}.
  *
  * @author Ben Alex
  * @author Luke Taylor
  */
-public class SessionRegistryImpl implements SessionRegistry, ApplicationListener<SessionDestroyedEvent> {
+public class SessionRegistryImpl implements OrderedSessionRegistry, ApplicationListener<SessionDestroyedEvent> {
 
     //~ Instance fields ================================================================================================
 
     protected final Log logger = LogFactory.getLog(SessionRegistryImpl.class);
 
-    /** <principal:Object,SessionIdSet> */
-    private final Map<Object,Set<String>> principals = Collections.synchronizedMap(new HashMap<Object,Set<String>>());
-    /** <sessionId:Object,SessionInformation> */
-    private final Map<String, SessionInformation> sessionIds = Collections.synchronizedMap(new HashMap<String, SessionInformation>());
+    /** <principal:Object,PrincipalSessions> */
+    private final ConcurrentMap<Object,PrincipalSessions> principals = new ConcurrentHashMap<Object,PrincipalSessions>();
+    /** <sessionId:Object,RegisteredSession> */
+    private final ConcurrentMap<String, RegisteredSession> sessionIds =
+        new ConcurrentHashMap<String, RegisteredSession>();
+
+    /** Position of an incremental scan by {@link #removeIdleSessions(long, int)} */
+    private Iterator<RegisteredSession> idleScanCursor;
+    private final Object idleScanMonitor = new Object();
+    private final AtomicLong idleSessionsRemoved = new AtomicLong();
 
     //~ Methods ========================================================================================================
 
     public List<Object> getAllPrincipals() {
-        return Arrays.asList(principals.keySet().toArray());
+        return new ArrayList<Object>(principals.keySet());
     }
 
     public List<SessionInformation> getAllSessions(Object principal, boolean includeExpiredSessions) {
-        final Set<String> sessionsUsedByPrincipal = principals.get(principal);
+        final PrincipalSessions sessionsUsedByPrincipal = principals.get(principal);
 
         if (sessionsUsedByPrincipal == null) {
             return Collections.emptyList();
@@ -68,27 +83,58 @@ public class SessionRegistryImpl implements SessionRegistry, ApplicationListener
 
         List<SessionInformation> list = new ArrayList<SessionInformation>(sessionsUsedByPrincipal.size());
 
-        synchronized (sessionsUsedByPrincipal) {
-            for (String sessionId : sessionsUsedByPrincipal) {
-                SessionInformation sessionInformation = getSessionInformation(sessionId);
-
-                if (sessionInformation == null) {
-                    continue;
-                }
-
-                if (includeExpiredSessions || !sessionInformation.isExpired()) {
-                    list.add(sessionInformation);
-                }
+        for (SessionInformation sessionInformation : sessionsUsedByPrincipal.sessions.values()) {
+            if (includeExpiredSessions || !sessionInformation.isExpired()) {
+                list.add(sessionInformation);
             }
         }
 
         return list;
     }
 
+    /**
+     * Returns the number of sessions (including expired ones) registered for the principal, without
+     * building the list of sessions.
+     *
+     * @param principal to count the sessions of
+     * @return the number of registered sessions
+     */
+    public int getSessionCount(Object principal) {
+        final PrincipalSessions sessionsUsedByPrincipal = principals.get(principal);
+
+        return sessionsUsedByPrincipal == null ? 0 : sessionsUsedByPrincipal.size();
+    }
+
+    public int getUnexpiredSessionCount(Object principal) {
+        final PrincipalSessions sessionsUsedByPrincipal = principals.get(principal);
+
+        return sessionsUsedByPrincipal == null ? 0 : sessionsUsedByPrincipal.unexpiredCount.get();
+    }
+
+    public SessionInformation getLeastRecentlyUsedSession(Object principal) {
+        final PrincipalSessions sessionsUsedByPrincipal = principals.get(principal);
+
+        return sessionsUsedByPrincipal == null ? null : sessionsUsedByPrincipal.leastRecentlyUsed();
+    }
+
+    /**
+     * @return the total number of sessions in the registry
+     */
+    public int getSessionCount() {
+        return sessionIds.size();
+    }
+
+    /**
+     * @return the number of sessions which have been removed by {@link #removeIdleSessions(long, int)}
+     */
+    public long getIdleSessionsRemoved() {
+        return idleSessionsRemoved.get();
+    }
+
     public SessionInformation getSessionInformation(String sessionId) {
         Assert.hasText(sessionId, "SessionId required as per interface contract");
 
-        return (SessionInformation) sessionIds.get(sessionId);
+        return sessionIds.get(sessionId);
     }
 
     public void onApplicationEvent(SessionDestroyedEvent event) {
@@ -106,7 +152,7 @@ public class SessionRegistryImpl implements SessionRegistry, ApplicationListener
         }
     }
 
-    public synchronized void registerNewSession(String sessionId, Object principal) {
+    public void registerNewSession(String sessionId, Object principal) {
         Assert.hasText(sessionId, "SessionId required as per interface contract");
         Assert.notNull(principal, "Principal required as per interface contract");
 
@@ -114,30 +160,50 @@ public class SessionRegistryImpl implements SessionRegistry, ApplicationListener
             logger.debug("Registering session " + sessionId +", for principal " + principal);
         }
 
-        if (getSessionInformation(sessionId) != null) {
-            removeSessionInformation(sessionId);
+        RegisteredSession info = new RegisteredSession(principal, sessionId, new Date());
+        RegisteredSession previous = sessionIds.put(sessionId, info);
+
+        if (previous != null) {
+            removeFromPrincipal(previous);
         }
 
-        sessionIds.put(sessionId, new SessionInformation(principal, sessionId, new Date()));
+        PrincipalSessions sessionsUsedByPrincipal;
 
-        Set<String> sessionsUsedByPrincipal = principals.get(principal);
+        while (true) {
+            sessionsUsedByPrincipal = principals.get(principal);
 
-        if (sessionsUsedByPrincipal == null) {
-            sessionsUsedByPrincipal = Collections.synchronizedSet(new HashSet<String>(4));
-            principals.put(principal, sessionsUsedByPrincipal);
+            if (sessionsUsedByPrincipal == null) {
+                sessionsUsedByPrincipal = new PrincipalSessions();
+                PrincipalSessions existing = principals.putIfAbsent(principal, sessionsUsedByPrincipal);
+
+                if (existing != null) {
+                    sessionsUsedByPrincipal = existing;
+                }
+            }
+
+            if (sessionsUsedByPrincipal.add(info)) {
+                break;
+            }
+
+            // The set was emptied and retired by a concurrent removal. Make sure it has gone and try again.
+            principals.remove(principal, sessionsUsedByPrincipal);
         }
 
-        sessionsUsedByPrincipal.add(sessionId);
+        // If the session was removed (or re-registered) while we were adding it to the principal's set, the removing
+        // thread may not have seen our entry, so undo it
+        if (sessionIds.get(sessionId) != info) {
+            removeFromPrincipal(info);
+        }
 
         if (logger.isTraceEnabled()) {
-            logger.trace("Sessions used by '" + principal + "' : " + sessionsUsedByPrincipal);
+            logger.trace("Sessions used by '" + principal + "' : " + sessionsUsedByPrincipal.sessions.keySet());
         }
     }
 
     public void removeSessionInformation(String sessionId) {
         Assert.hasText(sessionId, "SessionId required as per interface contract");
 
-        SessionInformation info = getSessionInformation(sessionId);
+        RegisteredSession info = sessionIds.remove(sessionId);
 
         if (info == null) {
             return;
@@ -147,32 +213,243 @@ public class SessionRegistryImpl implements SessionRegistry, ApplicationListener
             logger.debug("Removing session " + sessionId + " from set of registered sessions");
         }
 
-        sessionIds.remove(sessionId);
+        removeFromPrincipal(info);
+    }
+
+    /**
+     * Removes sessions which have not been used for longer than <tt>maxIdleTime</tt>. This is a safety net for
+     * sessions whose {@link SessionDestroyedEvent} was never received (for example because a node failed), which
+     * would otherwise remain in the registry forever.
+     * <p>
+     * Each call examines at most <tt>batchSize</tt> sessions, continuing from where the previous call stopped, so a
+     * large registry can be swept incrementally without blocking other operations. No lock is held on the registry
+     * while doing so.
+     *
+     * @param maxIdleTime the time in milliseconds since its last request after which a session is removed
+     * @param batchSize the maximum number of sessions to examine
+     * @return the number of sessions examined. If this is less than <tt>batchSize</tt>, the end of the registry was
+     * reached and the next call will start a new pass.
+     */
+    public int removeIdleSessions(long maxIdleTime, int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        long cutoff = System.currentTimeMillis() - maxIdleTime;
+        int examined = 0;
+
+        synchronized (idleScanMonitor) {
+            if (idleScanCursor == null) {
+                idleScanCursor = sessionIds.values().iterator();
+            }
+
+            while (examined < batchSize && idleScanCursor.hasNext()) {
+                RegisteredSession info = idleScanCursor.next();
+                examined++;
+
+                if (info.getLastRequestTime() < cutoff && sessionIds.remove(info.getSessionId(), info)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Removing session " + info.getSessionId() + " which has been idle since " +
+                                info.getLastRequest());
+                    }
+                    removeFromPrincipal(info);
+                    idleSessionsRemoved.incrementAndGet();
+                }
+            }
+
+            if (examined < batchSize) {
+                idleScanCursor = null;
+            }
+        }
+
+        return examined;
+    }
 
-        Set<String> sessionsUsedByPrincipal = principals.get(info.getPrincipal());
+    private void removeFromPrincipal(RegisteredSession info) {
+        Object principal = info.getPrincipal();
+        PrincipalSessions sessionsUsedByPrincipal = principals.get(principal);
 
         if (sessionsUsedByPrincipal == null) {
             return;
         }
 
         if (logger.isDebugEnabled()) {
-            logger.debug("Removing session " + sessionId + " from principal's set of registered sessions");
+            logger.debug("Removing session " + info.getSessionId() + " from principal's set of registered sessions");
         }
 
-        synchronized (sessionsUsedByPrincipal) {
-            sessionsUsedByPrincipal.remove(sessionId);
+        if (sessionsUsedByPrincipal.remove(info)) {
+            // No need to keep object in principals Map anymore
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removing principal " + principal + " from registry");
+            }
+            principals.remove(principal, sessionsUsedByPrincipal);
+        }
 
-            if (sessionsUsedByPrincipal.size() == 0) {
-                // No need to keep object in principals Map anymore
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Removing principal " + info.getPrincipal() + " from registry");
+        if (logger.isTraceEnabled()) {
+            logger.trace("Sessions used by '" + principal + "' : " + sessionsUsedByPrincipal.sessions.keySet());
+        }
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * The sessions belonging to a single principal.
+     * <p>
+     * The <tt>count</tt> is incremented before an entry is added and decremented after one is removed, so it is
+     * never less than the number of entries. Once it drops to zero the instance can be retired by setting it to -1,
+     * after which no more sessions can be added and the instance must be replaced in the <tt>principals</tt> map.
+     * <p>
+     * The unexpired sessions are also linked into a list in order of last use, which is guarded by the instance's
+     * monitor. The size of the list is mirrored in <tt>unexpiredCount</tt> so that it can be read without locking.
+     */
+    private static final class PrincipalSessions {
+        final ConcurrentMap<String, RegisteredSession> sessions =
+            new ConcurrentHashMap<String, RegisteredSession>(4, 0.75f, 1);
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger unexpiredCount = new AtomicInteger();
+        private RegisteredSession head;
+        private RegisteredSession tail;
+
+        /**
+         * @return false if this instance has been retired and the session was not added
+         */
+        boolean add(RegisteredSession info) {
+            int c;
+
+            do {
+                c = count.get();
+
+                if (c < 0) {
+                    return false;
                 }
-                principals.remove(info.getPrincipal());
+            } while (!count.compareAndSet(c, c + 1));
+
+            RegisteredSession replaced = sessions.put(info.getSessionId(), info);
+
+            if (replaced != null) {
+                // Replaced an existing entry for the same session, so the number of entries is unchanged
+                count.decrementAndGet();
+                unlink(replaced);
             }
+
+            // Publish the owner before checking the expired flag, so that a concurrent expireNow() either sees the
+            // owner and unlinks the session, or has already set the flag which is checked below
+            info.owner = this;
+
+            synchronized (this) {
+                if (!info.isExpired() && sessions.get(info.getSessionId()) == info) {
+                    append(info);
+                    unexpiredCount.incrementAndGet();
+                }
+            }
+
+            return true;
         }
 
-        if (logger.isTraceEnabled()) {
-            logger.trace("Sessions used by '" + info.getPrincipal() + "' : " + sessionsUsedByPrincipal);
+        /**
+         * Removes the entry for the session, if it is still mapped to the given information.
+         *
+         * @return true if this instance was emptied and retired as a result
+         */
+        boolean remove(RegisteredSession info) {
+            if (!sessions.remove(info.getSessionId(), info)) {
+                return false;
+            }
+
+            unlink(info);
+
+            return count.decrementAndGet() == 0 && count.compareAndSet(0, -1);
+        }
+
+        int size() {
+            return sessions.size();
+        }
+
+        synchronized RegisteredSession leastRecentlyUsed() {
+            return head;
+        }
+
+        /**
+         * Removes the session from the list of unexpired sessions, if it is in it.
+         */
+        synchronized void unlink(RegisteredSession info) {
+            if (info.linked) {
+                detach(info);
+                unexpiredCount.decrementAndGet();
+            }
+        }
+
+        /**
+         * Moves the session to the most recently used end of the list, if it is in it.
+         */
+        synchronized void moveToTail(RegisteredSession info) {
+            if (info.linked && tail != info) {
+                detach(info);
+                append(info);
+            }
+        }
+
+        private void append(RegisteredSession info) {
+            info.previous = tail;
+            info.next = null;
+
+            if (tail == null) {
+                head = info;
+            } else {
+                tail.next = info;
+            }
+
+            tail = info;
+            info.linked = true;
+        }
+
+        private void detach(RegisteredSession info) {
+            if (info.previous == null) {
+                head = info.next;
+            } else {
+                info.previous.next = info.next;
+            }
+
+            if (info.next == null) {
+                tail = info.previous;
+            } else {
+                info.next.previous = info.previous;
+            }
+
+            info.previous = null;
+            info.next = null;
+            info.linked = false;
+        }
+    }
+
+    /**
+     * Keeps the position of the session in its principal's list of unexpired sessions up to date.
+     */
+    private static final class RegisteredSession extends SessionInformation {
+        /** The principal's sessions, once this session has been added to them */
+        transient volatile PrincipalSessions owner;
+        // Guarded by the owner's monitor
+        transient RegisteredSession previous;
+        transient RegisteredSession next;
+        transient boolean linked;
+
+        RegisteredSession(Object principal, String sessionId, Date lastRequest) {
+            super(principal, sessionId, lastRequest);
+        }
+
+        public void expireNow() {
+            super.expireNow();
+            PrincipalSessions sessionsUsedByPrincipal = owner;
+
+            if (sessionsUsedByPrincipal != null) {
+                sessionsUsedByPrincipal.unlink(this);
+            }
+        }
+
+        public void refreshLastRequest(long now) {
+            super.refreshLastRequest(now);
+            PrincipalSessions sessionsUsedByPrincipal = owner;
+
+            if (sessionsUsedByPrincipal != null) {
+                sessionsUsedByPrincipal.moveToTail(this);
+            }
         }
     }
 }
@@ -0,0 +1,141 @@
+package org.springframework.security.core.session;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Periodically removes sessions from a {@link SessionRegistryImpl} which have been idle for longer than
+ * <tt>maxIdleTime</tt>.
+ * <p>
+ * The registry normally relies on receiving a {@link SessionDestroyedEvent} for every session which ends. If these
+ * events are lost (if a cluster node crashes or the <tt>HttpSessionEventPublisher</tt> is not registered, for
+ * example) the registry will otherwise grow without bound. <tt>maxIdleTime</tt> should therefore be comfortably
+ * longer than the container's session timeout, so that sessions are only removed here if they really have been
+ * orphaned.
+ * <p>
+ * Every <tt>sweepInterval</tt> milliseconds, a background thread makes a full pass over the registry using
+ * {@link SessionRegistryImpl#removeIdleSessions(long, int)}, examining <tt>batchSize</tt> sessions at a time.
+ *
+ * @since 3.0.2
+ */
+public class SessionRegistrySweeper implements InitializingBean, DisposableBean {
+    //~ Static fields/initializers =====================================================================================
+
+    private static final Log logger = LogFactory.getLog(SessionRegistrySweeper.class);
+
+    //~ Instance fields ================================================================================================
+
+    private SessionRegistryImpl sessionRegistry;
+    private long maxIdleTime;
+    private long sweepInterval = 60000;
+    private int batchSize = 1000;
+    private ScheduledExecutorService scheduler;
+    private final AtomicLong sweepCount = new AtomicLong();
+
+    //~ Methods ========================================================================================================
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.notNull(sessionRegistry, "sessionRegistry is required");
+        Assert.isTrue(maxIdleTime > 0, "maxIdleTime must be greater than zero");
+        Assert.isTrue(sweepInterval > 0, "sweepInterval must be greater than zero");
+        Assert.isTrue(batchSize > 0, "batchSize must be greater than zero");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "session-registry-sweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    logger.error("Failed to sweep session registry", e);
+                }
+            }
+        }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Makes a single pass over the registry, removing idle sessions.
+     */
+    public void sweep() {
+        long removedBefore = sessionRegistry.getIdleSessionsRemoved();
+
+        while (sessionRegistry.removeIdleSessions(maxIdleTime, batchSize) == batchSize) {
+            // Let other threads in between batches
+            Thread.yield();
+        }
+
+        sweepCount.incrementAndGet();
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removed " + (sessionRegistry.getIdleSessionsRemoved() - removedBefore) +
+                    " idle sessions. Registry now contains " + sessionRegistry.getSessionCount() + " sessions");
+        }
+    }
+
+    /**
+     * @return the number of sessions currently in the registry
+     */
+    public int getRegistrySize() {
+        return sessionRegistry.getSessionCount();
+    }
+
+    /**
+     * @return the total number of idle sessions which have been removed from the registry
+     */
+    public long getEvictionCount() {
+        return sessionRegistry.getIdleSessionsRemoved();
+    }
+
+    /**
+     * @return the number of completed passes over the registry
+     */
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    public void setSessionRegistry(SessionRegistryImpl sessionRegistry) {
+        this.sessionRegistry = sessionRegistry;
+    }
+
+    /**
+     * The time in milliseconds since its last request after which a session is considered orphaned and removed.
+     * Required.
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * The delay in milliseconds between passes over the registry. Defaults to 60000.
+     */
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
+    /**
+     * The number of sessions examined at a time. Defaults to 1000.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
@@ -28,12 +28,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.ITargetObject;
 import org.springframework.security.TargetObject;
 import org.springframework.security.access.AccessDecisionManager;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.ConfigAttribute;
 import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.access.event.AuthorizedEvent;
 import org.springframework.security.access.intercept.AfterInvocationManager;
 import org.springframework.security.access.intercept.RunAsManager;
 import org.springframework.security.access.intercept.RunAsUserToken;
@@ -254,6 +256,24 @@ public class MethodSecurityInterceptorTests {
         assertEquals("hello org.springframework.security.authentication.TestingAuthenticationToken true", result);
     }
 
+    @Test
+    public void authorizedEventIsPublishedUnlessDisabled() throws Exception {
+        final ApplicationEventPublisher publisher = jmock.mock(ApplicationEventPublisher.class);
+        interceptor.setApplicationEventPublisher(publisher);
+        token.setAuthenticated(true);
+        SecurityContextHolder.getContext().setAuthentication(token);
+        jmock.checking(new Expectations() {{
+           exactly(2).of(mds).getAttributes(with(any(MethodInvocation.class)));
+               will(returnValue(SecurityConfig.createList("ROLE_USER")));
+           exactly(2).of(adm).decide(with(token), with(aNonNull(MethodInvocation.class)), with(aNonNull(List.class)));
+           oneOf(publisher).publishEvent(with(any(AuthorizedEvent.class)));
+        }});
+
+        advisedTarget.makeLowerCase("HELLO");
+        interceptor.setPublishAuthorizationSuccess(false);
+        advisedTarget.makeLowerCase("HELLO");
+    }
+
     @Test(expected=AccessDeniedException.class)
     public void callIsntMadeWhenAccessDecisionManagerRejectsAccess() throws Exception {
         SecurityContextHolder.getContext().setAuthentication(token);
@@ -0,0 +1,136 @@
+package org.springframework.security.authentication;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Tests {@link BoundedAuthenticationExecutor}.
+ */
+public class BoundedAuthenticationExecutorTests {
+    private BoundedAuthenticationExecutor executor;
+    private CountDownLatch release;
+    private TestingAuthenticationToken token = new TestingAuthenticationToken("joe", "password");
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new BoundedAuthenticationExecutor();
+        executor.setPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setTimeout(2000);
+        executor.afterPropertiesSet();
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    public void resultFromProviderIsReturned() throws Exception {
+        assertSame(token, executor.authenticate(new TestingAuthenticationProvider(), token));
+        assertEquals(1, executor.getCompletedCount());
+        assertEquals(0, executor.getQueueDepth());
+        assertTrue(executor.getAverageServiceTime() >= 0);
+    }
+
+    @Test(expected=BadCredentialsException.class)
+    public void authenticationExceptionFromProviderIsRethrown() throws Exception {
+        executor.authenticate(new ThrowingProvider(new BadCredentialsException("")), token);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void runtimeExceptionFromProviderIsRethrown() throws Exception {
+        executor.authenticate(new ThrowingProvider(new IllegalStateException()), token);
+    }
+
+    @Test
+    public void requestIsRejectedWhenQueueIsFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AuthenticationProvider blocking = new BlockingProvider(started);
+
+        // One request occupies the single thread, the second sits in the queue
+        startInBackground(blocking);
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        startInBackground(blocking);
+        waitForQueueDepth(1);
+
+        try {
+            executor.authenticate(blocking, token);
+            fail("Expected AuthenticationServiceSaturatedException");
+        } catch (AuthenticationServiceSaturatedException expected) {
+        }
+        assertEquals(1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void requestTimesOutIfProviderDoesNotComplete() throws Exception {
+        executor.setTimeout(50);
+
+        try {
+            executor.authenticate(new BlockingProvider(new CountDownLatch(1)), token);
+            fail("Expected AuthenticationServiceSaturatedException");
+        } catch (AuthenticationServiceSaturatedException expected) {
+        }
+        assertEquals(1, executor.getTimeoutCount());
+    }
+
+    private void startInBackground(final AuthenticationProvider provider) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    executor.authenticate(provider, token);
+                } catch (AuthenticationException ignored) {
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void waitForQueueDepth(int depth) throws InterruptedException {
+        for (int i=0; i < 200 && executor.getQueueDepth() < depth; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, executor.getQueueDepth());
+    }
+
+    private class BlockingProvider extends TestingAuthenticationProvider {
+        private final CountDownLatch started;
+
+        BlockingProvider(CountDownLatch started) {
+            this.started = started;
+        }
+
+        public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return authentication;
+        }
+    }
+
+    private static class ThrowingProvider extends TestingAuthenticationProvider {
+        private final RuntimeException e;
+
+        ThrowingProvider(RuntimeException e) {
+            this.e = e;
+        }
+
+        public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+            throw e;
+        }
+    }
+}
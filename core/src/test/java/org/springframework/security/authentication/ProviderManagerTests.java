@@ -21,6 +21,7 @@ import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
@@ -165,9 +166,150 @@ public class ProviderManagerTests {
             fail("Expected AccountStatusException");
         } catch (AccountStatusException expected) {
         }
-        verifyZeroInteractions(otherProvider);
+        verify(otherProvider, never()).authenticate(any(Authentication.class));
     }
 
+    @Test
+    public void saturatedExceptionPreventsCallsToSubsequentProviders() throws Exception {
+        ProviderManager authMgr = makeProviderManager();
+        AuthenticationProvider otherProvider = mock(AuthenticationProvider.class);
+        authMgr.setProviders(Arrays.asList(createProviderWhichThrows(new AuthenticationServiceSaturatedException("")),
+                otherProvider));
+
+        try {
+            authMgr.authenticate(mock(Authentication.class));
+            fail("Expected AuthenticationServiceSaturatedException");
+        } catch (AuthenticationServiceSaturatedException expected) {
+        }
+        verify(otherProvider, never()).authenticate(any(Authentication.class));
+    }
+
+    @Test
+    public void providersAreInvokedOnExecutorIfSet() throws Exception {
+        final Authentication a = mock(Authentication.class);
+        ProviderManager mgr = new ProviderManager();
+        mgr.setProviders(Arrays.asList(createProviderWhichReturns(a)));
+        BoundedAuthenticationExecutor executor = new BoundedAuthenticationExecutor();
+        executor.afterPropertiesSet();
+        mgr.setAuthenticationExecutor(executor);
+        mgr.setOffloadedProviderTypes(Collections.<Class<? extends AuthenticationProvider>>singleton(
+                AuthenticationProvider.class));
+
+        assertSame(a, mgr.authenticate(a));
+        assertEquals(1, executor.getCompletedCount());
+        executor.destroy();
+    }
+
+    @Test
+    public void providersWhichAreNotOffloadedAreInvokedOnCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final Authentication a = mock(Authentication.class);
+        ProviderManager mgr = new ProviderManager();
+        mgr.setProviders(Arrays.asList(new MockProvider() {
+            public Authentication authenticate(Authentication authentication) {
+                assertSame(caller, Thread.currentThread());
+                return a;
+            }
+
+            public boolean supports(Class<? extends Object> authentication) {
+                return true;
+            }
+        }));
+        BoundedAuthenticationExecutor executor = new BoundedAuthenticationExecutor();
+        executor.afterPropertiesSet();
+        mgr.setAuthenticationExecutor(executor);
+
+        assertSame(a, mgr.authenticate(a));
+        assertEquals(0, executor.getCompletedCount());
+        executor.destroy();
+    }
+
+    @Test
+    public void supportingProvidersAreOnlyDeterminedOncePerAuthenticationClass() throws Exception {
+        ProviderManager mgr = new ProviderManager();
+        final Authentication a = mock(Authentication.class);
+        AuthenticationProvider unsupported = mock(AuthenticationProvider.class);
+        AuthenticationProvider supported = createProviderWhichReturns(a);
+        mgr.setProviders(Arrays.asList(unsupported, supported));
+
+        mgr.authenticate(a);
+        mgr.authenticate(a);
+
+        verify(unsupported, times(1)).supports(a.getClass());
+        verify(supported, times(1)).supports(a.getClass());
+        verify(supported, times(2)).authenticate(a);
+        verify(unsupported, never()).authenticate(any(Authentication.class));
+    }
+
+    @Test
+    public void supportingProvidersAreDeterminedPerRequestIfCachingIsDisabled() throws Exception {
+        ProviderManager mgr = new ProviderManager();
+        final Authentication a = mock(Authentication.class);
+        AuthenticationProvider supported = createProviderWhichReturns(a);
+        mgr.setProviders(Arrays.asList(supported));
+        mgr.setCacheProviderLookups(false);
+
+        mgr.authenticate(a);
+        mgr.authenticate(a);
+
+        verify(supported, times(2)).supports(a.getClass());
+    }
+
+    @Test
+    public void lookupMadeFromReplacedProvidersIsNotCached() throws Exception {
+        final ProviderManager mgr = new ProviderManager();
+        final Authentication a = mock(Authentication.class);
+        final Authentication b = mock(Authentication.class);
+        final AuthenticationProvider replacement = createProviderWhichReturns(b);
+        // Replaces the providers while the lookup for the old providers is in progress
+        AuthenticationProvider original = new MockProvider() {
+            public Authentication authenticate(Authentication authentication) {
+                return a;
+            }
+
+            public boolean supports(Class<? extends Object> authentication) {
+                mgr.setProviders(Arrays.asList(replacement));
+                return true;
+            }
+        };
+        mgr.setProviders(Arrays.asList(original));
+
+        assertSame(a, mgr.authenticate(a));
+        assertSame(b, mgr.authenticate(a));
+    }
+
+    @Test
+    public void providersSuppliedByOverriddenGetProvidersAreUsed() throws Exception {
+        final Authentication a = mock(Authentication.class);
+        final Authentication b = mock(Authentication.class);
+        final List<List<AuthenticationProvider>> supplied = new ArrayList<List<AuthenticationProvider>>();
+        supplied.add(Arrays.asList(createProviderWhichReturns(a)));
+        ProviderManager mgr = new ProviderManager() {
+            public List<AuthenticationProvider> getProviders() {
+                return supplied.get(supplied.size() - 1);
+            }
+        };
+
+        assertSame(a, mgr.authenticate(a));
+        supplied.add(Arrays.asList(createProviderWhichReturns(b)));
+        assertSame(b, mgr.authenticate(a));
+
+        mgr.setCacheProviderLookups(false);
+        supplied.add(Arrays.asList(createProviderWhichReturns(a)));
+        assertSame(a, mgr.authenticate(a));
+    }
+
+    @Test
+    public void settingProvidersDiscardsCachedLookups() throws Exception {
+        ProviderManager mgr = new ProviderManager();
+        final Authentication a = mock(Authentication.class);
+        final Authentication b = mock(Authentication.class);
+        mgr.setProviders(Arrays.asList(createProviderWhichReturns(a)));
+        assertSame(a, mgr.authenticate(a));
+
+        mgr.setProviders(Arrays.asList(createProviderWhichReturns(b)));
+        assertSame(b, mgr.authenticate(a));
+    }
 
     @Test
     public void parentAuthenticationIsUsedIfProvidersDontAuthenticate() throws Exception {
@@ -0,0 +1,79 @@
+package org.springframework.security.authentication.encoding;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link BufferedMessageDigestPasswordEncoder}.
+ */
+public class BufferedMessageDigestPasswordEncoderTests {
+    private static final String SALT = "THIS_IS_A_SALT";
+
+    @Test
+    public void encodedValuesMatchThoseOfStandardEncoder() {
+        String[] passwords = {"abc123", "", "p\u00e4ssw\u00f6rd", "\u20ac\u4e2d\ud83d\ude00", "bad\ud800surrogate"};
+        Object[] salts = {SALT, null, "", new Integer(42)};
+
+        for (String algorithm : new String[] {"MD5", "SHA-1", "SHA-256"}) {
+            for (int iterations : new int[] {1, 1000}) {
+                for (boolean base64 : new boolean[] {false, true}) {
+                    MessageDigestPasswordEncoder standard = new MessageDigestPasswordEncoder(algorithm, base64);
+                    BufferedMessageDigestPasswordEncoder buffered =
+                        new BufferedMessageDigestPasswordEncoder(algorithm, base64);
+                    standard.setIterations(iterations);
+                    buffered.setIterations(iterations);
+
+                    for (String password : passwords) {
+                        for (Object salt : salts) {
+                            String expected = standard.encodePassword(password, salt);
+                            assertEquals(expected, buffered.encodePassword(password, salt));
+                            assertEquals(expected, buffered.encodePassword(password.toCharArray(), salt));
+                            assertTrue(buffered.isPasswordValid(expected, password, salt));
+                            assertTrue(buffered.isPasswordValid(expected, password.toCharArray(), salt));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void knownShaValueIsProduced() {
+        BufferedMessageDigestPasswordEncoder pe = new BufferedMessageDigestPasswordEncoder("SHA");
+        assertEquals("b2f50ffcbd3407fe9415c062d55f54731f340d32", pe.encodePassword("abc123", SALT));
+    }
+
+    @Test
+    public void invalidPasswordsAreRejected() {
+        BufferedMessageDigestPasswordEncoder pe = new BufferedMessageDigestPasswordEncoder("SHA");
+        pe.setIterations(10);
+        String encoded = pe.encodePassword("abc123", SALT);
+
+        assertFalse(pe.isPasswordValid(encoded, "abc321", SALT));
+        assertFalse(pe.isPasswordValid(encoded, "abc123".toCharArray(), "OTHER_SALT"));
+        assertFalse(pe.isPasswordValid(encoded.substring(1), "abc123", SALT));
+        assertFalse(pe.isPasswordValid(encoded + "0", "abc123", SALT));
+        assertFalse(pe.isPasswordValid(null, "abc123", SALT));
+    }
+
+    @Test
+    public void nullPasswordIsTreatedAsEmpty() {
+        BufferedMessageDigestPasswordEncoder pe = new BufferedMessageDigestPasswordEncoder("MD5");
+        assertEquals(new Md5PasswordEncoder().encodePassword(null, SALT), pe.encodePassword((String) null, SALT));
+        assertEquals(pe.encodePassword("", null), pe.encodePassword((char[]) null, null));
+    }
+
+    @Test
+    public void suppliedCharArrayIsNotModified() {
+        BufferedMessageDigestPasswordEncoder pe = new BufferedMessageDigestPasswordEncoder("MD5");
+        char[] password = "abc123".toCharArray();
+        pe.encodePassword(password, SALT);
+        assertArrayEquals("abc123".toCharArray(), password);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownAlgorithmIsRejected() {
+        new BufferedMessageDigestPasswordEncoder("NOSUCHALGORITHM");
+    }
+}
@@ -0,0 +1,114 @@
+package org.springframework.security.authentication.encoding;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.springframework.security.core.codec.Hex;
+
+/**
+ * Tests {@link Pbkdf2PasswordEncoder}.
+ */
+public class Pbkdf2PasswordEncoderTests {
+
+    // Test vectors from RFC 6070
+    @Test
+    public void derivedKeysMatchPublishedTestVectors() throws Exception {
+        assertEquals("0c60c80f961f0e71f3a9b524af6012062fe037a6", pbkdf2("password", "salt", 1, 20));
+        assertEquals("ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957", pbkdf2("password", "salt", 2, 20));
+        assertEquals("4b007901b765489abead49d926f721d065a429c1", pbkdf2("password", "salt", 4096, 20));
+        assertEquals("3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038",
+                pbkdf2("passwordPASSWORDpassword", "saltSALTsaltSALTsaltSALTsaltSALTsalt", 4096, 25));
+        assertEquals("56fa6aa75548099dcc37d7f03425e0c3", pbkdf2("pass\0word", "sa\0lt", 4096, 16));
+    }
+
+    @Test
+    public void encodedPasswordIsValid() {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setIterations(100);
+        String encoded = pe.encodePassword("abc123", "THIS_IS_A_SALT");
+
+        assertTrue(encoded.startsWith("$pbkdf2$HmacSHA1$100$"));
+        assertTrue(pe.isPasswordValid(encoded, "abc123", "THIS_IS_A_SALT"));
+        assertFalse(pe.isPasswordValid(encoded, "abc321", "THIS_IS_A_SALT"));
+        assertFalse(pe.isPasswordValid(encoded, "abc123", "OTHER_SALT"));
+        assertFalse(pe.isPasswordValid(encoded, "abc123", null));
+    }
+
+    @Test
+    public void randomSaltMakesEncodedValuesUnique() {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setIterations(10);
+        assertFalse(pe.encodePassword("abc123", null).equals(pe.encodePassword("abc123", null)));
+    }
+
+    @Test
+    public void emptyPasswordCanBeEncoded() {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setIterations(10);
+        String encoded = pe.encodePassword(null, null);
+        assertTrue(pe.isPasswordValid(encoded, "", null));
+        assertFalse(pe.isPasswordValid(encoded, "x", null));
+    }
+
+    @Test
+    public void passwordsEncodedWithOldParametersStillVerifyButRequireUpgrade() {
+        Pbkdf2PasswordEncoder old = new Pbkdf2PasswordEncoder();
+        old.setIterations(10);
+        String encoded = old.encodePassword("abc123", null);
+
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder("HmacSHA256");
+        pe.setIterations(20);
+        assertTrue(pe.isPasswordValid(encoded, "abc123", null));
+        assertTrue(pe.isUpgradeRequired(encoded));
+
+        String upgraded = pe.encodePassword("abc123", null);
+        assertTrue(upgraded.startsWith("$pbkdf2$HmacSHA256$20$"));
+        assertFalse(pe.isUpgradeRequired(upgraded));
+        assertTrue(pe.isUpgradeRequired("5f4dcc3b5aa765d61d8327deb882cf99"));
+    }
+
+    @Test
+    public void invalidEncodedValuesAreRejected() {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setIterations(10);
+        assertFalse(pe.isPasswordValid(null, "abc123", null));
+        assertFalse(pe.isPasswordValid("abc123", "abc123", null));
+        assertFalse(pe.isPasswordValid("$pbkdf2$HmacSHA1$ten$AAAA$AAAA", "abc123", null));
+        assertFalse(pe.isPasswordValid("$pbkdf2$HmacSHA1$10$A!AA$AAAA", "abc123", null));
+        assertFalse(pe.isPasswordValid("$pbkdf2$NoSuchMac$10$AAAA$AAAA", "abc123", null));
+    }
+
+    @Test
+    public void calibrationChoosesAtLeastMinimumIterations() throws Exception {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setTargetVerifyTime(1);
+        pe.setMinIterations(500);
+        pe.afterPropertiesSet();
+
+        assertTrue(pe.getIterations() >= 500);
+        assertTrue(pe.isPasswordValid(pe.encodePassword("abc123", null), "abc123", null));
+    }
+
+    @Test
+    public void explicitIterationsDisableCalibration() throws Exception {
+        Pbkdf2PasswordEncoder pe = new Pbkdf2PasswordEncoder();
+        pe.setIterations(3);
+        pe.afterPropertiesSet();
+        assertEquals(3, pe.getIterations());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void encodingFailsIfIterationsNotSetOrCalibrated() {
+        new Pbkdf2PasswordEncoder().encodePassword("abc123", null);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownAlgorithmIsRejected() {
+        new Pbkdf2PasswordEncoder("NoSuchMac");
+    }
+
+    private String pbkdf2(String password, String salt, int iterations, int length) throws Exception {
+        return new String(Hex.encode(Pbkdf2PasswordEncoder.pbkdf2("HmacSHA1", password.getBytes("UTF-8"),
+                salt.getBytes("UTF-8"), iterations, length)));
+    }
+}
@@ -0,0 +1,145 @@
+package org.springframework.security.core.context;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Tests {@link DelegatingSecurityContextExecutorService} and the task wrappers it uses.
+ */
+public class DelegatingSecurityContextExecutorServiceTests {
+    private ExecutorService pool;
+    private Authentication joe = new TestingAuthenticationToken("joe", "password", "ROLE_A");
+    private Authentication system = new TestingAuthenticationToken("system", "password", "ROLE_SYSTEM");
+
+    @Before
+    public void createPool() {
+        pool = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void shutdownPool() throws Exception {
+        SecurityContextHolder.clearContext();
+        pool.shutdownNow();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private static Callable<Authentication> currentAuthentication() {
+        return new Callable<Authentication>() {
+            public Authentication call() {
+                return SecurityContextHolder.getContext().getAuthentication();
+            }
+        };
+    }
+
+    private static SecurityContext contextFor(Authentication authentication) {
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(authentication);
+        return context;
+    }
+
+    @Test
+    public void callableRunsWithSubmittingThreadsContext() throws Exception {
+        ExecutorService executor = new DelegatingSecurityContextExecutorService(pool);
+        SecurityContextHolder.getContext().setAuthentication(joe);
+
+        assertSame(joe, executor.submit(currentAuthentication()).get());
+        // The pool thread is left without a context
+        SecurityContextHolder.clearContext();
+        assertNull(pool.submit(currentAuthentication()).get());
+    }
+
+    @Test
+    public void fixedContextIsUsedIfSupplied() throws Exception {
+        ExecutorService executor = new DelegatingSecurityContextExecutorService(pool, contextFor(system));
+        SecurityContextHolder.getContext().setAuthentication(joe);
+
+        assertSame(system, executor.submit(currentAuthentication()).get());
+        assertSame(joe, SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    @Test
+    public void runnableAndExecuteUseContext() throws Exception {
+        final AtomicReference<Authentication> seen = new AtomicReference<Authentication>();
+        Runnable task = new Runnable() {
+            public void run() {
+                seen.set(SecurityContextHolder.getContext().getAuthentication());
+            }
+        };
+        DelegatingSecurityContextExecutorService executor = new DelegatingSecurityContextExecutorService(pool);
+        SecurityContextHolder.getContext().setAuthentication(joe);
+
+        executor.submit(task).get();
+        assertSame(joe, seen.getAndSet(null));
+
+        assertEquals("done", executor.submit(task, "done").get());
+        assertSame(joe, seen.getAndSet(null));
+
+        executor.execute(task);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertSame(joe, seen.get());
+    }
+
+    @Test
+    public void invokeAllAndInvokeAnyUseContext() throws Exception {
+        ExecutorService executor = new DelegatingSecurityContextExecutorService(pool);
+        SecurityContextHolder.getContext().setAuthentication(joe);
+        List<Callable<Authentication>> tasks = new ArrayList<Callable<Authentication>>();
+
+        for (int i = 0; i < 5; i++) {
+            tasks.add(currentAuthentication());
+        }
+
+        for (Future<Authentication> result : executor.invokeAll(tasks)) {
+            assertSame(joe, result.get());
+        }
+
+        assertSame(joe, executor.invokeAny(tasks));
+    }
+
+    @Test
+    public void originalContextIsRestoredWhenRunOnCallingThread() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(joe);
+        SecurityContext original = SecurityContextHolder.getContext();
+
+        assertSame(system, new DelegatingSecurityContextCallable<Authentication>(currentAuthentication(),
+                contextFor(system)).call());
+        assertSame(original, SecurityContextHolder.getContext());
+
+        SecurityContextHolder.clearContext();
+        new DelegatingSecurityContextRunnable(new Runnable() {
+            public void run() {
+            }
+        }, contextFor(system)).run();
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    @Test
+    public void contextIsRestoredIfTaskFails() throws Exception {
+        try {
+            new DelegatingSecurityContextCallable<Object>(new Callable<Object>() {
+                public Object call() throws Exception {
+                    throw new Exception();
+                }
+            }, contextFor(system)).call();
+            fail();
+        } catch (Exception expected) {
+        }
+
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+    }
+}
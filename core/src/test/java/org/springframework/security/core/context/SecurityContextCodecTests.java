@@ -0,0 +1,139 @@
+package org.springframework.security.core.context;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.User;
+
+/**
+ * Tests {@link SecurityContextCodec} and {@link CompactSecurityContext}.
+ */
+public class SecurityContextCodecTests {
+    private SecurityContextCodec codec = new SecurityContextCodec();
+
+    static SecurityContext createContext(String username) {
+        List<GrantedAuthority> authorities = AuthorityUtils.createAuthorityList("ROLE_USER", "ROLE_ADMIN");
+        User user = new User(username, "password", true, true, false, true, authorities);
+        UsernamePasswordAuthenticationToken token =
+            new UsernamePasswordAuthenticationToken(user, "password", authorities);
+        token.setDetails("192.168.0.1");
+        SecurityContext context = new SecurityContextImpl();
+        context.setAuthentication(token);
+        return context;
+    }
+
+    static byte[] serialize(Object o) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws Exception {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    @Test
+    public void contextRoundTripsAndIsSmallerThanSerializedForm() throws Exception {
+        SecurityContext context = createContext("joe");
+        byte[] encoded = codec.encode(context);
+        SecurityContext decoded = (SecurityContext) codec.decode(encoded);
+
+        assertEquals(context, decoded);
+        User user = (User) decoded.getAuthentication().getPrincipal();
+        assertEquals("joe", user.getUsername());
+        assertEquals("password", user.getPassword());
+        assertTrue(user.isEnabled());
+        assertFalse(user.isCredentialsNonExpired());
+        assertTrue(decoded.getAuthentication().isAuthenticated());
+        assertTrue(encoded.length * 5 < serialize(context).length);
+    }
+
+    @Test
+    public void repeatedStringsAreWrittenOnce() throws Exception {
+        byte[] single = codec.encode(AuthorityUtils.createAuthorityList("ROLE_SOMETHING_LONG").get(0));
+        byte[] context = codec.encode(createContext("ROLE_SOMETHING_LONG"));
+
+        assertEquals(1, occurrences(context, "ROLE_ADMIN"));
+        assertEquals(1, occurrences(context, "password"));
+        assertEquals(1, occurrences(single, "ROLE_SOMETHING_LONG"));
+    }
+
+    private int occurrences(byte[] data, String s) throws Exception {
+        String text = new String(data, "ISO-8859-1");
+        int count = 0;
+
+        for (int i = text.indexOf(s); i >= 0; i = text.indexOf(s, i + 1)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    @Test
+    public void unauthenticatedTokenRemainsUnauthenticated() throws Exception {
+        Authentication token = new UsernamePasswordAuthenticationToken("joe", "password");
+        Authentication decoded = (Authentication) codec.decode(codec.encode(token));
+
+        assertFalse(decoded.isAuthenticated());
+        assertEquals(token, decoded);
+    }
+
+    @Test
+    public void nonAsciiStringsAreSupported() throws Exception {
+        String name = "J\u00f6rg \u4e2d\u6587";
+
+        assertEquals(name, codec.decode(codec.encode(name)));
+    }
+
+    @Test
+    public void otherTypesUseJavaSerialization() throws Exception {
+        SecurityContext context = new SecurityContextImpl();
+        context.setAuthentication(new TestingAuthenticationToken("joe", "password", "ROLE_A"));
+        SecurityContext decoded = (SecurityContext) codec.decode(codec.encode(context));
+
+        assertEquals(TestingAuthenticationToken.class, decoded.getAuthentication().getClass());
+        assertEquals(context, decoded);
+        assertNull(codec.decode(codec.encode(null)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void truncatedDataIsRejected() throws Exception {
+        byte[] encoded = codec.encode(createContext("joe"));
+        byte[] truncated = new byte[encoded.length - 3];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        codec.decode(truncated);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownVersionIsRejected() throws Exception {
+        codec.decode(new byte[] {99, 0});
+    }
+
+    @Test
+    public void compactContextUsesCodecWhenSerialized() throws Exception {
+        SecurityContext context = new CompactSecurityContext();
+        context.setAuthentication(createContext("joe").getAuthentication());
+        byte[] serialized = serialize(context);
+        SecurityContext restored = (SecurityContext) deserialize(serialized);
+
+        assertTrue(restored instanceof CompactSecurityContext);
+        assertEquals(context, restored);
+        assertTrue(serialized.length * 3 < serialize(createContext("joe")).length);
+
+        CompactSecurityContext empty = (CompactSecurityContext) deserialize(serialize(new CompactSecurityContext()));
+        assertNull(empty.getAuthentication());
+    }
+}
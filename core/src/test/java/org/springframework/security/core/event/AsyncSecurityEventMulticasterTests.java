@@ -0,0 +1,195 @@
+package org.springframework.security.core.event;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.security.access.event.AuthorizedEvent;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.event.AsyncSecurityEventMulticaster.OverflowPolicy;
+
+/**
+ * Tests {@link AsyncSecurityEventMulticaster}.
+ */
+public class AsyncSecurityEventMulticasterTests {
+    private AsyncSecurityEventMulticaster multicaster;
+    private RecordingListener listener;
+    private Authentication token = new TestingAuthenticationToken("joe", "password");
+
+    @Before
+    public void setUp() throws Exception {
+        multicaster = new AsyncSecurityEventMulticaster();
+        listener = new RecordingListener();
+        multicaster.addApplicationListener(listener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        listener.release.countDown();
+        multicaster.destroy();
+    }
+
+    @Test
+    public void securityEventsAreDeliveredOnDispatcherThreadInOrder() throws Exception {
+        multicaster.afterPropertiesSet();
+        List<ApplicationEvent> published = new ArrayList<ApplicationEvent>();
+
+        for (int i=0; i < 100; i++) {
+            ApplicationEvent e = new AuthenticationSuccessEvent(token);
+            published.add(e);
+            multicaster.multicastEvent(e);
+        }
+        listener.release.countDown();
+        multicaster.destroy();
+
+        assertEquals(published, listener.events);
+        assertEquals(100, multicaster.getDispatchedCount());
+        assertEquals(0, multicaster.getQueueSize());
+        assertFalse(listener.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void eventsPublishedWhileStoppingAreAllDelivered() throws Exception {
+        listener.release.countDown();
+        multicaster.setBufferSize(100000);
+        multicaster.afterPropertiesSet();
+        final int eventsPerThread = 2000;
+        Thread[] publishers = new Thread[4];
+
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < eventsPerThread; j++) {
+                        multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+                    }
+                }
+            };
+            publishers[i].start();
+        }
+
+        multicaster.destroy();
+
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+
+        assertEquals(publishers.length * eventsPerThread, listener.events.size());
+        assertEquals(0, multicaster.getQueueSize());
+    }
+
+    @Test
+    public void otherEventsAreDeliveredSynchronously() throws Exception {
+        multicaster.afterPropertiesSet();
+        listener.release.countDown();
+        ApplicationEvent e = new ContextRefreshedEvent(new StaticApplicationContext());
+        multicaster.multicastEvent(e);
+
+        assertEquals(Arrays.asList(e), listener.events);
+        assertEquals(Arrays.asList(Thread.currentThread()), listener.threads);
+    }
+
+    @Test
+    public void ignoredEventsAreNotDelivered() throws Exception {
+        multicaster.setIgnoredEventTypes(Collections.<Class<?>>singletonList(AuthorizedEvent.class));
+        multicaster.afterPropertiesSet();
+        listener.release.countDown();
+        multicaster.multicastEvent(new AuthorizedEvent(this, SecurityConfig.createList("A"), token));
+        multicaster.destroy();
+
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void eventsAreDroppedWhenBufferIsFull() throws Exception {
+        multicaster.setBufferSize(4);
+        multicaster.afterPropertiesSet();
+        // The first event will be held by the blocked listener, leaving the buffer to fill up
+        multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+        assertTrue(listener.started.await(2, TimeUnit.SECONDS));
+
+        for (int i=0; i < 10; i++) {
+            multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+        }
+
+        assertEquals(4, multicaster.getQueueSize());
+        assertEquals(6, multicaster.getDroppedCount());
+        listener.release.countDown();
+        multicaster.destroy();
+        assertEquals(5, listener.events.size());
+    }
+
+    @Test
+    public void eventsAreDeliveredByCallerWhenBufferIsFullAndPolicyIsCallerRuns() throws Exception {
+        multicaster.setBufferSize(1);
+        multicaster.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+        multicaster.afterPropertiesSet();
+        multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+        assertTrue(listener.started.await(2, TimeUnit.SECONDS));
+        multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+        // Buffer is now full, so this one is delivered by the calling thread
+        multicaster.multicastEvent(new AuthenticationSuccessEvent(token));
+        assertEquals(Arrays.asList(Thread.currentThread()), listener.threads);
+        listener.release.countDown();
+        multicaster.destroy();
+
+        assertEquals(1, multicaster.getCallerRunsCount());
+        assertEquals(0, multicaster.getDroppedCount());
+        assertEquals(3, listener.events.size());
+    }
+
+    @Test
+    public void ringBufferRejectsElementsWhenFullAndDrainsInOrder() {
+        EventRingBuffer<Integer> buffer = new EventRingBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+
+        for (int i=0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertTrue(buffer.offer(4));
+        assertEquals(2, buffer.drainTo(drained, 10));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), drained);
+        assertEquals(0, buffer.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static class RecordingListener implements ApplicationListener {
+        final List<ApplicationEvent> events = Collections.synchronizedList(new ArrayList<ApplicationEvent>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        /** Only the dispatcher thread is held up, so that events delivered by the test thread don't block it */
+        final Thread testThread = Thread.currentThread();
+
+        public void onApplicationEvent(ApplicationEvent event) {
+            if (Thread.currentThread() != testThread) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            events.add(event);
+            threads.add(Thread.currentThread());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.springframework.security.core.session;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.TestDataSource;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.User;
+
+/**
+ * Tests {@link JdbcSessionRegistry}, using two instances sharing the same database to simulate two cluster nodes.
+ */
+public class JdbcSessionRegistryTests {
+    private static TestDataSource dataSource;
+    private JdbcSessionRegistry node1;
+    private JdbcSessionRegistry node2;
+    private JdbcTemplate template;
+
+    @BeforeClass
+    public static void createDataSource() {
+        dataSource = new TestDataSource("jdbcsessionregistrytest");
+    }
+
+    @AfterClass
+    public static void clearDataSource() throws Exception {
+        dataSource.destroy();
+        dataSource = null;
+    }
+
+    @Before
+    public void createRegistries() throws Exception {
+        node1 = createRegistry(true);
+        node2 = createRegistry(false);
+        template = node1.getJdbcTemplate();
+    }
+
+    private JdbcSessionRegistry createRegistry(boolean createTable) throws Exception {
+        JdbcSessionRegistry registry = new JdbcSessionRegistry();
+        registry.setDataSource(dataSource);
+        registry.setCreateTableOnStartup(createTable);
+        // Flush manually
+        registry.setFlushInterval(60000);
+        registry.setMaxStaleness(0);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    @After
+    public void dropTable() {
+        node1.destroy();
+        node2.destroy();
+        template.execute("drop table session_registry");
+    }
+
+    @Test
+    public void registrationIsWrittenImmediatelyAndVisibleToOtherNodes() {
+        node1.registerNewSession("1234", "joe");
+
+        assertEquals(1, template.queryForInt("select count(*) from session_registry where principal = 'joe'"));
+        SessionInformation info = node2.getSessionInformation("1234");
+        assertNotNull(info);
+        assertEquals("joe", info.getPrincipal());
+        assertFalse(info.isExpired());
+        assertEquals(1, node2.getAllSessions("joe", false).size());
+        assertEquals(1, node2.getAllPrincipals().size());
+    }
+
+    @Test
+    public void userDetailsPrincipalIsStoredByUsername() {
+        User joe = new User("joe", "password", true, true, true, true, AuthorityUtils.createAuthorityList("A"));
+        node1.registerNewSession("1234", joe);
+
+        assertSame(joe, node1.getSessionInformation("1234").getPrincipal());
+        assertEquals(1, node2.getAllSessions("joe", true).size());
+        assertEquals(1, node1.getAllSessions(joe, true).size());
+    }
+
+    @Test
+    public void refreshIsWrittenBehind() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        SessionInformation info = node1.getSessionInformation("1234");
+        long registered = info.getLastRequestTime();
+
+        info.refreshLastRequest(registered + 1000);
+        assertEquals(registered + 1000, node1.getSessionInformation("1234").getLastRequestTime());
+        assertEquals(1, node1.getPendingWriteCount());
+        assertEquals(registered, template.queryForLong("select last_request from session_registry"));
+
+        node1.flush();
+
+        assertEquals(0, node1.getPendingWriteCount());
+        assertEquals(registered + 1000, template.queryForLong("select last_request from session_registry"));
+        assertEquals(registered + 1000, node2.getSessionInformation("1234").getLastRequestTime());
+    }
+
+    @Test
+    public void lastRequestTimeNeverMovesBackwards() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        long registered = node1.getSessionInformation("1234").getLastRequestTime();
+
+        node2.getSessionInformation("1234").refreshLastRequest(registered + 2000);
+        node2.flush();
+        node1.getSessionInformation("1234").refreshLastRequest(registered + 1000);
+        node1.flush();
+
+        assertEquals(registered + 2000, template.queryForLong("select last_request from session_registry"));
+        assertEquals(registered + 2000, node1.getSessionInformation("1234").getLastRequestTime());
+    }
+
+    @Test
+    public void sessionExpiredOnOneNodeIsSeenAsExpiredOnAnotherAfterFlush() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        assertFalse(node1.getSessionInformation("1234").isExpired());
+
+        // Concurrent session control on node 2 expires the least recently used session
+        List<SessionInformation> sessions = node2.getAllSessions("joe", false);
+        assertEquals(1, sessions.size());
+        sessions.get(0).expireNow();
+
+        assertFalse(node1.getSessionInformation("1234").isExpired());
+        node2.flush();
+        assertTrue(node1.getSessionInformation("1234").isExpired());
+        assertEquals(0, node1.getAllSessions("joe", false).size());
+        assertEquals(1, node1.getAllSessions("joe", true).size());
+    }
+
+    @Test
+    public void expiredSessionIsNotClearedByLaterRefresh() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        SessionInformation info = node1.getSessionInformation("1234");
+        node2.getSessionInformation("1234").expireNow();
+        node2.flush();
+
+        info.refreshLastRequest(info.getLastRequestTime() + 1000);
+        node1.flush();
+
+        assertTrue(node1.getSessionInformation("1234").isExpired());
+    }
+
+    @Test
+    public void cachedSessionIsUsedUntilStale() throws Exception {
+        node1.setMaxStaleness(60000);
+        node1.registerNewSession("1234", "joe");
+        template.update("delete from session_registry");
+
+        assertNotNull(node1.getSessionInformation("1234"));
+        node1.setMaxStaleness(0);
+        assertNull(node1.getSessionInformation("1234"));
+        assertEquals(0, node1.getCacheSize());
+    }
+
+    @Test
+    public void removedSessionIsDeletedAndPendingChangesDiscarded() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        node1.getSessionInformation("1234").refreshLastRequest();
+        node1.removeSessionInformation("1234");
+
+        assertEquals(0, node1.getPendingWriteCount());
+        assertEquals(0, template.queryForInt("select count(*) from session_registry"));
+        assertNull(node1.getSessionInformation("1234"));
+        assertNull(node2.getSessionInformation("1234"));
+        assertEquals(0, node2.getAllPrincipals().size());
+    }
+
+    @Test
+    public void reRegisteringSessionReplacesExistingRow() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        node1.registerNewSession("1234", "bob");
+
+        assertEquals(1, template.queryForInt("select count(*) from session_registry"));
+        assertEquals(0, node2.getAllSessions("joe", true).size());
+        assertEquals("bob", node2.getSessionInformation("1234").getPrincipal());
+    }
+
+    @Test
+    public void entriesWhichAreNotReloadedAreEvictedOnFlush() throws Exception {
+        node1.setMaxStaleness(20);
+        node1.registerNewSession("1234", "joe");
+        node1.flush();
+        assertEquals(1, node1.getCacheSize());
+
+        // A session destroyed on another node is never looked up again
+        node2.removeSessionInformation("1234");
+        Thread.sleep(100);
+        node1.flush();
+
+        assertEquals(0, node1.getCacheSize());
+    }
+
+    @Test
+    public void cacheSizeIsBounded() throws Exception {
+        node1.setMaxCacheSize(10);
+
+        for (int i = 0; i < 25; i++) {
+            node1.registerNewSession("session" + i, "joe");
+        }
+
+        assertTrue(node1.getCacheSize() <= 10);
+        assertEquals(25, template.queryForInt("select count(*) from session_registry"));
+        assertNotNull(node1.getSessionInformation("session0"));
+    }
+
+    @Test
+    public void evictedSessionKeepsChangesWhichHaveNotBeenWritten() throws Exception {
+        node1.setMaxCacheSize(1);
+        node1.registerNewSession("1234", "joe");
+        node1.getSessionInformation("1234").expireNow();
+        node1.registerNewSession("5678", "joe");
+
+        assertTrue(node1.getSessionInformation("1234").isExpired());
+        node1.flush();
+        assertTrue(node2.getSessionInformation("1234").isExpired());
+    }
+
+    @Test
+    public void sessionDestroyedEventRemovesSession() throws Exception {
+        node1.registerNewSession("1234", "joe");
+        node1.onApplicationEvent(new SessionDestroyedEvent("source") {
+            public String getId() {
+                return "1234";
+            }
+
+            public org.springframework.security.core.context.SecurityContext getSecurityContext() {
+                return null;
+            }
+        });
+
+        assertEquals(0, template.queryForInt("select count(*) from session_registry"));
+    }
+}
@@ -17,8 +17,12 @@ package org.springframework.security.core.session;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -171,6 +175,198 @@ public class SessionRegistryImplTests {
         assertEquals(0, sessionRegistry.getAllSessions(principal, false).size());
     }
 
+    @Test
+    public void sessionCountIsReturnedForPrincipal() throws Exception {
+        sessionRegistry.registerNewSession("1", "principal");
+        sessionRegistry.registerNewSession("2", "principal");
+        sessionRegistry.registerNewSession("2", "principal");
+        assertEquals(2, sessionRegistry.getSessionCount("principal"));
+        assertEquals(0, sessionRegistry.getSessionCount("other"));
+    }
+
+    @Test
+    public void reregisteringSessionForDifferentPrincipalMovesIt() throws Exception {
+        sessionRegistry.registerNewSession("1", "principal1");
+        sessionRegistry.registerNewSession("1", "principal2");
+
+        assertEquals(Arrays.asList("principal2"), sessionRegistry.getAllPrincipals());
+        assertEquals("principal2", sessionRegistry.getSessionInformation("1").getPrincipal());
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionFollowsRefreshes() throws Exception {
+        sessionRegistry.registerNewSession("1", "principal");
+        sessionRegistry.registerNewSession("2", "principal");
+        sessionRegistry.registerNewSession("3", "principal");
+        assertEquals("1", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+
+        sessionRegistry.refreshLastRequest("1");
+        assertEquals("2", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+
+        sessionRegistry.getSessionInformation("2").refreshLastRequest();
+        assertEquals("3", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+
+        sessionRegistry.removeSessionInformation("3");
+        assertEquals("1", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+        assertNull(sessionRegistry.getLeastRecentlyUsedSession("other"));
+    }
+
+    @Test
+    public void expiredSessionsAreNotCountedOrReturnedAsLeastRecentlyUsed() throws Exception {
+        sessionRegistry.registerNewSession("1", "principal");
+        sessionRegistry.registerNewSession("2", "principal");
+        assertEquals(2, sessionRegistry.getUnexpiredSessionCount("principal"));
+
+        sessionRegistry.getSessionInformation("1").expireNow();
+        sessionRegistry.getSessionInformation("1").expireNow();
+        sessionRegistry.refreshLastRequest("1");
+
+        assertEquals(1, sessionRegistry.getUnexpiredSessionCount("principal"));
+        assertEquals(2, sessionRegistry.getSessionCount("principal"));
+        assertEquals("2", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+
+        sessionRegistry.getSessionInformation("2").expireNow();
+        assertEquals(0, sessionRegistry.getUnexpiredSessionCount("principal"));
+        assertNull(sessionRegistry.getLeastRecentlyUsedSession("principal"));
+
+        sessionRegistry.removeSessionInformation("1");
+        sessionRegistry.removeSessionInformation("2");
+        assertEquals(0, sessionRegistry.getUnexpiredSessionCount("principal"));
+    }
+
+    @Test
+    public void reregisteredSessionIsNoLongerExpiredAndIsMostRecentlyUsed() throws Exception {
+        sessionRegistry.registerNewSession("1", "principal");
+        sessionRegistry.registerNewSession("2", "principal");
+        sessionRegistry.getSessionInformation("1").expireNow();
+        sessionRegistry.registerNewSession("2", "principal");
+        sessionRegistry.registerNewSession("1", "principal");
+
+        assertEquals(2, sessionRegistry.getUnexpiredSessionCount("principal"));
+        assertEquals("2", sessionRegistry.getLeastRecentlyUsedSession("principal").getSessionId());
+    }
+
+    @Test
+    public void registryRemainsConsistentUnderConcurrentRegistrationAndRemoval() throws Exception {
+        final int nThreads = 8;
+        final int nSessions = 64;
+        final Object[] principals = {"p1", "p2", "p3"};
+        final CyclicBarrier start = new CyclicBarrier(nThreads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[nThreads];
+
+        for (int t = 0; t < nThreads; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 20000; i++) {
+                            String sessionId = "session" + random.nextInt(nSessions);
+
+                            int action = random.nextInt(8);
+
+                            if (action < 3) {
+                                sessionRegistry.registerNewSession(sessionId, principals[random.nextInt(3)]);
+                            } else if (action < 6) {
+                                sessionRegistry.removeSessionInformation(sessionId);
+                            } else {
+                                SessionInformation info = sessionRegistry.getSessionInformation(sessionId);
+
+                                if (info != null && action == 6) {
+                                    info.refreshLastRequest();
+                                } else if (info != null) {
+                                    info.expireNow();
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+
+        // Every session listed for a principal must be the registered one, and vice versa
+        int listed = 0;
+        for (Object principal : sessionRegistry.getAllPrincipals()) {
+            List<SessionInformation> sessions = sessionRegistry.getAllSessions(principal, true);
+            assertFalse("Principal " + principal + " has no sessions", sessions.isEmpty());
+            assertEquals(sessions.size(), sessionRegistry.getSessionCount(principal));
+            assertEquals(sessionRegistry.getAllSessions(principal, false).size(),
+                    sessionRegistry.getUnexpiredSessionCount(principal));
+            for (SessionInformation info : sessions) {
+                assertSame(info, sessionRegistry.getSessionInformation(info.getSessionId()));
+                assertEquals(principal, info.getPrincipal());
+            }
+            listed += sessions.size();
+        }
+
+        int registered = 0;
+        for (int i = 0; i < nSessions; i++) {
+            SessionInformation info = sessionRegistry.getSessionInformation("session" + i);
+            if (info != null) {
+                registered++;
+                assertTrue(sessionRegistry.getAllSessions(info.getPrincipal(), true).contains(info));
+            }
+        }
+        assertEquals(registered, listed);
+
+        for (int i = 0; i < nSessions; i++) {
+            sessionRegistry.removeSessionInformation("session" + i);
+        }
+        assertTrue(sessionRegistry.getAllPrincipals().isEmpty());
+    }
+
+    @Test
+    public void idleSessionsAreRemovedInBatches() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            sessionRegistry.registerNewSession("idle" + i, "principal" + (i % 2));
+        }
+        Thread.sleep(50);
+        sessionRegistry.registerNewSession("active", "principal0");
+
+        int examined = 0;
+        int batches = 0;
+        int n;
+        do {
+            n = sessionRegistry.removeIdleSessions(40, 3);
+            examined += n;
+            batches++;
+        } while (n == 3);
+
+        assertEquals(11, examined);
+        assertEquals(4, batches);
+        assertEquals(10, sessionRegistry.getIdleSessionsRemoved());
+        assertEquals(1, sessionRegistry.getSessionCount());
+        assertNotNull(sessionRegistry.getSessionInformation("active"));
+        assertEquals(Arrays.asList("principal0"), sessionRegistry.getAllPrincipals());
+        assertEquals(1, sessionRegistry.getAllSessions("principal0", true).size());
+    }
+
+    @Test
+    public void sweeperRemovesIdleSessions() throws Exception {
+        sessionRegistry.registerNewSession("idle", "principal");
+        Thread.sleep(20);
+        SessionRegistrySweeper sweeper = new SessionRegistrySweeper();
+        sweeper.setSessionRegistry(sessionRegistry);
+        sweeper.setMaxIdleTime(10);
+        sweeper.setBatchSize(1);
+        sweeper.sweep();
+
+        assertEquals(0, sweeper.getRegistrySize());
+        assertEquals(1, sweeper.getEvictionCount());
+        assertEquals(1, sweeper.getSweepCount());
+        assertTrue(sessionRegistry.getAllPrincipals().isEmpty());
+    }
+
     private boolean contains(String sessionId, Object principal) {
         List<SessionInformation> info = sessionRegistry.getAllSessions(principal, false);
 
@@ -37,6 +37,21 @@ import org.springframework.web.filter.GenericFilterBean;
 /**
  * Detects if there is no {@code Authentication} object in the {@code SecurityContextHolder}, and
  * populates it with one if needed.
+ * <p>
+ * By default a new token is created for each request. If <tt>useSharedToken</tt> is set, a single token is created
+ * from the <tt>key</tt> and <tt>userAttribute</tt> and placed in the context of every anonymous request instead.
+ * Its details are built from the current request by the {@code AuthenticationDetailsSource} only when
+ * {@code getDetails()} is first called during the request (they are then cached as a request attribute).
+ * <p>
+ * As the shared token doesn't hold a reference to any one request, its details are <tt>null</tt> once the request
+ * has left this filter and on any thread other than the one processing the request. This includes asynchronous
+ * event listeners and tasks run with a copy of the security context, so the shared token shouldn't be used if these
+ * need the remote address or session of anonymous requests. The details of the shared token can't be set. If it
+ * is marked as no longer authenticated, this applies to every request which is using it, and a new token is
+ * created for subsequent requests.
+ * <p>
+ * The shared token is returned by {@link #createAuthentication(HttpServletRequest)}, so a subclass which overrides
+ * that method to customise the token will use its own tokens instead.
  *
  * @author Ben Alex
  */
@@ -47,6 +62,9 @@ public class AnonymousAuthenticationFilter extends GenericFilterBean  implements
     private AuthenticationDetailsSource authenticationDetailsSource = new WebAuthenticationDetailsSource();
     private String key;
     private UserAttribute userAttribute;
+    private boolean useSharedToken;
+    private volatile SharedAnonymousAuthenticationToken sharedToken;
+    private final ThreadLocal<HttpServletRequest> currentRequest = new ThreadLocal<HttpServletRequest>();
 
     //~ Methods ========================================================================================================
 
@@ -61,7 +79,14 @@ public class AnonymousAuthenticationFilter extends GenericFilterBean  implements
 
         if (applyAnonymousForThisRequest((HttpServletRequest) req)) {
             if (SecurityContextHolder.getContext().getAuthentication() == null) {
-                SecurityContextHolder.getContext().setAuthentication(createAuthentication((HttpServletRequest) req));
+                Authentication auth = createAuthentication((HttpServletRequest) req);
+
+                if (auth instanceof SharedAnonymousAuthenticationToken) {
+                    doFilterWithSharedToken((HttpServletRequest) req, res, chain, auth);
+                    return;
+                }
+
+                SecurityContextHolder.getContext().setAuthentication(auth);
 
                 if (logger.isDebugEnabled()) {
                     logger.debug("Populated SecurityContextHolder with anonymous token: '"
@@ -78,6 +103,36 @@ public class AnonymousAuthenticationFilter extends GenericFilterBean  implements
         chain.doFilter(req, res);
     }
 
+    private void doFilterWithSharedToken(HttpServletRequest request, ServletResponse response, FilterChain chain,
+            Authentication sharedToken) throws IOException, ServletException {
+        // The token isn't logged, as that would build its details
+        SecurityContextHolder.getContext().setAuthentication(sharedToken);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Populated SecurityContextHolder with shared anonymous token");
+        }
+
+        currentRequest.set(request);
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            currentRequest.remove();
+        }
+    }
+
+    private SharedAnonymousAuthenticationToken getSharedToken() {
+        SharedAnonymousAuthenticationToken token = sharedToken;
+
+        if (token == null || token.revoked) {
+            token = new SharedAnonymousAuthenticationToken(key, userAttribute, currentRequest,
+                    authenticationDetailsSource);
+            sharedToken = token;
+        }
+
+        return token;
+    }
+
     /**
      * Enables subclasses to determine whether or not an anonymous authentication token should be setup for
      * this request. This is useful if anonymous authentication should be allowed only for specific IP subnet ranges
@@ -93,7 +148,14 @@ public class AnonymousAuthenticationFilter extends GenericFilterBean  implements
         return true;
     }
 
+    /**
+     * Creates the token for an anonymous request. If <tt>useSharedToken</tt> is set, this returns the shared token.
+     */
     protected Authentication createAuthentication(HttpServletRequest request) {
+        if (useSharedToken) {
+            return getSharedToken();
+        }
+
         AnonymousAuthenticationToken auth = new AnonymousAuthenticationToken(key, userAttribute.getPassword(),
                 userAttribute.getAuthorities());
         auth.setDetails(authenticationDetailsSource.buildDetails(request));
@@ -112,13 +174,76 @@ public class AnonymousAuthenticationFilter extends GenericFilterBean  implements
     public void setAuthenticationDetailsSource(AuthenticationDetailsSource authenticationDetailsSource) {
         Assert.notNull(authenticationDetailsSource, "AuthenticationDetailsSource required");
         this.authenticationDetailsSource = authenticationDetailsSource;
+        this.sharedToken = null;
     }
 
     public void setKey(String key) {
         this.key = key;
+        this.sharedToken = null;
     }
 
     public void setUserAttribute(UserAttribute userAttributeDefinition) {
         this.userAttribute = userAttributeDefinition;
+        this.sharedToken = null;
+    }
+
+    /**
+     * If set to <tt>true</tt>, a single preconstructed token is used for all anonymous requests, as described in the
+     * class documentation. Defaults to <tt>false</tt>.
+     */
+    public void setUseSharedToken(boolean useSharedToken) {
+        this.useSharedToken = useSharedToken;
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    private static final class SharedAnonymousAuthenticationToken extends AnonymousAuthenticationToken {
+        private static final String DETAILS_ATTR = SharedAnonymousAuthenticationToken.class.getName() + ".DETAILS";
+
+        private final transient ThreadLocal<HttpServletRequest> currentRequest;
+        private final transient AuthenticationDetailsSource detailsSource;
+        /** Set when the token is no longer trusted, after which it isn't used for new requests */
+        volatile boolean revoked;
+
+        SharedAnonymousAuthenticationToken(String key, UserAttribute userAttribute,
+                ThreadLocal<HttpServletRequest> currentRequest, AuthenticationDetailsSource detailsSource) {
+            super(key, userAttribute.getPassword(), userAttribute.getAuthorities());
+            this.currentRequest = currentRequest;
+            this.detailsSource = detailsSource;
+        }
+
+        public Object getDetails() {
+            HttpServletRequest request = currentRequest == null ? null : currentRequest.get();
+
+            if (request == null) {
+                return null;
+            }
+
+            Object details = request.getAttribute(DETAILS_ATTR);
+
+            if (details == null) {
+                details = detailsSource.buildDetails(request);
+                request.setAttribute(DETAILS_ATTR, details);
+            }
+
+            return details;
+        }
+
+        public void setDetails(Object details) {
+            throw new UnsupportedOperationException("The shared anonymous token cannot be modified");
+        }
+
+        public boolean isAuthenticated() {
+            return !revoked;
+        }
+
+        public void setAuthenticated(boolean authenticated) {
+            if (authenticated) {
+                // Called by the constructor
+                super.setAuthenticated(true);
+            } else {
+                revoked = true;
+            }
+        }
     }
 }
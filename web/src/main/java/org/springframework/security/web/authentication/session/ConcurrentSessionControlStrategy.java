@@ -12,6 +12,7 @@ import org.springframework.context.support.MessageSourceAccessor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.SpringSecurityMessageSource;
+import org.springframework.security.core.session.OrderedSessionRegistry;
 import org.springframework.security.core.session.SessionInformation;
 import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
@@ -32,6 +33,14 @@ import org.springframework.util.Assert;
  * will be invalidated by the {@link ConcurrentSessionFilter} if accessed again. If <tt>exceptionIfMaxExceeded</tt> is
  * set to <tt>true</tt>, however, the user will be prevented from starting a new authenticated session.
  * <p>
+ * If the registry is an {@link OrderedSessionRegistry} (such as the default
+ * {@link org.springframework.security.core.session.SessionRegistryImpl SessionRegistryImpl}), the principal's sessions
+ * are counted and the least recently used one found without retrieving the list of all their sessions, so the cost
+ * of the check doesn't grow with the number of sessions a principal has. When there are too many sessions,
+ * {@link #allowableSessionsExceeded(SessionInformation, int, OrderedSessionRegistry)} is then called instead of
+ * {@link #allowableSessionsExceeded(List, int, SessionRegistry)}. A subclass which overrides the latter and needs
+ * all of the principal's sessions should set <tt>useOrderedRegistry</tt> to <tt>false</tt>.
+ * <p>
  * This strategy can be injected into both the {@link SessionManagementFilter} and instances of
  * {@link AbstractAuthenticationProcessingFilter} (typically {@link UsernamePasswordAuthenticationFilter}).
  *
@@ -44,6 +53,7 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
     private final SessionRegistry sessionRegistry;
     private boolean exceptionIfMaximumExceeded = false;
     private int maximumSessions = 1;
+    private boolean useOrderedRegistry = true;
 
     /**
      * @param sessionRegistry the session registry which should be updated when the authenticated session is changed.
@@ -67,6 +77,11 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
     private void checkAuthenticationAllowed(Authentication authentication, HttpServletRequest request)
             throws AuthenticationException {
 
+        if (useOrderedRegistry && sessionRegistry instanceof OrderedSessionRegistry) {
+            checkAuthenticationAllowed(authentication, request, (OrderedSessionRegistry) sessionRegistry);
+            return;
+        }
+
         final List<SessionInformation> sessions = sessionRegistry.getAllSessions(authentication.getPrincipal(), false);
 
         int sessionCount = sessions.size();
@@ -99,6 +114,39 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
         allowableSessionsExceeded(sessions, allowedSessions, sessionRegistry);
     }
 
+    private void checkAuthenticationAllowed(Authentication authentication, HttpServletRequest request,
+            OrderedSessionRegistry registry) throws AuthenticationException {
+        Object principal = authentication.getPrincipal();
+        int sessionCount = registry.getUnexpiredSessionCount(principal);
+        int allowedSessions = getMaximumSessionsForThisUser(authentication);
+
+        if (sessionCount < allowedSessions || allowedSessions == -1) {
+            return;
+        }
+
+        if (sessionCount == allowedSessions) {
+            HttpSession session = request.getSession(false);
+
+            if (session != null) {
+                // Only permit it though if this request is associated with one of the already registered sessions
+                SessionInformation si = registry.getSessionInformation(session.getId());
+
+                if (si != null && !si.isExpired() && principal.equals(si.getPrincipal())) {
+                    return;
+                }
+            }
+        }
+
+        SessionInformation leastRecentlyUsed = registry.getLeastRecentlyUsedSession(principal);
+
+        if (leastRecentlyUsed == null) {
+            // The sessions have been removed in the meantime
+            return;
+        }
+
+        allowableSessionsExceeded(leastRecentlyUsed, allowedSessions, registry);
+    }
+
     /**
      * Method intended for use by subclasses to override the maximum number of sessions that are permitted for
      * a particular authentication. The default implementation simply returns the <code>maximumSessions</code> value
@@ -113,7 +161,8 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
     }
 
     /**
-     * Allows subclasses to customise behaviour when too many sessions are detected.
+     * Allows subclasses to customise behaviour when too many sessions are detected. Not called if the registry is
+     * an {@link OrderedSessionRegistry}, unless <tt>useOrderedRegistry</tt> has been set to <tt>false</tt>.
      *
      * @param sessionId the session ID of the present request
      * @param sessions either <code>null</code> or all unexpired sessions associated with the principal
@@ -142,6 +191,28 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
         leastRecentlyUsed.expireNow();
     }
 
+    /**
+     * Allows subclasses to customise behaviour when too many sessions are detected and the registry is an
+     * {@link OrderedSessionRegistry}, in which case only the principal's least recently used session is retrieved.
+     * Not called if <tt>useOrderedRegistry</tt> has been set to <tt>false</tt>.
+     *
+     * @param leastRecentlyUsed the least recently used of the unexpired sessions associated with the principal
+     * @param allowableSessions the number of concurrent sessions the user is allowed to have
+     * @param registry an instance of the <code>OrderedSessionRegistry</code> for subclass use
+     *
+     * @since 3.0.2
+     */
+    protected void allowableSessionsExceeded(SessionInformation leastRecentlyUsed, int allowableSessions,
+            OrderedSessionRegistry registry) throws SessionAuthenticationException {
+        if (exceptionIfMaximumExceeded) {
+            throw new SessionAuthenticationException(messages.getMessage("ConcurrentSessionControllerImpl.exceededAllowed",
+                    new Object[] {new Integer(allowableSessions)},
+                    "Maximum sessions of {0} for this principal exceeded"));
+        }
+
+        leastRecentlyUsed.expireNow();
+    }
+
     @Override
     protected void onSessionChange(String originalSessionId, HttpSession newSession, Authentication auth) {
         // Update the session registry
@@ -171,6 +242,18 @@ public class ConcurrentSessionControlStrategy extends SessionFixationProtectionS
         this.maximumSessions = maximumSessions;
     }
 
+    /**
+     * Determines whether the sessions of a principal are counted, and the least recently used found, by an
+     * {@link OrderedSessionRegistry} rather than by retrieving all of their sessions. Should be set to
+     * <tt>false</tt> by subclasses which override {@link #allowableSessionsExceeded(List, int, SessionRegistry)}.
+     *
+     * @param useOrderedRegistry defaults to <tt>true</tt>. Has no effect unless the registry is an
+     *        <tt>OrderedSessionRegistry</tt>.
+     */
+    public void setUseOrderedRegistry(boolean useOrderedRegistry) {
+        this.useOrderedRegistry = useOrderedRegistry;
+    }
+
     public void setMessageSource(MessageSource messageSource) {
         this.messages = new MessageSourceAccessor(messageSource);
     }
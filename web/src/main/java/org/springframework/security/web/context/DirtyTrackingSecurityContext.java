@@ -0,0 +1,82 @@
+package org.springframework.security.web.context;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.util.Assert;
+
+/**
+ * Wraps the {@code SecurityContext} loaded by {@link HttpSessionSecurityContextRepository} when its
+ * <tt>trackContextChanges</tt> property is set, recording whether the context has been modified during the request.
+ * <p>
+ * The context is considered to have changed if {@link #setAuthentication(Authentication)} has been called, or if the
+ * {@code Authentication} it contains no longer has the same value of {@code isAuthenticated()} as it did when it was
+ * loaded (or last set). Other changes made to the internal state of the {@code Authentication} object are not
+ * detected, so code which modifies a token in place should set it on the context again.
+ *
+ * @since 3.0.2
+ */
+public final class DirtyTrackingSecurityContext implements SecurityContext {
+    //~ Instance fields ================================================================================================
+
+    private final SecurityContext delegate;
+    private volatile boolean dirty;
+    private volatile boolean authenticatedAtLoad;
+
+    //~ Constructors ===================================================================================================
+
+    public DirtyTrackingSecurityContext(SecurityContext delegate) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        this.delegate = delegate;
+        this.authenticatedAtLoad = isAuthenticated(delegate.getAuthentication());
+    }
+
+    //~ Methods ========================================================================================================
+
+    public Authentication getAuthentication() {
+        return delegate.getAuthentication();
+    }
+
+    public void setAuthentication(Authentication authentication) {
+        delegate.setAuthentication(authentication);
+        authenticatedAtLoad = isAuthenticated(authentication);
+        dirty = true;
+    }
+
+    /**
+     * @return true if the context has been changed since it was loaded
+     */
+    public boolean isDirty() {
+        return dirty || isAuthenticated(delegate.getAuthentication()) != authenticatedAtLoad;
+    }
+
+    /**
+     * @return the wrapped context, which is the object stored in the session
+     */
+    public SecurityContext getDelegate() {
+        return delegate;
+    }
+
+    private static boolean isAuthenticated(Authentication authentication) {
+        return authentication != null && authentication.isAuthenticated();
+    }
+
+    /**
+     * Compares the wrapped contexts of two wrappers. A wrapper is never equal to an unwrapped context, as that
+     * context's own <tt>equals</tt> method would not agree.
+     */
+    public boolean equals(Object obj) {
+        if (obj instanceof DirtyTrackingSecurityContext) {
+            return delegate.equals(((DirtyTrackingSecurityContext) obj).delegate);
+        }
+
+        return false;
+    }
+
+    public int hashCode() {
+        return delegate.hashCode();
+    }
+
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package org.springframework.security.web.context;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -47,6 +48,15 @@ import org.springframework.util.ReflectionUtils;
  * Only do this if you really need to conserve server memory and ensure all classes using the
  * {@code SecurityContextHolder} are designed to have no persistence of the {@code SecurityContext}
  * between web requests.
+ * <p>
+ * By default, the context is judged to have changed if its hash code at the end of the request differs from the
+ * value at the start. Computing the hash code of an {@code Authentication} can be costly, and in a clustered
+ * container every call to {@code setAttribute} may trigger replication of the whole session. If
+ * {@link #setTrackContextChanges(boolean) trackContextChanges} is set, the loaded context is instead wrapped in a
+ * {@link DirtyTrackingSecurityContext}, which records whether it has been modified, and the context is only stored if
+ * it has been modified, replaced, or is missing from the session. The number of times the context was stored and the
+ * number of times storing it was skipped because it had not changed are available from
+ * {@link #getSavedContextCount()} and {@link #getSkippedSaveCount()}.
  *
  * @author Luke Taylor
  * @since 3.0
@@ -62,6 +72,10 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
     private boolean cloneFromHttpSession = false;
     private boolean allowSessionCreation = true;
     private boolean disableUrlRewriting = false;
+    private boolean trackContextChanges = false;
+
+    private final AtomicLong savedContextCount = new AtomicLong();
+    private final AtomicLong skippedSaveCount = new AtomicLong();
 
     private AuthenticationTrustResolver authenticationTrustResolver = new AuthenticationTrustResolverImpl();
 
@@ -81,6 +95,8 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
         HttpSession httpSession = request.getSession(false);
 
         SecurityContext context = readSecurityContextFromSession(httpSession);
+        // The id of the session the context was loaded from, or null if a new context is generated
+        String contextSessionId = context == null ? null : httpSession.getId();
 
         if (context == null) {
             if (logger.isDebugEnabled()) {
@@ -91,6 +107,14 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
 
         }
 
+        if (trackContextChanges) {
+            DirtyTrackingSecurityContext trackedContext = new DirtyTrackingSecurityContext(context);
+            requestResponseHolder.setResponse(new SaveToSessionResponseWrapper(response, request,
+                    httpSession != null, trackedContext, contextSessionId));
+
+            return trackedContext;
+        }
+
         requestResponseHolder.setResponse(new SaveToSessionResponseWrapper(response, request,
                 httpSession != null, context.hashCode()));
 
@@ -279,6 +303,29 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
         this.disableUrlRewriting = disableUrlRewriting;
     }
 
+    /**
+     * If set to true, changes to the context are tracked explicitly using a {@link DirtyTrackingSecurityContext}
+     * rather than by comparing hash codes. Note that the context returned by <tt>loadContext</tt> will then be the
+     * wrapper, rather than the object stored in the session. Defaults to false.
+     */
+    public void setTrackContextChanges(boolean trackContextChanges) {
+        this.trackContextChanges = trackContextChanges;
+    }
+
+    /**
+     * @return the number of times the context has been stored in the session
+     */
+    public long getSavedContextCount() {
+        return savedContextCount.get();
+    }
+
+    /**
+     * @return the number of times a session was available but the context was not stored because it had not changed
+     */
+    public long getSkippedSaveCount() {
+        return skippedSaveCount.get();
+    }
+
     //~ Inner Classes ==================================================================================================
 
     /**
@@ -294,6 +341,8 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
         private HttpServletRequest request;
         private boolean httpSessionExistedAtStartOfRequest;
         private int contextHashBeforeChainExecution;
+        private DirtyTrackingSecurityContext trackedContext;
+        private String contextSessionId;
 
         /**
          * Takes the parameters required to call <code>saveContext()</code> successfully in
@@ -316,6 +365,25 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
             this.contextHashBeforeChainExecution = contextHashBeforeChainExecution;
         }
 
+        /**
+         * Used when changes to the context are tracked explicitly.
+         *
+         * @param trackedContext the context returned by <tt>loadContext</tt>, which records whether it has been
+         *        modified.
+         * @param contextSessionId the id of the session from which the context was loaded, or null if it was not
+         *        loaded from a session.
+         */
+        SaveToSessionResponseWrapper(HttpServletResponse response, HttpServletRequest request,
+                                                      boolean httpSessionExistedAtStartOfRequest,
+                                                      DirtyTrackingSecurityContext trackedContext,
+                                                      String contextSessionId) {
+            super(response, disableUrlRewriting);
+            this.request = request;
+            this.httpSessionExistedAtStartOfRequest = httpSessionExistedAtStartOfRequest;
+            this.trackedContext = trackedContext;
+            this.contextSessionId = contextSessionId;
+        }
+
         /**
          * Stores the supplied security context in the session (if available) and if it has changed since it was
          * set at the start of the request. If the AuthenticationTrustResolver identifies the current user as
@@ -328,6 +396,19 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
          */
         @Override
         protected void saveContext(SecurityContext context) {
+            boolean changed;
+
+            if (trackedContext == null) {
+                changed = context.hashCode() != contextHashBeforeChainExecution;
+            } else if (context == trackedContext) {
+                changed = trackedContext.isDirty();
+                // Store the original object rather than the wrapper
+                context = trackedContext.getDelegate();
+            } else {
+                // The context in the holder has been replaced
+                changed = true;
+            }
+
             // See SEC-776
             if (authenticationTrustResolver.isAnonymous(context.getAuthentication())) {
                 if (logger.isDebugEnabled()) {
@@ -342,15 +423,42 @@ public class HttpSessionSecurityContextRepository implements SecurityContextRepo
                 httpSession = createNewSessionIfAllowed(context);
             }
 
+            if (httpSession == null) {
+                return;
+            }
+
+            // When tracking changes, also store an unchanged context if it isn't in the session (because the
+            // session has been replaced during the request, for example)
+            if (!changed && trackedContext != null) {
+                changed = !isStoredInSession(context, httpSession);
+            }
+
             // If HttpSession exists, store current SecurityContextHolder contents but only if
             // the SecurityContext has actually changed (see JIRA SEC-37)
-            if (httpSession != null && context.hashCode() != contextHashBeforeChainExecution) {
+            if (changed) {
                 httpSession.setAttribute(SPRING_SECURITY_CONTEXT_KEY, context);
+                savedContextCount.incrementAndGet();
 
                 if (logger.isDebugEnabled()) {
                     logger.debug("SecurityContext stored to HttpSession: '" + context + "'");
                 }
+            } else {
+                skippedSaveCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * Checks whether the session still holds the context. A cloned context is never the object held by the
+         * session, so it is enough that the context was loaded from this session and that it hasn't been removed.
+         */
+        private boolean isStoredInSession(SecurityContext context, HttpSession httpSession) {
+            Object stored = httpSession.getAttribute(SPRING_SECURITY_CONTEXT_KEY);
+
+            if (stored == context) {
+                return true;
             }
+
+            return stored != null && httpSession.getId().equals(contextSessionId);
         }
 
         private HttpSession createNewSessionIfAllowed(SecurityContext context) {
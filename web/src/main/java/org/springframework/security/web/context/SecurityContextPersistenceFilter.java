@@ -1,6 +1,7 @@
 package org.springframework.security.web.context;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -12,6 +13,8 @@ import javax.servlet.http.HttpSession;
 
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
 import org.springframework.web.filter.GenericFilterBean;
 
 /**
@@ -34,6 +37,14 @@ import org.springframework.web.filter.GenericFilterBean;
  * <p>
  * The <tt>forceEagerSessionCreation</tt> property can be used to ensure that a session is always available before
  * the filter chain executes (the default is <code>false</code>, as this is resource intensive and not recommended).
+ * <p>
+ * When running in a Servlet 3 container, the filter recognises requests which have been put into asynchronous mode
+ * by the time the chain returns. The context is still saved and cleared from the container thread, but it is also
+ * retained as a request attribute and restored to the <code>SecurityContextHolder</code> when the request is
+ * dispatched back to the filter chain, so that processing continues with the same context even if the repository
+ * did not store it (for example, because no session was available). Work which is started on other threads
+ * in the meantime can be run with the context by wrapping it in a
+ * {@link org.springframework.security.core.context.DelegatingSecurityContextRunnable DelegatingSecurityContextRunnable}.
  *
  * @author Luke Taylor
  * @since 3.0
@@ -41,6 +52,11 @@ import org.springframework.web.filter.GenericFilterBean;
 public class SecurityContextPersistenceFilter extends GenericFilterBean {
 
     static final String FILTER_APPLIED = "__spring_security_scpf_applied";
+    static final String ASYNC_CONTEXT = "__spring_security_scpf_async_context";
+
+    /** <tt>ServletRequest.isAsyncStarted()</tt>, or null if the Servlet API is older than 3.0 */
+    private static final Method IS_ASYNC_STARTED = ClassUtils.getMethodIfAvailable(ServletRequest.class,
+            "isAsyncStarted");
 
     private SecurityContextRepository repo = new HttpSessionSecurityContextRepository();
 
@@ -72,6 +88,13 @@ public class SecurityContextPersistenceFilter extends GenericFilterBean {
 
         HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, response);
         SecurityContext contextBeforeChainExecution = repo.loadContext(holder);
+        SecurityContext suspendedContext = (SecurityContext) request.getAttribute(ASYNC_CONTEXT);
+
+        if (suspendedContext != null) {
+            // Resuming an asynchronous request - continue with the context it was suspended with
+            request.removeAttribute(ASYNC_CONTEXT);
+            contextBeforeChainExecution = suspendedContext;
+        }
 
         try {
             SecurityContextHolder.setContext(contextBeforeChainExecution);
@@ -85,12 +108,30 @@ public class SecurityContextPersistenceFilter extends GenericFilterBean {
             repo.saveContext(contextAfterChainExecution, holder.getRequest(), holder.getResponse());
             request.removeAttribute(FILTER_APPLIED);
 
-            if (debug) {
+            if (isAsyncStarted(request)) {
+                request.setAttribute(ASYNC_CONTEXT, contextAfterChainExecution);
+
+                if (debug) {
+                    logger.debug("SecurityContextHolder now cleared, as request has entered asynchronous mode");
+                }
+            } else if (debug) {
                 logger.debug("SecurityContextHolder now cleared, as request processing completed");
             }
         }
     }
 
+    /**
+     * Determines whether the request was put into asynchronous mode during the execution of the filter chain. The
+     * default implementation calls <tt>isAsyncStarted()</tt> if it is supported by the Servlet API in use.
+     */
+    protected boolean isAsyncStarted(HttpServletRequest request) {
+        if (IS_ASYNC_STARTED == null) {
+            return false;
+        }
+
+        return Boolean.TRUE.equals(ReflectionUtils.invokeMethod(IS_ASYNC_STARTED, request));
+    }
+
     public void setSecurityContextRepository(SecurityContextRepository repo) {
         this.repo = repo;
     }
@@ -0,0 +1,647 @@
+package org.springframework.security.web.context;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.authentication.AuthenticationDetailsSource;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.GrantedAuthorityImpl;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.token.Sha512DigestUtils;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link SecurityContextRepository} which keeps the security context on the client rather than in the
+ * {@code HttpSession}, so that no server-side state is required and any node can process any request.
+ * <p>
+ * When the context contains an authenticated (non-anonymous) user, a compact representation of the
+ * {@code Authentication} is written to a cookie: the principal's name, the names of its authorities, an expiry time
+ * and (optionally) a digest of the authentication details, signed with HMAC-SHA256 and optionally encrypted with
+ * AES. On subsequent requests the value is verified using only the configured keys, and a
+ * {@code UsernamePasswordAuthenticationToken} is rebuilt from it, with a {@code String} principal and new details
+ * obtained from the <tt>authenticationDetailsSource</tt>. Authority instances are shared between requests. If a
+ * <tt>headerName</tt> is set, the value is also accepted from (and written to) that request and response header,
+ * for clients which don't support cookies.
+ * <p>
+ * The keys are derived from a <tt>serverSecret</tt> and <tt>serverInteger</tt>, which are configured in the same
+ * way as those of
+ * {@link org.springframework.security.core.token.KeyBasedPersistenceTokenService KeyBasedPersistenceTokenService}.
+ * Unlike that class, no time-based component is used: a single SHA-512 digest of
+ * <tt>serverSecret + ":" + serverInteger</tt> is computed, and its first 32 bytes are used as the HMAC key and the
+ * next 16 bytes as the AES key. A {@code SecureRandom} (such as one obtained from a
+ * {@link org.springframework.security.core.token.SecureRandomFactoryBean SecureRandomFactoryBean}) is used to
+ * generate initialization vectors. New values are always signed with the current secret, but values signed with any
+ * of the <tt>previousServerSecrets</tt> are still accepted, so keys can be rotated without logging out users by
+ * moving the old secret into that list, and removing it once <tt>maxAge</tt> has passed.
+ * <p>
+ * The value is rewritten when the authentication changes, and is refreshed when more than half of its lifetime has
+ * passed. It is removed if the context no longer contains an authenticated user. Since cookies can only be added
+ * before the response is committed, the value is also written before a redirect or error is sent, but a change made
+ * to the context after the response has been committed will be lost.
+ * <p>
+ * Note that a signed value cannot be revoked before it expires, so <tt>maxAge</tt> should be kept short.
+ *
+ * @since 3.0.2
+ */
+public class SignedCookieSecurityContextRepository implements SecurityContextRepository, InitializingBean {
+    //~ Static fields/initializers =====================================================================================
+
+    public static final String DEFAULT_COOKIE_NAME = "SPRING_SECURITY_CONTEXT";
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final int MAC_LENGTH = 32;
+    private static final int IV_LENGTH = 16;
+    private static final int VERSION = 1;
+    private static final int FLAG_ENCRYPTED = 1;
+    /** Browsers aren't required to store cookies larger than this */
+    private static final int MAX_COOKIE_LENGTH = 4096;
+
+    /** Request attribute used to hold the result of decoding the value sent with the request */
+    static final String LOADED_CONTEXT_ATTR = SignedCookieSecurityContextRepository.class.getName() + ".LOADED";
+
+    //~ Instance fields ================================================================================================
+
+    protected final Log logger = LogFactory.getLog(getClass());
+
+    private String serverSecret;
+    private Integer serverInteger;
+    private List<String> previousServerSecrets = Collections.emptyList();
+    private SecureRandom secureRandom;
+    private boolean encrypt = false;
+    private boolean verifyDetails = false;
+    private int maxAge = 1800;
+    private String cookieName = DEFAULT_COOKIE_NAME;
+    private String headerName;
+    private boolean useSecureCookie = false;
+    private AuthenticationTrustResolver authenticationTrustResolver = new AuthenticationTrustResolverImpl();
+    private AuthenticationDetailsSource authenticationDetailsSource = new WebAuthenticationDetailsSource();
+
+    /** The current key first, followed by the keys which are only used for verification */
+    private List<SigningKey> keys;
+    private final ConcurrentMap<String, GrantedAuthority> authorities =
+        new ConcurrentHashMap<String, GrantedAuthority>();
+
+    //~ Methods ========================================================================================================
+
+    public void afterPropertiesSet() throws Exception {
+        Assert.hasText(serverSecret, "Server secret required");
+        Assert.notNull(serverInteger, "Server integer required");
+        Assert.notNull(secureRandom, "SecureRandom instance required");
+        Assert.isTrue(maxAge > 0, "maxAge must be greater than zero");
+        Assert.hasText(cookieName, "cookieName cannot be empty");
+
+        List<SigningKey> keys = new ArrayList<SigningKey>();
+        keys.add(new SigningKey(serverSecret, serverInteger.intValue()));
+
+        for (String secret : previousServerSecrets) {
+            keys.add(new SigningKey(secret, serverInteger.intValue()));
+        }
+
+        this.keys = keys;
+    }
+
+    public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+        HttpServletRequest request = requestResponseHolder.getRequest();
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        LoadedContext loaded = getLoadedContext(request);
+
+        if (loaded != null) {
+            context.setAuthentication(loaded.authentication);
+        }
+
+        requestResponseHolder.setResponse(new SaveToCookieResponseWrapper(requestResponseHolder.getResponse(),
+                request));
+
+        return context;
+    }
+
+    public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        if (response instanceof SaveToCookieResponseWrapper) {
+            SaveToCookieResponseWrapper responseWrapper = (SaveToCookieResponseWrapper) response;
+
+            // The context has already been written if a redirect or error was sent
+            if (!responseWrapper.isContextSaved()) {
+                responseWrapper.saveContext(context);
+            }
+        } else {
+            writeContext(context, request, response);
+        }
+    }
+
+    public boolean containsContext(HttpServletRequest request) {
+        return getLoadedContext(request) != null;
+    }
+
+    private void writeContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+        Authentication authentication = context.getAuthentication();
+        LoadedContext loaded = getLoadedContext(request);
+
+        if (authentication == null || authenticationTrustResolver.isAnonymous(authentication) ||
+                !authentication.isAuthenticated()) {
+            if (loaded != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("SecurityContext no longer contains an authenticated user. Removing cookie.");
+                }
+                writeValue("", 0, request, response);
+            }
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long lifetime = maxAge * 1000L;
+
+        if (loaded != null && loaded.authentication == authentication && loaded.expiry - now > lifetime / 2) {
+            // Unchanged and not due for refresh
+            return;
+        }
+
+        if (response.isCommitted()) {
+            logger.warn("Unable to store SecurityContext in a cookie as the response has already been committed");
+            return;
+        }
+
+        String value = encode(authentication, now + lifetime);
+
+        if (value.length() > MAX_COOKIE_LENGTH) {
+            logger.warn("Encoded SecurityContext is " + value.length() + " characters long, which exceeds the " +
+                    "maximum size supported by browsers. It will not be stored.");
+            return;
+        }
+
+        writeValue(value, maxAge, request, response);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("SecurityContext for '" + authentication.getName() + "' stored in cookie");
+        }
+    }
+
+    private void writeValue(String value, int maxAge, HttpServletRequest request, HttpServletResponse response) {
+        Cookie cookie = new Cookie(cookieName, value);
+        cookie.setMaxAge(maxAge);
+        String contextPath = request.getContextPath();
+        cookie.setPath(contextPath.length() > 0 ? contextPath : "/");
+        cookie.setSecure(useSecureCookie);
+        response.addCookie(cookie);
+
+        if (headerName != null) {
+            response.setHeader(headerName, value);
+        }
+    }
+
+    /**
+     * Decodes and verifies the value sent with the request on first use, storing the result as a request attribute.
+     *
+     * @return the verified content, or null if there is none
+     */
+    private LoadedContext getLoadedContext(HttpServletRequest request) {
+        Object loaded = request.getAttribute(LOADED_CONTEXT_ATTR);
+
+        if (loaded == null) {
+            LoadedContext result = null;
+            String value = readValue(request);
+
+            if (value != null && value.length() > 0) {
+                result = decode(value, request);
+            }
+
+            loaded = result == null ? Boolean.FALSE : result;
+            request.setAttribute(LOADED_CONTEXT_ATTR, loaded);
+        }
+
+        return loaded instanceof LoadedContext ? (LoadedContext) loaded : null;
+    }
+
+    private String readValue(HttpServletRequest request) {
+        if (headerName != null) {
+            String header = request.getHeader(headerName);
+
+            if (header != null) {
+                return header;
+            }
+        }
+
+        Cookie[] cookies = request.getCookies();
+
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookieName.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    String encode(Authentication authentication, long expiry) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(128);
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            payload.writeByte(VERSION);
+            payload.writeLong(expiry);
+            payload.writeUTF(authentication.getName());
+            Collection<GrantedAuthority> granted = authentication.getAuthorities();
+            payload.writeShort(granted.size());
+
+            for (GrantedAuthority authority : granted) {
+                payload.writeUTF(authority.getAuthority());
+            }
+
+            byte[] detailsDigest = verifyDetails ? getDetailsDigest(authentication.getDetails()) : null;
+
+            if (detailsDigest == null) {
+                payload.writeByte(0);
+            } else {
+                payload.writeByte(detailsDigest.length);
+                payload.write(detailsDigest);
+            }
+
+            payload.flush();
+
+            SigningKey key = keys.get(0);
+            ByteArrayOutputStream tokenBytes = new ByteArrayOutputStream(payloadBytes.size() + 64);
+            tokenBytes.write(encrypt ? FLAG_ENCRYPTED : 0);
+
+            if (encrypt) {
+                byte[] iv = new byte[IV_LENGTH];
+                secureRandom.nextBytes(iv);
+                Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+                cipher.init(Cipher.ENCRYPT_MODE, key.cipherKey, new IvParameterSpec(iv));
+                tokenBytes.write(iv);
+                tokenBytes.write(cipher.doFinal(payloadBytes.toByteArray()));
+            } else {
+                payloadBytes.writeTo(tokenBytes);
+            }
+
+            byte[] body = tokenBytes.toByteArray();
+            tokenBytes.write(key.sign(body, body.length));
+
+            return toUrlSafe(Base64.encode(tokenBytes.toByteArray()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode authentication: " + e.getMessage());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt authentication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the content of the value, or null if it is invalid or has expired
+     */
+    LoadedContext decode(String value, HttpServletRequest request) {
+        byte[] token;
+
+        try {
+            token = Base64.decode(fromUrlSafe(value));
+        } catch (RuntimeException e) {
+            logger.debug("Security context cookie was not Base64 encoded");
+            return null;
+        }
+
+        if (token.length < 1 + MAC_LENGTH) {
+            logger.debug("Security context cookie is too short");
+            return null;
+        }
+
+        int bodyLength = token.length - MAC_LENGTH;
+        SigningKey key = null;
+
+        for (SigningKey candidate : keys) {
+            if (candidate.verify(token, bodyLength)) {
+                key = candidate;
+                break;
+            }
+        }
+
+        if (key == null) {
+            logger.debug("Security context cookie signature verification failed");
+            return null;
+        }
+
+        try {
+            byte[] payload;
+            int offset;
+            int length;
+
+            if ((token[0] & FLAG_ENCRYPTED) != 0) {
+                Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+                cipher.init(Cipher.DECRYPT_MODE, key.cipherKey, new IvParameterSpec(token, 1, IV_LENGTH));
+                payload = cipher.doFinal(token, 1 + IV_LENGTH, bodyLength - 1 - IV_LENGTH);
+                offset = 0;
+                length = payload.length;
+            } else {
+                payload = token;
+                offset = 1;
+                length = bodyLength - 1;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, offset, length));
+
+            if (in.readUnsignedByte() != VERSION) {
+                logger.debug("Unsupported security context cookie version");
+                return null;
+            }
+
+            long expiry = in.readLong();
+
+            if (expiry < System.currentTimeMillis()) {
+                logger.debug("Security context cookie has expired");
+                return null;
+            }
+
+            String name = in.readUTF();
+            int authorityCount = in.readUnsignedShort();
+            List<GrantedAuthority> granted = new ArrayList<GrantedAuthority>(authorityCount);
+
+            for (int i = 0; i < authorityCount; i++) {
+                granted.add(getAuthority(in.readUTF()));
+            }
+
+            byte[] detailsDigest = new byte[in.readUnsignedByte()];
+            in.readFully(detailsDigest);
+            Object details = authenticationDetailsSource.buildDetails(request);
+
+            if (detailsDigest.length > 0 && !isEqual(detailsDigest, getDetailsDigest(details))) {
+                logger.debug("Security context cookie does not match the authentication details of the request");
+                return null;
+            }
+
+            UsernamePasswordAuthenticationToken authentication =
+                new UsernamePasswordAuthenticationToken(name, null, granted);
+            authentication.setDetails(details);
+
+            return new LoadedContext(authentication, expiry);
+        } catch (IOException e) {
+            logger.debug("Security context cookie content is invalid", e);
+        } catch (GeneralSecurityException e) {
+            logger.debug("Security context cookie could not be decrypted", e);
+        }
+
+        return null;
+    }
+
+    private GrantedAuthority getAuthority(String role) {
+        GrantedAuthority authority = authorities.get(role);
+
+        if (authority == null) {
+            authority = new GrantedAuthorityImpl(role);
+            GrantedAuthority existing = authorities.putIfAbsent(role, authority);
+
+            if (existing != null) {
+                authority = existing;
+            }
+        }
+
+        return authority;
+    }
+
+    /**
+     * Calculates a digest of the parts of the authentication details which must be the same on every request made
+     * with the cookie, when <tt>verifyDetails</tt> is set. The default implementation uses the remote address of
+     * {@link WebAuthenticationDetails} (the session id is ignored, since there is no session).
+     *
+     * @param details the authentication details
+     * @return the digest, or null if the details should not be checked (at most 255 bytes)
+     */
+    protected byte[] getDetailsDigest(Object details) {
+        if (details instanceof WebAuthenticationDetails) {
+            String remoteAddress = ((WebAuthenticationDetails) details).getRemoteAddress();
+
+            if (remoteAddress != null) {
+                byte[] digest = Sha512DigestUtils.sha(remoteAddress);
+                byte[] truncated = new byte[16];
+                System.arraycopy(digest, 0, truncated, 0, truncated.length);
+                return truncated;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isEqual(byte[] expected, byte[] actual) {
+        if (actual == null || expected.length != actual.length) {
+            return false;
+        }
+
+        int result = 0;
+
+        for (int i = 0; i < expected.length; i++) {
+            result |= expected[i] ^ actual[i];
+        }
+
+        return result == 0;
+    }
+
+    /**
+     * Base64 using the URL and filename safe alphabet without padding, which can be used in a cookie value.
+     */
+    private static String toUrlSafe(byte[] base64) {
+        StringBuilder sb = new StringBuilder(base64.length);
+
+        for (byte b : base64) {
+            if (b == '+') {
+                sb.append('-');
+            } else if (b == '/') {
+                sb.append('_');
+            } else if (b != '=') {
+                sb.append((char) b);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static byte[] fromUrlSafe(String value) {
+        int length = value.length();
+        byte[] base64 = new byte[(length + 3) / 4 * 4];
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            base64[i] = (byte) (c == '-' ? '+' : c == '_' ? '/' : c);
+        }
+
+        for (int i = length; i < base64.length; i++) {
+            base64[i] = '=';
+        }
+
+        return base64;
+    }
+
+    /**
+     * The current secret, used to sign new values. Required.
+     */
+    public void setServerSecret(String serverSecret) {
+        this.serverSecret = serverSecret;
+    }
+
+    /**
+     * Combined with the secrets to derive the keys. Required.
+     */
+    public void setServerInteger(Integer serverInteger) {
+        this.serverInteger = serverInteger;
+    }
+
+    /**
+     * Secrets which were previously used to sign values. Values signed with these are still accepted, but new values
+     * are always signed with the current <tt>serverSecret</tt>.
+     */
+    public void setPreviousServerSecrets(List<String> previousServerSecrets) {
+        Assert.notNull(previousServerSecrets, "previousServerSecrets cannot be null");
+        this.previousServerSecrets = previousServerSecrets;
+    }
+
+    /**
+     * Used to generate initialization vectors for encryption. Required.
+     */
+    public void setSecureRandom(SecureRandom secureRandom) {
+        this.secureRandom = secureRandom;
+    }
+
+    /**
+     * If true, the content is encrypted as well as signed, so that the user's name and authorities can't be read by
+     * the client. Defaults to false.
+     */
+    public void setEncrypt(boolean encrypt) {
+        this.encrypt = encrypt;
+    }
+
+    /**
+     * If true, a digest of the authentication details is included, and the value is only accepted from requests
+     * whose details produce the same digest (see {@link #getDetailsDigest(Object)}). Defaults to false.
+     */
+    public void setVerifyDetails(boolean verifyDetails) {
+        this.verifyDetails = verifyDetails;
+    }
+
+    /**
+     * The lifetime of a value in seconds. Defaults to 1800.
+     */
+    public void setMaxAge(int maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public void setCookieName(String cookieName) {
+        this.cookieName = cookieName;
+    }
+
+    /**
+     * The name of a header which may be used instead of the cookie. Not set by default.
+     */
+    public void setHeaderName(String headerName) {
+        this.headerName = headerName;
+    }
+
+    public void setUseSecureCookie(boolean useSecureCookie) {
+        this.useSecureCookie = useSecureCookie;
+    }
+
+    public void setAuthenticationTrustResolver(AuthenticationTrustResolver authenticationTrustResolver) {
+        Assert.notNull(authenticationTrustResolver, "authenticationTrustResolver cannot be null");
+        this.authenticationTrustResolver = authenticationTrustResolver;
+    }
+
+    /**
+     * Used to build the details of the restored {@code Authentication}. Defaults to a
+     * {@link WebAuthenticationDetailsSource}.
+     */
+    public void setAuthenticationDetailsSource(AuthenticationDetailsSource authenticationDetailsSource) {
+        Assert.notNull(authenticationDetailsSource, "authenticationDetailsSource cannot be null");
+        this.authenticationDetailsSource = authenticationDetailsSource;
+    }
+
+    //~ Inner Classes ==================================================================================================
+
+    /**
+     * The MAC and cipher keys derived from a single secret.
+     */
+    private static final class SigningKey {
+        final SecretKeySpec macKey;
+        final SecretKeySpec cipherKey;
+
+        SigningKey(String secret, int serverInteger) {
+            byte[] material = Sha512DigestUtils.sha(secret + ":" + serverInteger);
+            macKey = new SecretKeySpec(material, 0, 32, MAC_ALGORITHM);
+            cipherKey = new SecretKeySpec(material, 32, 16, "AES");
+        }
+
+        byte[] sign(byte[] data, int length) {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(macKey);
+                mac.update(data, 0, length);
+                return mac.doFinal();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Failed to calculate " + MAC_ALGORITHM + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Checks the signature which follows the first <tt>length</tt> bytes of the token.
+         */
+        boolean verify(byte[] token, int length) {
+            byte[] expected = sign(token, length);
+            int result = 0;
+
+            for (int i = 0; i < MAC_LENGTH; i++) {
+                result |= expected[i] ^ token[length + i];
+            }
+
+            return result == 0;
+        }
+    }
+
+    static final class LoadedContext {
+        final Authentication authentication;
+        final long expiry;
+
+        LoadedContext(Authentication authentication, long expiry) {
+            this.authentication = authentication;
+            this.expiry = expiry;
+        }
+    }
+
+    final class SaveToCookieResponseWrapper extends SaveContextOnUpdateOrErrorResponseWrapper {
+        private final HttpServletRequest request;
+
+        SaveToCookieResponseWrapper(HttpServletResponse response, HttpServletRequest request) {
+            // URL rewriting is only used for session ids
+            super(response, true);
+            this.request = request;
+        }
+
+        @Override
+        protected void saveContext(SecurityContext context) {
+            writeContext(context, request, (HttpServletResponse) getResponse());
+        }
+    }
+}
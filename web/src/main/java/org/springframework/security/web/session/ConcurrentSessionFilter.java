@@ -61,6 +61,7 @@ public class ConcurrentSessionFilter extends GenericFilterBean {
     private String expiredUrl;
     private LogoutHandler[] handlers = new LogoutHandler[] {new SecurityContextLogoutHandler()};
     private RedirectStrategy redirectStrategy = new DefaultRedirectStrategy();
+    private long refreshGranularity = 0;
 
     //~ Methods ========================================================================================================
 
@@ -100,8 +101,12 @@ public class ConcurrentSessionFilter extends GenericFilterBean {
 
                     return;
                 } else {
-                    // Non-expired - update last request date/time
-                    info.refreshLastRequest();
+                    // Non-expired - update last request date/time, if it is sufficiently out of date
+                    long now = System.currentTimeMillis();
+
+                    if (now - info.getLastRequestTime() >= refreshGranularity) {
+                        info.refreshLastRequest(now);
+                    }
                 }
             }
         }
@@ -137,4 +142,17 @@ public class ConcurrentSessionFilter extends GenericFilterBean {
     public void setRedirectStrategy(RedirectStrategy redirectStrategy) {
         this.redirectStrategy = redirectStrategy;
     }
+
+    /**
+     * The minimum time in milliseconds between updates of a session's last request time. Updating the time on
+     * every request writes to state shared between threads (and, for a replicated registry, to the replicated
+     * store), whereas the "least recently used" session selection only needs it to be approximately correct.
+     * Defaults to 0, so the time is updated on every request.
+     *
+     * @param refreshGranularity the age the recorded last request time must reach before it is updated
+     */
+    public void setRefreshGranularity(long refreshGranularity) {
+        Assert.isTrue(refreshGranularity >= 0, "refreshGranularity cannot be negative");
+        this.refreshGranularity = refreshGranularity;
+    }
 }
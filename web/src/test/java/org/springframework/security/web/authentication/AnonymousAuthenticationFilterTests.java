@@ -26,12 +26,14 @@ import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
@@ -144,6 +146,131 @@ public class AnonymousAuthenticationFilterTests {
         SecurityContextHolder.getContext().setAuthentication(null); // so anonymous fires again
     }
 
+    @Test
+    public void sharedTokenIsReusedAndDetailsAreBuiltOnlyWhenRequested() throws Exception {
+        UserAttribute user = new UserAttribute();
+        user.setPassword("anonymousUsername");
+        user.addAuthority(new GrantedAuthorityImpl("ROLE_ANONYMOUS"));
+        final int[] detailsBuilt = new int[1];
+
+        AnonymousAuthenticationFilter filter = new AnonymousAuthenticationFilter();
+        filter.setKey("qwerty");
+        filter.setUserAttribute(user);
+        filter.setUseSharedToken(true);
+        filter.setAuthenticationDetailsSource(new WebAuthenticationDetailsSource() {
+            public Object buildDetails(Object context) {
+                detailsBuilt[0]++;
+                return super.buildDetails(context);
+            }
+        });
+        filter.afterPropertiesSet();
+
+        final Authentication[] seen = new Authentication[2];
+        final Object[] details = new Object[2];
+
+        for (int i = 0; i < 2; i++) {
+            final int index = i;
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setRemoteAddr("10.0.0." + i);
+            filter.doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+                public void doFilter(ServletRequest request, ServletResponse response) {
+                    seen[index] = SecurityContextHolder.getContext().getAuthentication();
+
+                    if (index == 1) {
+                        details[0] = seen[index].getDetails();
+                        details[1] = seen[index].getDetails();
+                    }
+                }
+            });
+            SecurityContextHolder.clearContext();
+        }
+
+        assertSame(seen[0], seen[1]);
+        assertEquals("anonymousUsername", seen[0].getPrincipal());
+        assertTrue(seen[0].isAuthenticated());
+        assertEquals(1, detailsBuilt[0]);
+        assertSame(details[0], details[1]);
+        assertEquals("10.0.0.1", ((WebAuthenticationDetails) details[0]).getRemoteAddress());
+        assertNull(seen[0].getDetails());
+    }
+
+    private AnonymousAuthenticationFilter createSharedTokenFilter() throws Exception {
+        UserAttribute user = new UserAttribute();
+        user.setPassword("anonymousUsername");
+        user.addAuthority(new GrantedAuthorityImpl("ROLE_ANONYMOUS"));
+
+        AnonymousAuthenticationFilter filter = new AnonymousAuthenticationFilter();
+        filter.setKey("qwerty");
+        filter.setUserAttribute(user);
+        filter.setUseSharedToken(true);
+        filter.afterPropertiesSet();
+
+        return filter;
+    }
+
+    private Authentication filterSharedTokenRequest(AnonymousAuthenticationFilter filter) throws Exception {
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), new MockFilterChain(true));
+        Authentication token = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+
+        return token;
+    }
+
+    @Test
+    public void revokedSharedTokenIsReplaced() throws Exception {
+        AnonymousAuthenticationFilter filter = createSharedTokenFilter();
+        AnonymousAuthenticationToken token = (AnonymousAuthenticationToken) filterSharedTokenRequest(filter);
+        assertEquals("qwerty".hashCode(), token.getKeyHash());
+
+        try {
+            token.setDetails("details");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        token.setAuthenticated(false);
+        assertFalse(token.isAuthenticated());
+
+        Authentication replacement = filterSharedTokenRequest(filter);
+        assertNotSame(token, replacement);
+        assertTrue(replacement.isAuthenticated());
+        assertSame(replacement, filterSharedTokenRequest(filter));
+    }
+
+    @Test
+    public void sharedTokenEqualsEquivalentToken() throws Exception {
+        Authentication shared = filterSharedTokenRequest(createSharedTokenFilter());
+        AnonymousAuthenticationToken equivalent = new AnonymousAuthenticationToken("qwerty", "anonymousUsername",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+        assertEquals(equivalent, shared);
+        assertEquals(shared, equivalent);
+        assertEquals(equivalent.hashCode(), shared.hashCode());
+        assertFalse(shared.equals(new AnonymousAuthenticationToken("other", "anonymousUsername",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"))));
+    }
+
+    @Test
+    public void overriddenCreateAuthenticationIsUsedWithSharedToken() throws Exception {
+        UserAttribute user = new UserAttribute();
+        user.setPassword("anonymousUsername");
+        user.addAuthority(new GrantedAuthorityImpl("ROLE_ANONYMOUS"));
+        final Authentication custom = new AnonymousAuthenticationToken("qwerty", "custom",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+        AnonymousAuthenticationFilter filter = new AnonymousAuthenticationFilter() {
+            protected Authentication createAuthentication(HttpServletRequest request) {
+                return custom;
+            }
+        };
+        filter.setKey("qwerty");
+        filter.setUserAttribute(user);
+        filter.setUseSharedToken(true);
+        filter.afterPropertiesSet();
+
+        assertSame(custom, filterSharedTokenRequest(filter));
+    }
+
     //~ Inner Classes ==================================================================================================
 
     private class MockFilterChain implements FilterChain {
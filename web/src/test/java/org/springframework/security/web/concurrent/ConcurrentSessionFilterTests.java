@@ -26,6 +26,7 @@ import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.core.session.SessionInformation;
 import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.core.session.SessionRegistryImpl;
 import org.springframework.security.web.DefaultRedirectStrategy;
@@ -133,4 +134,28 @@ public class ConcurrentSessionFilterTests {
         verify(fc).doFilter(request, response);
         assertTrue(registry.getSessionInformation(session.getId()).getLastRequest().after(lastRequest));
     }
+
+    @Test
+    public void lastRequestTimeIsNotUpdatedWithinRefreshGranularity() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpSession session = new MockHttpSession();
+        request.setSession(session);
+        FilterChain fc = mock(FilterChain.class);
+
+        ConcurrentSessionFilter filter = new ConcurrentSessionFilter();
+        SessionRegistry registry = new SessionRegistryImpl();
+        registry.registerNewSession(session.getId(), "principal");
+        SessionInformation info = registry.getSessionInformation(session.getId());
+        long now = System.currentTimeMillis();
+        info.refreshLastRequest(now - 1000);
+        filter.setSessionRegistry(registry);
+        filter.setRefreshGranularity(60000);
+
+        filter.doFilter(request, new MockHttpServletResponse(), fc);
+        assertEquals(now - 1000, info.getLastRequestTime());
+
+        info.refreshLastRequest(now - 60000);
+        filter.doFilter(request, new MockHttpServletResponse(), fc);
+        assertTrue(info.getLastRequestTime() >= now);
+    }
 }
@@ -5,12 +5,14 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.web.context.HttpRequestResponseHolder;
 import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
 import org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper;
@@ -229,6 +231,167 @@ public class HttpSessionSecurityContextRepositoryTests {
         assertEquals(url, holder.getResponse().encodeURL(url));
     }
 
+    @Test
+    public void unchangedTrackedContextIsNotStoredAgain() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        CountingSession session = new CountingSession();
+        SecurityContext stored = new SecurityContextImpl();
+        stored.setAuthentication(testToken);
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        assertTrue(context instanceof DirtyTrackingSecurityContext);
+        assertSame(testToken, context.getAuthentication());
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertEquals(1, session.setAttributeCount);
+        assertEquals(0, repo.getSavedContextCount());
+        assertEquals(1, repo.getSkippedSaveCount());
+    }
+
+    @Test
+    public void trackedContextIsStoredUnwrappedIfAuthenticationIsSet() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        context.setAuthentication(testToken);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        Object stored = request.getSession().getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        assertSame(((DirtyTrackingSecurityContext) context).getDelegate(), stored);
+        assertSame(testToken, ((SecurityContext) stored).getAuthentication());
+        assertEquals(1, repo.getSavedContextCount());
+    }
+
+    @Test
+    public void trackedContextIsStoredIfTokenIsNoLongerAuthenticated() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        CountingSession session = new CountingSession();
+        SecurityContext stored = new SecurityContextImpl();
+        stored.setAuthentication(new TestingAuthenticationToken("someone", "passwd", "ROLE_A"));
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        context.getAuthentication().setAuthenticated(false);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertEquals(2, session.setAttributeCount);
+        assertEquals(1, repo.getSavedContextCount());
+    }
+
+    @Test
+    public void replacedContextIsStoredWhenTrackingChanges() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.getSession();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        repo.loadContext(holder);
+        SecurityContext replacement = new SecurityContextImpl();
+        replacement.setAuthentication(testToken);
+        repo.saveContext(replacement, holder.getRequest(), holder.getResponse());
+
+        assertSame(replacement,
+                request.getSession().getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY));
+        assertEquals(1, repo.getSavedContextCount());
+    }
+
+    @Test
+    public void unchangedTrackedContextIsStoredIfMissingFromSession() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        SecurityContext stored = new SecurityContextImpl();
+        stored.setAuthentication(testToken);
+        request.getSession().setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        // Simulate the session being replaced without its attributes
+        request.getSession().removeAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertSame(stored,
+                request.getSession().getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY));
+    }
+
+    @Test
+    @Deprecated
+    public void unchangedClonedContextIsNotStoredAgain() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        repo.setCloneFromHttpSession(true);
+        CountingSession session = new CountingSession();
+        MockContext stored = new MockContext();
+        stored.setAuthentication(testToken);
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setSession(session);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        assertNotSame(stored, ((DirtyTrackingSecurityContext) context).getDelegate());
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertEquals(1, session.setAttributeCount);
+        assertEquals(0, repo.getSavedContextCount());
+        assertEquals(1, repo.getSkippedSaveCount());
+    }
+
+    @Test
+    @Deprecated
+    public void unchangedClonedContextIsStoredInNewSession() throws Exception {
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        repo.setTrackContextChanges(true);
+        repo.setCloneFromHttpSession(true);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockContext stored = new MockContext();
+        stored.setAuthentication(testToken);
+        request.getSession().setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        // Simulate the session being replaced, carrying over its attributes
+        MockHttpSession newSession = new MockHttpSession();
+        newSession.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, stored);
+        request.setSession(newSession);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertSame(((DirtyTrackingSecurityContext) context).getDelegate(),
+                newSession.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY));
+        assertEquals(1, repo.getSavedContextCount());
+    }
+
+    @Test
+    public void trackedContextEqualityIsSymmetric() throws Exception {
+        SecurityContext context = new SecurityContextImpl();
+        context.setAuthentication(testToken);
+        SecurityContext equivalent = new SecurityContextImpl();
+        equivalent.setAuthentication(testToken);
+        DirtyTrackingSecurityContext tracked = new DirtyTrackingSecurityContext(context);
+
+        assertFalse(tracked.equals(context));
+        assertFalse(context.equals(tracked));
+        assertEquals(tracked, new DirtyTrackingSecurityContext(equivalent));
+        assertEquals(new DirtyTrackingSecurityContext(equivalent), tracked);
+        assertEquals(tracked.hashCode(), new DirtyTrackingSecurityContext(equivalent).hashCode());
+    }
+
+    static class CountingSession extends MockHttpSession {
+        int setAttributeCount;
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            setAttributeCount++;
+            super.setAttribute(name, value);
+        }
+    }
+
     static class MockContext implements Cloneable, SecurityContext {
         Authentication a;
 
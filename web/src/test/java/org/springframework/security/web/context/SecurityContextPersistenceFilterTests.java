@@ -3,6 +3,7 @@ package org.springframework.security.web.context;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -22,6 +23,7 @@ import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.context.SecurityContextImpl;
@@ -130,4 +132,52 @@ public class SecurityContextPersistenceFilterTests {
         filter.doFilter(request, response, chain);
         assertNotNull(request.getSession(false));
     }
+
+    @Test
+    public void contextIsRestoredWhenAsynchronousRequestIsDispatchedAgain() throws Exception {
+        final boolean[] asyncStarted = new boolean[] {true};
+        SecurityContextPersistenceFilter filter = new SecurityContextPersistenceFilter() {
+            protected boolean isAsyncStarted(HttpServletRequest request) {
+                return asyncStarted[0];
+            }
+        };
+        HttpSessionSecurityContextRepository repo = new HttpSessionSecurityContextRepository();
+        // The context won't be stored in the session
+        repo.setAllowSessionCreation(false);
+        filter.setSecurityContextRepository(repo);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        filter.doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                SecurityContextHolder.getContext().setAuthentication(testToken);
+            }
+        });
+
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+        assertNull(request.getSession(false));
+        asyncStarted[0] = false;
+        final Authentication[] authenticationOnDispatch = new Authentication[1];
+
+        filter.doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                authenticationOnDispatch[0] = SecurityContextHolder.getContext().getAuthentication();
+            }
+        });
+
+        assertSame(testToken, authenticationOnDispatch[0]);
+        assertNull(request.getAttribute(SecurityContextPersistenceFilter.ASYNC_CONTEXT));
+        assertNull(SecurityContextHolder.getContext().getAuthentication());
+    }
+
+    @Test
+    public void asynchronousSupportIsDisabledWithoutServlet3Api() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        new SecurityContextPersistenceFilter().doFilter(request, new MockHttpServletResponse(), new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                SecurityContextHolder.getContext().setAuthentication(testToken);
+            }
+        });
+
+        assertNull(request.getAttribute(SecurityContextPersistenceFilter.ASYNC_CONTEXT));
+    }
 }
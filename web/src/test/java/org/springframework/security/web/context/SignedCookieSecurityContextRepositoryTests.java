@@ -0,0 +1,257 @@
+package org.springframework.security.web.context;
+
+import static org.junit.Assert.*;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.codec.Base64;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.WebAuthenticationDetails;
+
+/**
+ * Tests {@link SignedCookieSecurityContextRepository}.
+ */
+public class SignedCookieSecurityContextRepositoryTests {
+    private SignedCookieSecurityContextRepository repo;
+    private Authentication joe = new TestingAuthenticationToken("joe", "password", "ROLE_A", "ROLE_B");
+
+    @Before
+    public void createRepository() throws Exception {
+        repo = createRepository("secret");
+    }
+
+    private SignedCookieSecurityContextRepository createRepository(String secret) throws Exception {
+        SignedCookieSecurityContextRepository repo = new SignedCookieSecurityContextRepository();
+        repo.setServerSecret(secret);
+        repo.setServerInteger(Integer.valueOf(42));
+        repo.setSecureRandom(new SecureRandom());
+        repo.afterPropertiesSet();
+        return repo;
+    }
+
+    /**
+     * Performs a request which authenticates the user, returning the cookie which is set.
+     */
+    private Cookie login(SignedCookieSecurityContextRepository repo, Authentication auth) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, new MockHttpServletResponse());
+        SecurityContext context = repo.loadContext(holder);
+        assertNull(context.getAuthentication());
+        assertFalse(repo.containsContext(request));
+        context.setAuthentication(auth);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        return ((MockHttpServletResponse) ((SaveContextOnUpdateOrErrorResponseWrapper) holder.getResponse())
+                .getResponse()).getCookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME);
+    }
+
+    private MockHttpServletRequest requestWith(Cookie cookie) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie[] {cookie});
+        return request;
+    }
+
+    private String decode(String urlSafeBase64) throws Exception {
+        StringBuilder base64 = new StringBuilder(urlSafeBase64.replace('-', '+').replace('_', '/'));
+
+        while (base64.length() % 4 != 0) {
+            base64.append('=');
+        }
+
+        return new String(Base64.decode(base64.toString().getBytes("US-ASCII")), "ISO-8859-1");
+    }
+
+    @Test
+    public void authenticationIsRestoredFromCookie() throws Exception {
+        Cookie cookie = login(repo, joe);
+        assertNotNull(cookie);
+        assertEquals(1800, cookie.getMaxAge());
+
+        MockHttpServletRequest request = requestWith(cookie);
+        assertTrue(repo.containsContext(request));
+        SecurityContext context = repo.loadContext(new HttpRequestResponseHolder(request,
+                new MockHttpServletResponse()));
+        Authentication restored = context.getAuthentication();
+
+        assertEquals("joe", restored.getPrincipal());
+        assertEquals("joe", restored.getName());
+        assertTrue(restored.isAuthenticated());
+        assertEquals(AuthorityUtils.authorityListToSet(joe.getAuthorities()),
+                AuthorityUtils.authorityListToSet(restored.getAuthorities()));
+        assertTrue(restored.getDetails() instanceof WebAuthenticationDetails);
+    }
+
+    @Test
+    public void authoritiesAreShared() throws Exception {
+        Cookie cookie = login(repo, joe);
+        Authentication a1 = repo.decode(cookie.getValue(), new MockHttpServletRequest()).authentication;
+        Authentication a2 = repo.decode(cookie.getValue(), new MockHttpServletRequest()).authentication;
+
+        assertNotSame(a1, a2);
+        assertSame(a1.getAuthorities().iterator().next(), a2.getAuthorities().iterator().next());
+    }
+
+    @Test
+    public void encryptedCookieIsRestoredAndDoesNotContainName() throws Exception {
+        repo.setEncrypt(true);
+        Authentication longName = new TestingAuthenticationToken("a_very_recognisable_user_name", "password",
+                "ROLE_A");
+        Cookie cookie = login(repo, longName);
+        assertFalse(decode(cookie.getValue()).contains("recognisable"));
+        repo.setEncrypt(false);
+        assertTrue(decode(login(repo, longName).getValue()).contains("recognisable"));
+
+        SecurityContext context = repo.loadContext(new HttpRequestResponseHolder(requestWith(cookie),
+                new MockHttpServletResponse()));
+        assertEquals("a_very_recognisable_user_name", context.getAuthentication().getName());
+    }
+
+    @Test
+    public void tamperedCookieIsRejected() throws Exception {
+        Cookie cookie = login(repo, joe);
+        char[] value = cookie.getValue().toCharArray();
+        value[10] = value[10] == 'A' ? 'B' : 'A';
+        MockHttpServletRequest request = requestWith(new Cookie(cookie.getName(), new String(value)));
+
+        assertFalse(repo.containsContext(request));
+        assertNull(repo.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()))
+                .getAuthentication());
+    }
+
+    @Test
+    public void garbageCookieIsRejected() throws Exception {
+        MockHttpServletRequest request = requestWith(new Cookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME,
+                "not*a*valid*value"));
+
+        assertFalse(repo.containsContext(request));
+    }
+
+    @Test
+    public void cookieSignedWithPreviousKeyIsAcceptedAfterRotation() throws Exception {
+        Cookie cookie = login(createRepository("old"), joe);
+        SignedCookieSecurityContextRepository rotated = new SignedCookieSecurityContextRepository();
+        rotated.setServerSecret("new");
+        rotated.setServerInteger(Integer.valueOf(42));
+        rotated.setSecureRandom(new SecureRandom());
+        rotated.setPreviousServerSecrets(Arrays.asList("old"));
+        rotated.afterPropertiesSet();
+
+        assertTrue(rotated.containsContext(requestWith(cookie)));
+        assertFalse(repo.containsContext(requestWith(cookie)));
+
+        // New cookies are signed with the new key
+        Cookie newCookie = login(rotated, joe);
+        assertFalse(createRepository("old").containsContext(requestWith(newCookie)));
+        assertTrue(createRepository("new").containsContext(requestWith(newCookie)));
+    }
+
+    @Test
+    public void expiredCookieIsRejected() throws Exception {
+        String value = repo.encode(joe, System.currentTimeMillis() - 1);
+
+        assertNull(repo.decode(value, new MockHttpServletRequest()));
+    }
+
+    @Test
+    public void unchangedFreshCookieIsNotRewritten() throws Exception {
+        Cookie cookie = login(repo, joe);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = requestWith(cookie);
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, response);
+        SecurityContext context = repo.loadContext(holder);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertNull(response.getCookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME));
+    }
+
+    @Test
+    public void cookieIsRefreshedAfterHalfItsLifetime() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie[] {new Cookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME,
+                repo.encode(joe, System.currentTimeMillis() + 600 * 1000))});
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, response);
+        SecurityContext context = repo.loadContext(holder);
+        assertNotNull(context.getAuthentication());
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+
+        assertNotNull(response.getCookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME));
+    }
+
+    @Test
+    public void cookieIsRemovedOnLogout() throws Exception {
+        Cookie cookie = login(repo, joe);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(requestWith(cookie), response);
+        repo.loadContext(holder);
+        repo.saveContext(SecurityContextHolder.createEmptyContext(), holder.getRequest(), holder.getResponse());
+
+        assertEquals(0, response.getCookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME).getMaxAge());
+    }
+
+    @Test
+    public void anonymousUserIsNotStored() throws Exception {
+        Cookie cookie = login(repo, new AnonymousAuthenticationToken("key", "anon",
+                AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS")));
+
+        assertNull(cookie);
+    }
+
+    @Test
+    public void contextIsStoredBeforeRedirect() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(new MockHttpServletRequest(), response);
+        SecurityContextHolder.setContext(repo.loadContext(holder));
+        SecurityContextHolder.getContext().setAuthentication(joe);
+        holder.getResponse().sendRedirect("/somewhere");
+        SecurityContextHolder.clearContext();
+
+        assertNotNull(response.getCookie(SignedCookieSecurityContextRepository.DEFAULT_COOKIE_NAME));
+    }
+
+    @Test
+    public void headerIsUsedIfConfigured() throws Exception {
+        repo.setHeaderName("X-Auth-Token");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        HttpRequestResponseHolder holder = new HttpRequestResponseHolder(new MockHttpServletRequest(), response);
+        SecurityContext context = repo.loadContext(holder);
+        context.setAuthentication(joe);
+        repo.saveContext(context, holder.getRequest(), holder.getResponse());
+        String header = (String) response.getHeader("X-Auth-Token");
+        assertNotNull(header);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("X-Auth-Token", header);
+        assertTrue(repo.containsContext(request));
+    }
+
+    @Test
+    public void cookieIsRejectedFromDifferentAddressIfDetailsAreVerified() throws Exception {
+        repo.setVerifyDetails(true);
+        MockHttpServletRequest loginRequest = new MockHttpServletRequest();
+        loginRequest.setRemoteAddr("10.0.0.1");
+        TestingAuthenticationToken auth = new TestingAuthenticationToken("joe", "password", "ROLE_A");
+        auth.setDetails(new WebAuthenticationDetails(loginRequest));
+        String value = repo.encode(auth, System.currentTimeMillis() + 10000);
+
+        MockHttpServletRequest sameAddress = new MockHttpServletRequest();
+        sameAddress.setRemoteAddr("10.0.0.1");
+        MockHttpServletRequest otherAddress = new MockHttpServletRequest();
+        otherAddress.setRemoteAddr("10.0.0.2");
+
+        assertNotNull(repo.decode(value, sameAddress));
+        assertNull(repo.decode(value, otherAddress));
+    }
+}
@@ -0,0 +1,133 @@
+package org.springframework.security.web.session;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.session.OrderedSessionRegistry;
+import org.springframework.security.core.session.SessionInformation;
+import org.springframework.security.core.session.SessionRegistry;
+import org.springframework.security.core.session.SessionRegistryImpl;
+import org.springframework.security.web.authentication.session.ConcurrentSessionControlStrategy;
+import org.springframework.security.web.authentication.session.SessionAuthenticationException;
+
+/**
+ * Tests {@link ConcurrentSessionControlStrategy}.
+ */
+public class ConcurrentSessionControlStrategyTests {
+    private SessionRegistryImpl registry;
+    private ConcurrentSessionControlStrategy strategy;
+    private Authentication joe = new TestingAuthenticationToken("joe", "password");
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new SessionRegistryImpl();
+        strategy = new ConcurrentSessionControlStrategy(registry);
+        strategy.setMaximumSessions(2);
+    }
+
+    private MockHttpServletRequest login() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        strategy.onAuthentication(joe, request, new MockHttpServletResponse());
+        return request;
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsExpiredWhenMaximumIsExceeded() throws Exception {
+        String first = login().getSession().getId();
+        String second = login().getSession().getId();
+        registry.refreshLastRequest(first);
+        String third = login().getSession().getId();
+
+        assertTrue(registry.getSessionInformation(second).isExpired());
+        assertFalse(registry.getSessionInformation(first).isExpired());
+        assertFalse(registry.getSessionInformation(third).isExpired());
+        assertEquals(2, registry.getUnexpiredSessionCount("joe"));
+    }
+
+    @Test
+    public void reauthenticationInExistingSessionIsAllowedAtMaximum() throws Exception {
+        strategy.setExceptionIfMaximumExceeded(true);
+        login();
+        MockHttpServletRequest request = login();
+
+        // Would raise an exception if the request's session were not recognised as one of joe's
+        strategy.onAuthentication(joe, request, new MockHttpServletResponse());
+
+        assertNotNull(registry.getSessionInformation(request.getSession().getId()));
+    }
+
+    @Test(expected=SessionAuthenticationException.class)
+    public void exceptionIsRaisedWhenMaximumExceededIfConfigured() throws Exception {
+        strategy.setExceptionIfMaximumExceeded(true);
+        login();
+        login();
+        login();
+    }
+
+    @Test
+    public void allSessionsAreUsedWithUnorderedRegistry() throws Exception {
+        SessionRegistry unordered = mock(SessionRegistry.class);
+        SessionInformation older = new SessionInformation("joe", "1", new java.util.Date(1000));
+        SessionInformation newer = new SessionInformation("joe", "2", new java.util.Date(2000));
+        List<SessionInformation> sessions = Arrays.asList(newer, older);
+        when(unordered.getAllSessions("joe", false)).thenReturn(sessions);
+        strategy = new ConcurrentSessionControlStrategy(unordered);
+        strategy.setMaximumSessions(2);
+
+        login();
+
+        assertTrue(older.isExpired());
+        assertFalse(newer.isExpired());
+    }
+
+    @Test
+    public void allSessionsAreSuppliedIfOrderedRegistryIsNotUsed() throws Exception {
+        final List<List<SessionInformation>> supplied = new java.util.ArrayList<List<SessionInformation>>();
+        strategy = new ConcurrentSessionControlStrategy(registry) {
+            @Override
+            protected void allowableSessionsExceeded(List<SessionInformation> sessions, int allowableSessions,
+                    SessionRegistry registry) {
+                supplied.add(sessions);
+                super.allowableSessionsExceeded(sessions, allowableSessions, registry);
+            }
+        };
+        strategy.setMaximumSessions(2);
+        strategy.setUseOrderedRegistry(false);
+
+        login();
+        login();
+        login();
+
+        assertEquals(1, supplied.size());
+        assertEquals(2, supplied.get(0).size());
+        assertEquals(2, registry.getUnexpiredSessionCount("joe"));
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionIsSuppliedByOrderedRegistry() throws Exception {
+        final List<SessionInformation> supplied = new java.util.ArrayList<SessionInformation>();
+        strategy = new ConcurrentSessionControlStrategy(registry) {
+            @Override
+            protected void allowableSessionsExceeded(SessionInformation leastRecentlyUsed, int allowableSessions,
+                    OrderedSessionRegistry registry) {
+                supplied.add(leastRecentlyUsed);
+            }
+        };
+        strategy.setMaximumSessions(1);
+
+        String first = login().getSession().getId();
+        login();
+
+        assertEquals(1, supplied.size());
+        assertEquals(first, supplied.get(0).getSessionId());
+    }
+}